@@ -4,11 +4,22 @@ import java.io.*;
 import java.util.*;
 import java.lang.*;
 
+import ir.webutils.PageStore;
+import ir.webutils.PageStoreReader;
+
 /**
  * An object for iterating over a set of documents in a directory.
  * Produces DocumentFile objects that are either TextFileDocuments
  * or HTMFileDocuments depending on whether docType is TYPE_TEXT
  * or TYPE_HTML
+ * <p>
+ * If the directory is a {@link PageStore PageStore}, or has one in
+ * its "store" subdirectory as left by a spider run with -store, the
+ * pages in the store are produced as well, read from its
+ * memory-mapped segments.  Each is named by the file it would have
+ * been written to (e.g. P001.html in the directory), although no such
+ * file exists.  Subdirectories are skipped.  The store is closed once
+ * its last page has been produced, or by {@link #close close}.
  *
  * @author Ray Mooney
  */
@@ -40,6 +51,19 @@ public class DocumentIterator {
    * Whether tokens should be stemmed with Porter stemmer
    */
   protected boolean stem = false;
+  /**
+   * The directory the documents are in
+   */
+  protected File dirFile = null;
+  /**
+   * The page store in the directory, or null if there is none or it
+   * has been closed
+   */
+  protected PageStoreReader store = null;
+  /**
+   * The names of the pages in the store to produce, after the files
+   */
+  protected List<String> storedNames = new ArrayList<String>();
 
   /**
    * Create an iterator with these attributes
@@ -50,11 +74,27 @@ public class DocumentIterator {
    * @param filter  A filter to select a subset of the docs in the directory
    */
   public DocumentIterator(File dirFile, short docType, boolean stem, FilenameFilter filter) {
-    // Get the files in this directory
-    if (filter != null)
+    this.dirFile = dirFile;
+    store = findStore(dirFile);
+    // Get the files in this directory, unless it is itself a page store
+    if (store != null && PageStoreReader.isStore(dirFile))
+      files = new File[0];
+    else if (filter != null)
       files = dirFile.listFiles(filter);
     else
       files = dirFile.listFiles();
+    if (files != null) {
+      List<File> documentFiles = new ArrayList<File>();
+      for (File file : files)
+        if (!file.isDirectory())
+          documentFiles.add(file);
+      files = documentFiles.toArray(new File[documentFiles.size()]);
+    }
+    if (store != null) {
+      for (String name : store.names())
+        if (filter == null || filter.accept(dirFile, name + ".html"))
+          storedNames.add(name);
+    }
     // Initialize the position and docType
     position = 0;
     this.docType = docType;
@@ -86,7 +126,7 @@ public class DocumentIterator {
    */
   public FileDocument nextDocument() {
     if (position >= files.length)
-      return null;
+      return nextStoredDocument();
     FileDocument doc = null;
     // Create the correct type of FileDocument based on docType
     switch (docType) {
@@ -102,16 +142,110 @@ public class DocumentIterator {
     return doc;
   }
 
+  /**
+   * Get the next document from the page store, or null if none left
+   */
+  protected FileDocument nextStoredDocument() {
+    int index = position - files.length;
+    if (index >= storedNames.size())
+      return null;
+    position++;
+    FileDocument doc = storedDocument(store, dirFile, storedNames.get(index), docType, stem);
+    // The document has its text, so the store is not needed after the last one
+    if (position == files.length + storedNames.size())
+      close();
+    return doc;
+  }
+
+  /**
+   * Closes the page store, if there is one, without producing the
+   * rest of its documents
+   */
+  public void close() {
+    if (store != null) {
+      store.close();
+      store = null;
+      storedNames.clear();
+    }
+  }
+
   /**
    * Returns true iff there are more documents in this directory
    */
   public boolean hasMoreDocuments() {
-    if (files != null && position < files.length)
+    if (files != null && position < files.length + storedNames.size())
       return true;
     else
       return false;
   }
 
+  /**
+   * Returns the page store in a directory or its "store"
+   * subdirectory, or null if there is none.
+   */
+  protected static PageStoreReader findStore(File dirFile) {
+    File storeDir = dirFile;
+    if (!PageStoreReader.isStore(storeDir))
+      storeDir = new File(dirFile, PageStore.DIRECTORY);
+    if (!PageStoreReader.isStore(storeDir))
+      return null;
+    try {
+      return new PageStoreReader(storeDir);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not open page store: " + storeDir);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  /**
+   * Creates the document for a page in a page store, named by the file
+   * in dirFile it would otherwise have been written to.
+   */
+  protected static FileDocument storedDocument(PageStoreReader store, File dirFile, String name,
+                                               short docType, boolean stem) {
+    File file = new File(dirFile, name + ".html");
+    Reader reader = null;
+    try {
+      reader = new StringReader(store.get(name).text);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read stored document: " + file);
+      System.exit(1);
+    }
+    switch (docType) {
+      case TYPE_TEXT:
+        return new TextFileDocument(file, reader, stem);
+      case TYPE_HTML:
+        return new HTMLFileDocument(file, reader, stem);
+    }
+    return null;
+  }
+
+  /**
+   * Recreates a document produced from a page store, for a document
+   * file that does not exist.  Returns null if the file's directory
+   * has no store with the page in it.  The store is opened for this
+   * document only, and closed again once its text has been read.
+   */
+  public static FileDocument storedDocument(File file, short docType, boolean stem) {
+    PageStoreReader store = findStore(file.getAbsoluteFile().getParentFile());
+    if (store == null)
+      return null;
+    try {
+      String name = file.getName();
+      if (name.endsWith(".html"))
+        name = name.substring(0, name.length() - 5);
+      if (!store.contains(name))
+        return null;
+      return storedDocument(store, file.getParentFile(), name, docType, stem);
+    }
+    finally {
+      store.close();
+    }
+  }
+
   /**
    * Test by printing the bag-of-words for each file in the given directory
    */
@@ -39,10 +39,17 @@ public class DocumentReference {
 
   /**
    * Get the full Document for this Document reference by recreating it
-   * with the given docType and stemming
+   * with the given docType and stemming, from the page store it came
+   * from if it has no file
    */
   public Document getDocument(short docType, boolean stem) {
     Document doc = null;
+    // Documents read from a page store have no file of their own
+    if (!file.exists()) {
+      doc = DocumentIterator.storedDocument(file, docType, stem);
+      if (doc != null)
+        return doc;
+    }
     switch (docType) {
       case DocumentIterator.TYPE_TEXT:
         doc = new TextFileDocument(file, stem);
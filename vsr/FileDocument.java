@@ -22,14 +22,31 @@ public abstract class FileDocument extends Document {
    * Creates a FileDocument and initializes its name and reader.
    */
   public FileDocument(File file, boolean stem) {
+    this(file, open(file), stem);
+  }
+
+  /**
+   * Creates a FileDocument whose text is read from the given reader
+   * rather than from the file, e.g. a page kept in a page store.  The
+   * file gives the document its name.
+   */
+  public FileDocument(File file, Reader reader, boolean stem) {
     super(stem);
     this.file = file;
+    this.reader = new BufferedReader(reader);
+  }
+
+  /**
+   * Opens a file for reading, exiting if it cannot be opened.
+   */
+  protected static Reader open(File file) {
     try {
-      this.reader = new BufferedReader(new FileReader(file));
+      return new FileReader(file);
     }
     catch (IOException e) {
       System.out.println("\nCould not open FileDocument: " + file);
       System.exit(1);
+      return null;
     }
   }
 
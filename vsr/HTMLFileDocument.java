@@ -2,74 +2,17 @@ package ir.vsr;
 
 import java.io.*;
 import java.util.*;
-import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
 
-/**
- * A thread that parses an HTML file document and extracts plain text
- * from the title and the document body.  It feeds the
- * HTMLFileDocument reader with a stream of text free of HTML
- * commands.  It makes use of the Swing HTML parser which converts
- * HTML character entities into Java characters automatically.
- *
- * @author Yuk Wah Wong
- */
-class HTMLFileParserThread extends Thread {
-
-  /**
-   * The name of the HTML file
-   */
-  protected File file;
-  /**
-   * The I/O reader for accessing the HTML file
-   */
-  protected BufferedReader reader;
-  /**
-   * The I/O writer to which extracted plain text is written
-   */
-  protected PrintWriter writer;
-
-  /**
-   * Create an HTMLFileParserThread and initialize its reader and writer.
-   */
-  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
-    this.file = file;
-    this.reader = reader;
-    this.writer = new PrintWriter(writer);
-  }
-
-  /**
-   * Read the HTML file and parse it.  Extract plain text from the
-   * document and print it to the I/O writer.
-   */
-  public void run() {
-    try {
-      // the HTML parser callback ignores everything but the
-      // content of the document
-      HTMLEditorKit.ParserCallback callback =
-          new HTMLEditorKit.ParserCallback() {
-            public void handleText(char[] data, int pos) {
-              // print the text to the I/O writer
-              writer.println(data);
-            }
-          };
-      // entry point into the Swing HTML parser
-      new ParserDelegator().parse(reader, callback, true);
-      // close the I/O reader and writer when parsing is finished
-      reader.close();
-      writer.close();
-    } catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-  }
-
-}
+import ir.webutils.HTMLLexer;
 
 /**
  * An HTML file document where HTML commands are removed
  * from the token stream.  To include HTML tokens, just
  * create a TextFileDocument from the HTML file.
+ * <p>
+ * The file is scanned by {@link HTMLLexer HTMLLexer} on the calling
+ * thread, and the text between tags (with character entities decoded)
+ * is split into tokens as it is reported.
  *
  * @author Ray Mooney
  */
@@ -82,36 +25,54 @@ public class HTMLFileDocument extends FileDocument {
   public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
 
   /**
-   * The tokenizer for lines read from this document.
+   * Whether each character is in <code>tokenizerDelim</code>
    */
-  protected StringTokenizer tokenizer = null;
+  protected static final boolean[] isDelim = new boolean[128];
+
+  static {
+    for (int i = 0; i < tokenizerDelim.length(); i++)
+      isDelim[tokenizerDelim.charAt(i)] = true;
+  }
+
+  /**
+   * The tokens of the text of the document, in order
+   */
+  protected List<String> tokens = new ArrayList<String>();
 
   /**
-   * The I/O reader for accessing the output of the HTML parser.
+   * The index of the next token to return
    */
-  protected BufferedReader textReader = null;
+  protected int tokenIndex = 0;
 
   /**
    * Create a new text document for the given file.
    */
   public HTMLFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
+    this(file, open(file), stem);
+  }
+
+  /**
+   * Create a new text document named by the given file whose text is
+   * read from the given reader.
+   */
+  public HTMLFileDocument(File file, Reader in, boolean stem) {
+    super(file, in, stem);  // Create a FileDocument
     try {
-      // Create a new thread for parsing the HTML file.  The
-      // output stream of the thread is connected to textReader.
-      PipedWriter textWriter = new PipedWriter();
-      textReader = new BufferedReader(new PipedReader(textWriter));
-      HTMLFileParserThread thread = new HTMLFileParserThread(file, reader, textWriter);
-      // The thread parses the HTML file at the same time when
-      // its plain text output is read
-      thread.start();
-
-      // create a StringTokenizer for the first line of the
-      // plain text
-      String line = textReader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
+      // Read the whole file and pass the text between tags to the tokenizer
+      char[] text = new char[(int) Math.max(1024, file.length())];
+      int length = 0;
+      int n;
+      while ((n = reader.read(text, length, text.length - length)) != -1) {
+        length += n;
+        if (length == text.length)
+          text = Arrays.copyOf(text, 2 * text.length);
       }
+      reader.close();
+      new HTMLLexer().parse(text, length, new HTMLLexer.Callback() {
+        public void handleText(char[] text, int start, int length, int position) {
+          addTokens(text, start, length);
+        }
+      });
       prepareNextToken();  // Prepare the first token
     }
     catch (IOException e) {
@@ -128,33 +89,44 @@ public class HTMLFileDocument extends FileDocument {
   }
 
   /**
-   * Return the next purely alpha-character token in the document, or null if none left.
+   * Splits a run of text into tokens at the characters in
+   * <code>tokenizerDelim</code> and adds them to <code>tokens</code>.
    */
-  protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
-    try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read another line of plain text
-        String line = textReader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          textReader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
+  protected void addTokens(char[] text, int start, int length) {
+    int end = start + length;
+    for (int i = start; i < end; i++) {
+      if (text[i] == '&') {
+        // Decode character entities before splitting
+        String decoded = HTMLLexer.decode(text, start, length);
+        text = decoded.toCharArray();
+        start = 0;
+        end = text.length;
+        break;
       }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
     }
-    catch (IOException e) {
-      System.out.println("\nCould not read from HTMLFileDocument: " + file);
-      System.exit(1);
+    int tokenStart = -1;
+    for (int i = start; i < end; i++) {
+      char c = text[i];
+      if (c < 128 && isDelim[c]) {
+        if (tokenStart >= 0) {
+          tokens.add(new String(text, tokenStart, i - tokenStart));
+          tokenStart = -1;
+        }
+      }
+      else if (tokenStart < 0)
+        tokenStart = i;
     }
-    return candidateToken;
+    if (tokenStart >= 0)
+      tokens.add(new String(text, tokenStart, end - tokenStart));
+  }
+
+  /**
+   * Return the next purely alpha-character token in the document, or null if none left.
+   */
+  protected String getNextCandidateToken() {
+    if (tokenIndex == tokens.size())
+      return null;
+    return tokens.get(tokenIndex++);
   }
 
   /**
@@ -25,7 +25,15 @@ public class TextFileDocument extends FileDocument {
    * Create a new text document for the given file.
    */
   public TextFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
+    this(file, open(file), stem);
+  }
+
+  /**
+   * Create a new text document named by the given file whose text is
+   * read from the given reader.
+   */
+  public TextFileDocument(File file, Reader in, boolean stem) {
+    super(file, in, stem);  // Create a FileDocument
     try {
       // create a StringTokenizer for the first line in the file
       String line = reader.readLine();
@@ -0,0 +1,136 @@
+package ir.webutils;
+
+import java.io.*;
+
+/**
+ * A Bloom filter over 64-bit fingerprints.  It answers whether a
+ * fingerprint may have been added, with no false negatives and a
+ * false positive rate fixed when the filter is created.  For a 1%
+ * rate a Bloom filter uses about 1.2 bytes per entry, far less than
+ * storing the fingerprints themselves, at the cost of occasionally
+ * treating a new URL as already visited.
+ *
+ * @author Garrett Kelley
+ */
+public class BloomFilter {
+
+  /**
+   * The bit array
+   */
+  protected long[] bits;
+
+  /**
+   * The number of bits in the array
+   */
+  protected long numBits;
+
+  /**
+   * The number of bit positions set for each entry
+   */
+  protected int numHashes;
+
+  /**
+   * The number of entries added (not counting repeats that were detected)
+   */
+  protected long size = 0;
+
+  /**
+   * Constructs a filter sized to hold <code>expectedSize</code>
+   * entries with the given false positive rate.
+   *
+   * @param expectedSize      The expected number of entries.
+   * @param falsePositiveRate The desired false positive rate, e.g. 0.01.
+   */
+  public BloomFilter(long expectedSize, double falsePositiveRate) {
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+      throw new IllegalArgumentException("False positive rate must be between 0 and 1: "
+          + falsePositiveRate);
+    double ln2 = Math.log(2);
+    long m = (long) Math.ceil(-Math.max(1, expectedSize) * Math.log(falsePositiveRate) / (ln2 * ln2));
+    init(Math.max(64, m), Math.max(1, (int) Math.round((double) m / Math.max(1, expectedSize) * ln2)));
+  }
+
+  private BloomFilter() {
+  }
+
+  private void init(long numBits, int numHashes) {
+    this.bits = new long[(int) ((numBits + 63) / 64)];
+    this.numBits = 64L * bits.length;
+    this.numHashes = numHashes;
+  }
+
+  /**
+   * Adds a fingerprint to the filter.
+   *
+   * @return <code>true</code> iff. the fingerprint was definitely not
+   *         in the filter before.
+   */
+  public boolean add(long fingerprint) {
+    boolean added = false;
+    long h1 = fingerprint;
+    long h2 = Fingerprint.mix(fingerprint) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = Math.floorMod(h1 + i * h2, numBits);
+      long mask = 1L << bit;
+      int word = (int) (bit >>> 6);
+      if ((bits[word] & mask) == 0) {
+        bits[word] |= mask;
+        added = true;
+      }
+    }
+    if (added)
+      size++;
+    return added;
+  }
+
+  /**
+   * Returns true if the fingerprint may have been added.
+   */
+  public boolean contains(long fingerprint) {
+    long h1 = fingerprint;
+    long h2 = Fingerprint.mix(fingerprint) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = Math.floorMod(h1 + i * h2, numBits);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of entries added.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns the approximate number of bytes of memory used by the filter.
+   */
+  public long memoryBytes() {
+    return 8L * bits.length;
+  }
+
+  /**
+   * Writes the filter to a stream.
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeLong(numBits);
+    out.writeInt(numHashes);
+    out.writeLong(size);
+    for (long word : bits)
+      out.writeLong(word);
+  }
+
+  /**
+   * Reads a filter written by <code>write</code>.
+   */
+  public static BloomFilter read(DataInputStream in) throws IOException {
+    BloomFilter filter = new BloomFilter();
+    filter.init(in.readLong(), in.readInt());
+    filter.size = in.readLong();
+    for (int i = 0; i < filter.bits.length; i++)
+      filter.bits[i] = in.readLong();
+    return filter;
+  }
+}
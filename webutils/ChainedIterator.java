@@ -0,0 +1,58 @@
+package ir.webutils;
+
+import java.util.*;
+
+/**
+ * A read-only iterator over the elements of several collections (or
+ * other <code>Iterable</code>s) one after another.  Each one's iterator
+ * is only asked for once the previous one is used up, so nothing is
+ * copied, and a collection that is read from disk is read only as far
+ * as the iteration gets.
+ *
+ * @author Garrett Kelley
+ */
+public class ChainedIterator<E> implements Iterator<E> {
+
+  /**
+   * The collections not started yet
+   */
+  protected Iterator<? extends Iterable<? extends E>> parts;
+
+  /**
+   * The iterator over the current collection
+   */
+  protected Iterator<? extends E> current = Collections.<E>emptyList().iterator();
+
+  /**
+   * Creates an iterator over the given collections in order.
+   */
+  public ChainedIterator(Iterator<? extends Iterable<? extends E>> parts) {
+    this.parts = parts;
+  }
+
+  /**
+   * Creates an iterator over the given collections in order.
+   */
+  public ChainedIterator(Iterable<? extends Iterable<? extends E>> parts) {
+    this(parts.iterator());
+  }
+
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (!parts.hasNext())
+        return false;
+      current = parts.next().iterator();
+    }
+    return true;
+  }
+
+  public E next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return current.next();
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
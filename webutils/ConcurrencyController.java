@@ -0,0 +1,362 @@
+package ir.webutils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ConcurrencyController adapts how hard a crawl presses, globally and
+ * on each host, to how the servers respond, in the additive increase,
+ * multiplicative decrease (AIMD) manner of TCP congestion control.
+ * <p>
+ * Globally it limits the number of downloads in flight.  Crawl threads
+ * call {@link #acquire acquire} before taking a link and {@link
+ * #release release} when done.  Every good response raises the limit
+ * by about one per round of downloads (by <code>1/limit</code>), as
+ * long as the limit is actually being used.  An error, responses
+ * getting slower across hosts, or going over the bandwidth cap halves
+ * it, at most once a second so that one burst of trouble is not
+ * counted many times.  Response times are compared with the fastest
+ * seen from the same host, so a host that is always slow does not hold
+ * the crawl back.
+ * <p>
+ * A spider never has more than one download running against a host,
+ * so for each host the controller adapts the delay between requests
+ * instead ({@link #getHostDelay getHostDelay}): it is doubled when the
+ * host fails or slows down and shortened by <code>delayStep</code>
+ * after each good response.
+ * <p>
+ * Each decision is counted in the <code>CrawlStatistics</code> given
+ * to the constructor, and {@link #report report} prints the current
+ * state.  All methods are thread safe.
+ *
+ * @author Garrett Kelley
+ */
+public class ConcurrencyController {
+
+  /**
+   * How much slower than its fastest response a host must get, on
+   * average, to count as slowing down
+   */
+  public static final double SLOW_FACTOR = 3.0;
+
+  /**
+   * Responses faster than this many milliseconds never count as slow
+   */
+  public static final long MIN_SLOW_LATENCY = 250;
+
+  /**
+   * The least number of milliseconds between two decreases of the
+   * global limit
+   */
+  public static final long DECREASE_INTERVAL = 1000;
+
+  /**
+   * Weight of each new observation in the moving averages
+   */
+  protected static final double EWMA_WEIGHT = 0.2;
+
+  /**
+   * The most downloads that may be in flight
+   */
+  protected final int maxLimit;
+
+  /**
+   * The current limit on downloads in flight, between 1 and
+   * <code>maxLimit</code>
+   */
+  protected double limit;
+
+  /**
+   * The number of downloads in flight
+   */
+  protected int inFlight = 0;
+
+  /**
+   * The most bytes per second to receive, or -1 for no cap
+   */
+  protected long bandwidthCap = -1;
+
+  /**
+   * Bytes received in each tenth of the last second, indexed by the
+   * tenth of a second they arrived in modulo 10
+   */
+  protected final long[] byteBuckets = new long[10];
+
+  /**
+   * The tenth of a second (since the epoch) of the newest bucket
+   */
+  protected long currentBucket = 0;
+
+  /**
+   * Moving average of response times divided by the fastest response
+   * time of the same host
+   */
+  protected double slowness = 1.0;
+
+  /**
+   * Time in milliseconds of the last decrease of the limit
+   */
+  protected long lastDecrease = 0;
+
+  /**
+   * The least and most delay in milliseconds between requests to one
+   * host
+   */
+  protected long minDelay = 0, maxDelay = 60000;
+
+  /**
+   * Milliseconds the delay of a host is shortened by after a good
+   * response
+   */
+  protected long delayStep = 100;
+
+  /**
+   * What is known about each host that has responded
+   */
+  protected final Map<String, HostState> hosts = new HashMap<String, HostState>();
+
+  /**
+   * Where decisions are counted, or <code>null</code>
+   */
+  protected final CrawlStatistics stats;
+
+  /**
+   * Creates a controller that starts with one download in flight.
+   *
+   * @param maxLimit The most downloads that may be in flight, e.g.
+   *                 the number of crawl threads.
+   * @param stats    Where decisions are counted, or
+   *                 <code>null</code>.
+   */
+  public ConcurrencyController(int maxLimit, CrawlStatistics stats) {
+    if (maxLimit < 1)
+      throw new IllegalArgumentException("maxLimit must be at least 1: " + maxLimit);
+    this.maxLimit = maxLimit;
+    this.limit = 1;
+    this.stats = stats;
+  }
+
+  /**
+   * Sets the most bytes per second to receive.  While the last second
+   * went over it no new downloads are started, and the limit is
+   * decreased.
+   *
+   * @param bandwidthCap The cap in bytes per second, or -1 for none.
+   */
+  public synchronized void setBandwidthCap(long bandwidthCap) {
+    this.bandwidthCap = bandwidthCap;
+  }
+
+  /**
+   * Sets the least delay between requests to a host.  The delay of a
+   * host is never shortened below it.
+   */
+  public synchronized void setMinDelay(long minDelay) {
+    this.minDelay = minDelay;
+  }
+
+  /**
+   * Waits until another download may start and counts it as in flight.
+   *
+   * @return False if the thread was interrupted while waiting.
+   */
+  public synchronized boolean acquire() {
+    boolean waited = false;
+    while (inFlight >= (int) limit || overBandwidth()) {
+      if (!waited && overBandwidth())
+        count("Bandwidth cap waits", 1);
+      waited = true;
+      try {
+        // Bandwidth frees up with time rather than with a release
+        wait(bandwidthCap > 0 ? 100 : 0);
+      }
+      catch (InterruptedException e) {
+        return false;
+      }
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Marks a download started by <code>acquire</code> as finished.
+   */
+  public synchronized void release() {
+    inFlight--;
+    notifyAll();
+  }
+
+  /**
+   * Records the outcome of a download from a host and adjusts the
+   * global limit and the delay of the host.
+   *
+   * @param host    The host downloaded from.
+   * @param millis  How long the download took.
+   * @param bytes   The number of bytes received.
+   * @param failure True if the download failed (see {@link
+   *                HostCircuitBreaker#isFailure
+   *                HostCircuitBreaker.isFailure}).
+   */
+  public synchronized void record(String host, long millis, long bytes, boolean failure) {
+    long now = System.currentTimeMillis();
+    addBytes(now, bytes);
+    HostState state = hosts.get(host);
+    if (state == null) {
+      state = new HostState();
+      state.delay = minDelay;
+      hosts.put(host, state);
+    }
+    boolean hostSlow = false;
+    if (!failure) {
+      state.fastest = Math.min(state.fastest, Math.max(1, millis));
+      state.latency = (state.latency < 0) ? millis : (1 - EWMA_WEIGHT) * state.latency + EWMA_WEIGHT * millis;
+      hostSlow = state.latency > MIN_SLOW_LATENCY && state.latency > SLOW_FACTOR * state.fastest;
+      slowness = (1 - EWMA_WEIGHT) * slowness + EWMA_WEIGHT * ((double) millis / state.fastest);
+    }
+
+    if (failure || hostSlow) {
+      long delay = Math.min(maxDelay, Math.max(2 * state.delay, Math.max(minDelay, delayStep)));
+      if (delay != state.delay)
+        count("Host delay increases", 1);
+      state.delay = delay;
+    }
+    else if (state.delay > minDelay)
+      state.delay = Math.max(minDelay, state.delay - delayStep);
+
+    if (failure || slowness > SLOW_FACTOR || overBandwidth())
+      decrease(now);
+    // Grow only when the limit is what holds the crawl back
+    else if (inFlight >= (int) limit && limit < maxLimit) {
+      int before = (int) limit;
+      limit = Math.min(maxLimit, limit + 1 / limit);
+      if ((int) limit > before)
+        count("Concurrency increases", 1);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Halves the limit unless it was decreased within the last
+   * <code>DECREASE_INTERVAL</code>.
+   */
+  protected void decrease(long now) {
+    if (now - lastDecrease < DECREASE_INTERVAL || limit <= 1)
+      return;
+    lastDecrease = now;
+    limit = Math.max(1, limit / 2);
+    // Start judging speed afresh at the new limit
+    slowness = 1.0;
+    count("Concurrency decreases", 1);
+  }
+
+  /**
+   * Returns the number of milliseconds to wait between requests to a
+   * host.
+   */
+  public synchronized long getHostDelay(String host) {
+    HostState state = hosts.get(host);
+    return (state == null) ? minDelay : state.delay;
+  }
+
+  /**
+   * Returns the current limit on downloads in flight.
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Returns the number of downloads in flight.
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Returns the number of bytes received in the last second.
+   */
+  public synchronized long getBytesPerSecond() {
+    addBytes(System.currentTimeMillis(), 0);
+    long total = 0;
+    for (long bucket : byteBuckets)
+      total += bucket;
+    return total;
+  }
+
+  /**
+   * Returns true if the bytes received in the last second are over
+   * the cap.
+   */
+  protected boolean overBandwidth() {
+    return bandwidthCap > 0 && getBytesPerSecond() > bandwidthCap;
+  }
+
+  /**
+   * Adds bytes received now to the last second, clearing buckets that
+   * have fallen out of it.
+   */
+  protected void addBytes(long now, long bytes) {
+    long bucket = now / 100;
+    if (bucket - currentBucket >= byteBuckets.length)
+      Arrays.fill(byteBuckets, 0);
+    else {
+      for (long b = currentBucket + 1; b <= bucket; b++)
+        byteBuckets[(int) (b % byteBuckets.length)] = 0;
+    }
+    if (bucket > currentBucket)
+      currentBucket = bucket;
+    byteBuckets[(int) (currentBucket % byteBuckets.length)] += bytes;
+  }
+
+  /**
+   * Counts a decision in the crawl statistics.
+   */
+  protected void count(String name, long n) {
+    if (stats != null)
+      stats.increment(name, n);
+  }
+
+  /**
+   * Prints the current limit and the hosts with the longest delays.
+   */
+  public synchronized void report(PrintStream out) {
+    out.println("  Concurrency: limit " + (int) limit + " of " + maxLimit
+        + (bandwidthCap > 0 ? ", bandwidth cap " + bandwidthCap + " bytes/sec" : ""));
+    List<Map.Entry<String, HostState>> delayed = new ArrayList<Map.Entry<String, HostState>>();
+    for (Map.Entry<String, HostState> entry : hosts.entrySet()) {
+      if (entry.getValue().delay > minDelay)
+        delayed.add(entry);
+    }
+    Collections.sort(delayed, new Comparator<Map.Entry<String, HostState>>() {
+      public int compare(Map.Entry<String, HostState> a, Map.Entry<String, HostState> b) {
+        return Long.compare(b.getValue().delay, a.getValue().delay);
+      }
+    });
+    for (Map.Entry<String, HostState> entry : delayed.subList(0, Math.min(CrawlStatistics.REPORTED_HOSTS, delayed.size())))
+      out.println("    " + entry.getKey() + ": delay " + entry.getValue().delay + " ms, average response "
+          + Math.round(entry.getValue().latency) + " ms, fastest " + entry.getValue().fastest + " ms");
+  }
+
+  public synchronized String toString() {
+    return "limit " + (int) limit + " of " + maxLimit + ", " + inFlight + " in flight";
+  }
+
+  /**
+   * What is known about a host
+   */
+  protected static class HostState {
+    /**
+     * Milliseconds to wait between requests
+     */
+    long delay;
+    /**
+     * The fastest good response in milliseconds
+     */
+    long fastest = Long.MAX_VALUE;
+    /**
+     * Moving average of good response times in milliseconds, -1 before
+     * the first
+     */
+    double latency = -1;
+  }
+}
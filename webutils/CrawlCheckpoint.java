@@ -0,0 +1,742 @@
+package ir.webutils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CrawlCheckpoint records the state of a crawl in a directory as it
+ * goes, so that a crawl stopped by a crash or Ctrl-C can be resumed
+ * with {@link #restore restore} instead of starting again from the
+ * seed.
+ * <p>
+ * Every change is appended to a log: a link queued (which also marks
+ * it visited), a URL marked visited without being queued, a link
+ * finished, and a page indexed.  Log records collect in memory and a
+ * background thread writes them out at most a second (or 64 KB)
+ * later, so checkpointing costs the crawl threads little.  Since
+ * changes are logged in the order they happen, whatever part of the
+ * log reaches the disk describes a state the crawl actually passed
+ * through.  Every so often the spider writes a compacted {@link
+ * #snapshot snapshot} of the whole state (page count, queued links
+ * and visited set) and the log starts again empty.  Each snapshot has
+ * a generation number, which a log records at its start, so a log
+ * older than the snapshot is never replayed on top of it.
+ * <p>
+ * A page the spider saves in the background is announced with {@link
+ * #pageSaving pageSaving} before it is indexed and {@link #pageSaved
+ * pageSaved} once it has been saved.  The log is only written up to
+ * the first page that is indexed but not saved yet, and a snapshot
+ * counts only the pages up to it (the links of later ones are put
+ * back in the queue and their records logged again), so the
+ * checkpoint never counts a page whose file does not exist.
+ * <p>
+ * Indexed pages are also appended to a separate pages file, with the
+ * out-links of each page if the spider asks for them, and the {@link
+ * SimHash SimHash} of each page the spider added to its near-duplicate
+ * index.  The pages file is written before the log, so every page the
+ * log counts is in it.  It is never compacted: it is what a spider
+ * such as {@link PageRankSpider PageRankSpider} needs to rebuild its
+ * link graph, and what any spider needs to rebuild its SimHash index,
+ * in the original order, when resuming.
+ * <p>
+ * The spider calls the methods that log changes while holding its own
+ * lock, which keeps the log in the order the changes were made; they
+ * only add to the buffers in memory.  They do not throw: an error
+ * writing the checkpoint is reported once and stops checkpointing, and
+ * the crawl goes on.
+ *
+ * @author Garrett Kelley
+ */
+public class CrawlCheckpoint {
+
+  /**
+   * Identifies a snapshot file
+   */
+  protected static final int SNAPSHOT_MAGIC = 0x434b5032; // "CKP2"
+
+  /**
+   * Log record types
+   */
+  protected static final byte QUEUED = 1, VISITED = 2, DONE = 3, INDEXED = 4;
+
+  /**
+   * The most milliseconds logged changes stay in memory
+   */
+  public static final long FLUSH_INTERVAL = 1000;
+
+  /**
+   * The directory the checkpoint is kept in
+   */
+  protected final File dir;
+
+  /**
+   * The log of changes since the last snapshot
+   */
+  protected final File logFile;
+
+  /**
+   * The last snapshot
+   */
+  protected final File snapshotFile;
+
+  /**
+   * The pages indexed, with their out-links
+   */
+  protected final File pagesFile;
+
+  /**
+   * Milliseconds between snapshots
+   */
+  protected final long snapshotInterval;
+
+  /**
+   * The generation of the last snapshot, 0 if there is none
+   */
+  protected long generation = 0;
+
+  /**
+   * The most bytes of log records kept in memory before the writer
+   * thread is woken
+   */
+  protected static final int LOG_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Stream the log records are written to, which collects them in
+   * <code>logBuffer</code> until they are written to
+   * <code>logOut</code>; <code>null</code> until the first snapshot
+   */
+  protected DataOutputStream log = null;
+  protected ByteArrayOutputStream logBuffer = new ByteArrayOutputStream(LOG_BUFFER_SIZE);
+  protected FileOutputStream logOut = null;
+
+  /**
+   * Stream the page records are written to, which collects them in
+   * <code>pagesBuffer</code> until they are written to
+   * <code>pagesOut</code>; <code>null</code> until {@link #open open}
+   * is called
+   */
+  protected DataOutputStream pages = null;
+  protected ByteArrayOutputStream pagesBuffer = new ByteArrayOutputStream(LOG_BUFFER_SIZE);
+  protected FileOutputStream pagesOut = null;
+
+  /**
+   * The counts of the pages being saved in the background
+   */
+  protected SortedSet<Integer> unsaved = new TreeSet<Integer>();
+
+  /**
+   * For each INDEXED record in <code>logBuffer</code> of a page that
+   * was not saved when it was logged, its offset in the buffer and the
+   * page count, in order
+   */
+  protected ArrayDeque<int[]> heldRecords = new ArrayDeque<int[]>();
+
+  /**
+   * The links of the pages indexed from the first one not saved yet
+   * on, by page count, for snapshots
+   */
+  protected SortedMap<Integer, Link> recentPages = new TreeMap<Integer, Link>();
+
+  /**
+   * Held while writing to the files, so the writer thread and
+   * snapshots take turns; taken before the checkpoint's own lock
+   */
+  protected final Object fileLock = new Object();
+
+  /**
+   * The thread that writes the buffers to the files, once opened
+   */
+  protected Thread writer = null;
+
+  /**
+   * Whether the checkpoint has been closed
+   */
+  protected boolean closed = false;
+
+  /**
+   * Time in milliseconds of the last snapshot
+   */
+  protected long lastSnapshot = 0;
+
+  /**
+   * Links taken off the queue that are not finished yet.  They are
+   * part of the queue as far as a snapshot is concerned.
+   */
+  protected Set<Link> inProgress = new LinkedHashSet<Link>();
+
+  /**
+   * Creates a checkpoint kept in the given directory.
+   *
+   * @param dir              The directory, created if needed.
+   * @param snapshotInterval Milliseconds between snapshots.
+   */
+  public CrawlCheckpoint(File dir, long snapshotInterval) {
+    this.dir = dir;
+    this.logFile = new File(dir, "log");
+    this.snapshotFile = new File(dir, "snapshot");
+    this.pagesFile = new File(dir, "pages");
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /**
+   * Returns true if there is a checkpoint to restore.
+   */
+  public boolean exists() {
+    return snapshotFile.exists() || logFile.exists();
+  }
+
+  /**
+   * The state of a crawl read back from a checkpoint
+   */
+  public static class State {
+    /**
+     * The number of pages indexed
+     */
+    public int count = 0;
+    /**
+     * The URLs visited
+     */
+    public VisitedSet visited;
+    /**
+     * The links still to visit, in queue order
+     */
+    public List<Link> frontier = new ArrayList<Link>();
+  }
+
+  /**
+   * Reads the last snapshot and replays the log on top of it, then
+   * replays the indexed pages through {@link
+   * Spider#restoreIndexedPage Spider.restoreIndexedPage}.  Records cut
+   * short by a crash are ignored, as are pages beyond the restored
+   * page count.
+   *
+   * @throws IOException If the checkpoint cannot be read, or the pages
+   *                     file has fewer pages than the log counts.
+   *
+   * @param visited The visited set to replay the log into if there is
+   *                no snapshot (otherwise the snapshot's set is used).
+   * @param spider  The spider to give the indexed pages to.
+   * @return The restored state.
+   */
+  public State restore(VisitedSet visited, Spider spider) throws IOException {
+    State state = new State();
+    state.visited = visited;
+    Map<String, Link> pending = new LinkedHashMap<String, Link>();
+    if (snapshotFile.exists()) {
+      DataInputStream in = openInput(snapshotFile);
+      try {
+        if (in.readInt() != SNAPSHOT_MAGIC)
+          throw new IOException("Not a checkpoint snapshot: " + snapshotFile);
+        generation = in.readLong();
+        state.count = in.readInt();
+        // Each link is preceded by true, and the last by false
+        while (in.readBoolean()) {
+          Link link = new Link(readString(in));
+          pending.put(link.toString(), link);
+        }
+        state.visited = VisitedSet.read(in);
+      }
+      finally {
+        in.close();
+      }
+    }
+    if (logFile.exists()) {
+      DataInputStream in = openInput(logFile);
+      try {
+        // A log written before the snapshot is already part of it
+        if (in.readLong() == generation) {
+          while (true) {
+            byte type = in.readByte();
+            if (type == QUEUED) {
+              Link link = new Link(readString(in));
+              state.visited.add(link);
+              pending.put(link.toString(), link);
+            }
+            else if (type == VISITED)
+              state.visited.add(in.readLong());
+            else if (type == DONE)
+              pending.remove(readString(in));
+            else if (type == INDEXED) {
+              state.count = in.readInt();
+              pending.remove(readString(in));
+            }
+            else
+              throw new IOException("Bad checkpoint log record " + type);
+          }
+        }
+      }
+      catch (EOFException e) {
+        // The end of the log, possibly in the middle of a record
+      }
+      finally {
+        in.close();
+      }
+    }
+    state.frontier.addAll(pending.values());
+    int pagesRestored = restorePages(state.count, spider);
+    if (pagesRestored < state.count)
+      throw new IOException("Checkpoint pages file has " + pagesRestored + " pages, but "
+          + state.count + " were indexed: " + pagesFile);
+    return state;
+  }
+
+  /**
+   * Replays the indexed pages up to the given count and cuts off any
+   * beyond it, so pages indexed again after resuming are not
+   * recorded twice.
+   *
+   * @return The page count of the last page replayed, 0 if none.
+   */
+  protected int restorePages(int count, Spider spider) throws IOException {
+    if (!pagesFile.exists())
+      return 0;
+    long valid = 0;
+    int last = 0;
+    DataInputStream in = openInput(pagesFile);
+    try {
+      while (true) {
+        int pageCount = in.readInt();
+        if (pageCount > count)
+          break;
+        String url = readString(in);
+        int size = in.readInt();
+        List<String> links = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++)
+          links.add(readString(in));
+        boolean hasSimHash = in.readBoolean();
+        long simHash = hasSimHash ? in.readLong() : 0;
+        spider.restoreIndexedPage(pageCount, url, links);
+        if (hasSimHash)
+          spider.restoreSimHash(url, simHash);
+        last = pageCount;
+        valid += 4 + stringBytes(url) + 4 + 1 + (hasSimHash ? 8 : 0);
+        for (String link : links)
+          valid += stringBytes(link);
+      }
+    }
+    catch (EOFException e) {
+      // The end of the file, possibly in the middle of a record
+    }
+    finally {
+      in.close();
+    }
+    RandomAccessFile file = new RandomAccessFile(pagesFile, "rw");
+    try {
+      file.setLength(valid);
+    }
+    finally {
+      file.close();
+    }
+    return last;
+  }
+
+  /**
+   * Opens the checkpoint for logging and starts the thread that writes
+   * it.  Should be followed by a snapshot, which starts the log.
+   */
+  public void open() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Could not create checkpoint directory " + dir);
+    synchronized (this) {
+      pagesOut = new FileOutputStream(pagesFile, true);
+      pages = new DataOutputStream(pagesBuffer);
+      closed = false;
+      lastSnapshot = System.currentTimeMillis();
+    }
+    writer = new Thread("CrawlCheckpoint") {
+      public void run() {
+        writeLoop();
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * The loop run by the writer thread: writes the buffers out every
+   * <code>FLUSH_INTERVAL</code> milliseconds, or sooner if the log
+   * buffer fills.
+   */
+  protected void writeLoop() {
+    while (true) {
+      synchronized (this) {
+        try {
+          if (!closed && logBuffer.size() < LOG_BUFFER_SIZE)
+            wait(FLUSH_INTERVAL);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        if (closed)
+          return;
+      }
+      flush();
+    }
+  }
+
+  /**
+   * Records that a link was queued, and so visited.
+   */
+  public synchronized void queued(Link link) {
+    if (log == null)
+      return;
+    try {
+      log.writeByte(QUEUED);
+      writeString(log, link.toString());
+      logged();
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Records that a URL was marked visited without being queued.
+   */
+  public synchronized void visited(Link link) {
+    if (log == null)
+      return;
+    try {
+      log.writeByte(VISITED);
+      log.writeLong(link.fingerprint());
+      logged();
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Records that a link was taken off the queue.  Nothing is logged,
+   * since the link stays part of the queue until it is finished.
+   */
+  public synchronized void taken(Link link) {
+    inProgress.add(link);
+  }
+
+  /**
+   * Records that processing of a link taken off the queue is finished.
+   */
+  public synchronized void done(Link link) {
+    inProgress.remove(link);
+    if (log == null)
+      return;
+    try {
+      log.writeByte(DONE);
+      writeString(log, link.toString());
+      logged();
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Records that the page with the given count is about to be indexed
+   * but will be saved later, in the background.  Its INDEXED record,
+   * and everything logged after it, is held back until {@link
+   * #pageSaved pageSaved} is called for it.
+   */
+  public synchronized void pageSaving(int count) {
+    unsaved.add(count);
+  }
+
+  /**
+   * Records that the page with the given count, announced with
+   * <code>pageSaving</code>, has been saved (or given up on after an
+   * error).  May be called by any thread.
+   */
+  public synchronized void pageSaved(int count) {
+    unsaved.remove(count);
+    forgetSavedPages();
+  }
+
+  /**
+   * Records that a page was indexed.
+   *
+   * @param count   The page count including this page.
+   * @param link    The link of the page.
+   * @param links   The out-links to keep for the page, possibly none.
+   * @param simHash The SimHash of the page, if it was added to the
+   *                spider's near-duplicate index, otherwise
+   *                <code>null</code>.
+   */
+  public synchronized void indexed(int count, Link link, List<Link> links, SimHash simHash) {
+    if (log == null)
+      return;
+    try {
+      pages.writeInt(count);
+      writeString(pages, link.toString());
+      pages.writeInt(links.size());
+      for (Link out : links)
+        writeString(pages, out.getURL().toString());
+      pages.writeBoolean(simHash != null);
+      if (simHash != null)
+        pages.writeLong(simHash.getHash());
+      recentPages.put(count, link);
+      forgetSavedPages();
+      logIndexed(count, link);
+      logged();
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Adds an INDEXED record to the log, held back if the page is not
+   * saved yet.
+   */
+  protected void logIndexed(int count, Link link) throws IOException {
+    if (unsaved.contains(count))
+      heldRecords.add(new int[] {logBuffer.size(), count});
+    log.writeByte(INDEXED);
+    log.writeInt(count);
+    writeString(log, link.toString());
+  }
+
+  /**
+   * Drops the links of the pages before the first one not saved yet,
+   * which no snapshot needs to put back.
+   */
+  protected void forgetSavedPages() {
+    if (unsaved.isEmpty())
+      recentPages.clear();
+    else
+      recentPages.headMap(unsaved.first()).clear();
+  }
+
+  /**
+   * Wakes the writer thread if the log buffer is full.
+   */
+  protected void logged() {
+    if (logBuffer.size() >= LOG_BUFFER_SIZE)
+      notifyAll();
+  }
+
+  /**
+   * Returns true if it is time for a snapshot.
+   */
+  public synchronized boolean snapshotDue() {
+    return pages != null && System.currentTimeMillis() - lastSnapshot >= snapshotInterval;
+  }
+
+  /**
+   * Writes a snapshot of the whole crawl state and starts a new log.
+   * The snapshot is written to a temporary file and renamed, so a
+   * crash while writing it leaves the previous one in place.  The
+   * links are written as the frontier's iterator returns them, so a
+   * frontier kept on disk is not read into memory.
+   * <p>
+   * The snapshot counts the pages up to the first one not saved yet.
+   * The links of that page and those indexed after it go back in
+   * front of the queue, and their INDEXED records start the new log,
+   * held back as before until the pages are saved.
+   *
+   * @param count    The number of pages indexed.
+   * @param visited  The visited set.
+   * @param frontier The links still to visit, in queue order; links
+   *                 taken but not finished are added in front.
+   */
+  public void snapshot(int count, VisitedSet visited, Iterable<Link> frontier) {
+    synchronized (fileLock) {
+      synchronized (this) {
+        if (pages == null)
+          return;
+        try {
+          // The pages file must cover the page count of the snapshot
+          pagesBuffer.writeTo(pagesOut);
+          pagesBuffer.reset();
+          int savedCount = unsaved.isEmpty() ? count : unsaved.first() - 1;
+          SortedMap<Integer, Link> unsavedPages = recentPages.tailMap(savedCount + 1);
+          File temp = new File(dir, "snapshot.tmp");
+          FileOutputStream file = new FileOutputStream(temp);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+          try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation + 1);
+            out.writeInt(savedCount);
+            for (Link link : unsavedPages.values()) {
+              out.writeBoolean(true);
+              writeString(out, link.toString());
+            }
+            for (Link link : inProgress) {
+              out.writeBoolean(true);
+              writeString(out, link.toString());
+            }
+            for (Link link : frontier) {
+              out.writeBoolean(true);
+              writeString(out, link.toString());
+            }
+            out.writeBoolean(false);
+            visited.write(out);
+            out.flush();
+            file.getFD().sync();
+          }
+          finally {
+            out.close();
+          }
+          Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+          generation++;
+          // Records not yet written are part of the snapshot
+          logBuffer.reset();
+          heldRecords.clear();
+          if (logOut != null)
+            logOut.close();
+          logOut = new FileOutputStream(logFile);
+          DataOutputStream header = new DataOutputStream(logOut);
+          header.writeLong(generation);
+          header.flush();
+          log = new DataOutputStream(logBuffer);
+          for (Map.Entry<Integer, Link> page : unsavedPages.entrySet())
+            logIndexed(page.getKey(), page.getValue());
+          lastSnapshot = System.currentTimeMillis();
+        }
+        catch (IOException e) {
+          fail(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the logged changes to the files: all of the page records,
+   * then the log records up to the first INDEXED record of a page not
+   * saved yet.  Called by the writer thread; the files are written
+   * without holding the checkpoint's lock, so the crawl threads can go
+   * on logging.
+   */
+  public void flush() {
+    synchronized (fileLock) {
+      byte[] pageRecords, logRecords;
+      synchronized (this) {
+        if (log == null)
+          return;
+        pageRecords = pagesBuffer.toByteArray();
+        pagesBuffer.reset();
+        logRecords = takeWritableLog();
+      }
+      try {
+        pagesOut.write(pageRecords);
+        logOut.write(logRecords);
+      }
+      catch (IOException e) {
+        synchronized (this) {
+          fail(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the log records that may be written: those
+   * before the first held INDEXED record whose page is still unsaved.
+   */
+  protected byte[] takeWritableLog() {
+    while (!heldRecords.isEmpty() && !unsaved.contains(heldRecords.peek()[1]))
+      heldRecords.poll();
+    byte[] records = logBuffer.toByteArray();
+    int length = heldRecords.isEmpty() ? records.length : heldRecords.peek()[0];
+    logBuffer.reset();
+    logBuffer.write(records, length, records.length - length);
+    for (int[] held : heldRecords)
+      held[0] -= length;
+    return (length == records.length) ? records : Arrays.copyOf(records, length);
+  }
+
+  /**
+   * Stops checkpointing after an error.  What has reached the files
+   * is still a state the crawl passed through, and can be resumed
+   * from.  Called with the checkpoint's lock held.
+   */
+  protected void fail(IOException e) {
+    System.err.println("CrawlCheckpoint: Could not write to " + dir + ", no longer checkpointing: " + e);
+    close();
+  }
+
+  /**
+   * Closes the files and stops the writer thread.  Called with the
+   * checkpoint's lock held.
+   */
+  protected void close() {
+    closeQuietly(logOut);
+    closeQuietly(pagesOut);
+    log = pages = null;
+    logOut = pagesOut = null;
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * Closes the files and deletes the checkpoint, once the crawl has
+   * finished and there is nothing to resume.
+   */
+  public void delete() {
+    synchronized (fileLock) {
+      synchronized (this) {
+        close();
+      }
+    }
+    logFile.delete();
+    snapshotFile.delete();
+    pagesFile.delete();
+    dir.delete();
+  }
+
+  public String toString() {
+    return "generation " + generation + " in " + dir;
+  }
+
+  /**
+   * Closes a stream if there is one, ignoring errors.
+   */
+  protected static void closeQuietly(OutputStream out) {
+    if (out == null)
+      return;
+    try {
+      out.close();
+    }
+    catch (IOException e) {
+    }
+  }
+
+  /**
+   * Opens a file for reading records.
+   */
+  protected static DataInputStream openInput(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+  }
+
+  /**
+   * Writes a string as its length and UTF-8 bytes.  Unlike
+   * <code>writeUTF</code> this has no length limit.
+   */
+  protected static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by <code>writeString</code>.
+   */
+  protected static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0)
+      throw new EOFException("Bad string length " + length);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the number of bytes <code>writeString</code> writes for a
+   * string.
+   */
+  protected static int stringBytes(String s) {
+    return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
@@ -0,0 +1,390 @@
+package ir.webutils;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * CrawlScope decides which links a spider may follow.  The scope is
+ * given by rules, usually read from a file with {@link #read read}, one
+ * per line:
+ * <pre>
+ * # Comment
+ * host www.cs.utexas.edu      # this host
+ * suffix utexas.edu           # this domain and its subdomains
+ * path /users/mooney/         # paths starting with this
+ * depth 3                     # at most 3 directories below the path
+ * include \.html?$            # URLs matching this regular expression
+ * exclude /(cgi-bin|private)/ # but not those matching this one
+ * </pre>
+ * A URL is in scope if its host is one of the hosts or ends with one of
+ * the suffixes, its path starts with one of the paths and has at most
+ * <code>depth</code> more directories after it, it matches one of the
+ * includes, and it matches none of the excludes.  A kind of rule that
+ * is not given does not restrict the URL, except that a scope set to
+ * {@link #setSameHostDefault stay on the same host} keeps a link found
+ * on a page only if it is on the host of the page when there are no
+ * host or suffix rules.
+ * <p>
+ * The rules are compiled as they are added: hosts and suffixes go into
+ * one hash set, so a host is checked with a lookup for each of its
+ * domains; paths go into a character trie, so a path is checked in
+ * time proportional to its length; and the includes and the excludes
+ * are each joined into one regular expression.  URLs are checked as
+ * found on the page, before they are cleaned, so that links out of
+ * scope cost no more than the check.
+ *
+ * @author Garrett Kelley
+ */
+public class CrawlScope {
+
+  /**
+   * The hosts, and the suffixes both as they are and preceded by '.',
+   * in lower case
+   */
+  protected Set<String> hosts = new HashSet<String>();
+
+  /**
+   * Whether any host or suffix rules have been added
+   */
+  protected boolean hasHosts = false, hasSuffixes = false;
+
+  /**
+   * Whether, with no host or suffix rules, links must be on the host of
+   * the page they are found on
+   */
+  protected boolean sameHostDefault = false;
+
+  /**
+   * The root of the trie of paths, or <code>null</code> if no paths
+   * have been added
+   */
+  protected Node paths = null;
+
+  /**
+   * The greatest number of directories after the path, or -1 for any
+   */
+  protected int maxDepth = -1;
+
+  /**
+   * The include and exclude expressions, and those compiled into one
+   * each
+   */
+  protected List<String> includes = new ArrayList<String>(), excludes = new ArrayList<String>();
+  protected Pattern include = null, exclude = null;
+
+  /**
+   * Reads the rules of a scope from a file.
+   *
+   * @throws IllegalArgumentException If a line is not a rule.
+   */
+  public static CrawlScope read(File file) throws IOException {
+    CrawlScope scope = new CrawlScope();
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      int number = 0;
+      while ((line = in.readLine()) != null) {
+        number++;
+        // Expressions may contain '#', so only a comment after whitespace is removed
+        line = line.replaceFirst("(^|\\s)#.*$", "").trim();
+        if (line.length() == 0)
+          continue;
+        String[] rule = line.split("\\s+", 2);
+        if (rule.length < 2)
+          throw new IllegalArgumentException(file + ":" + number + ": Scope rule without a value: " + line);
+        try {
+          scope.addRule(rule[0], rule[1]);
+        }
+        catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage());
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+    return scope;
+  }
+
+  /**
+   * Adds a rule as it would appear in a file.
+   *
+   * @param kind  host, suffix, path, depth, include or exclude.
+   * @param value The value of the rule.
+   */
+  public void addRule(String kind, String value) {
+    if (kind.equals("host"))
+      addHost(value);
+    else if (kind.equals("suffix"))
+      addHostSuffix(value);
+    else if (kind.equals("path"))
+      addPathPrefix(value);
+    else if (kind.equals("depth"))
+      setMaxDepth(Integer.parseInt(value));
+    else if (kind.equals("include"))
+      addInclude(value);
+    else if (kind.equals("exclude"))
+      addExclude(value);
+    else
+      throw new IllegalArgumentException("Unknown scope rule: " + kind);
+  }
+
+  /**
+   * Adds a host that is in scope.
+   */
+  public void addHost(String host) {
+    hosts.add(host.toLowerCase());
+    hasHosts = true;
+  }
+
+  /**
+   * Sets whether, when there are no host or suffix rules, a link is in
+   * scope only if it is on the same host as the page it is found on.
+   * Used by spiders that stay within the sites they start from, so
+   * that rules naming the hosts replace that default.  The host of the
+   * page is the one it was finally downloaded from, so a starting URL
+   * that redirects to another host takes the crawl with it.
+   */
+  public void setSameHostDefault(boolean sameHost) {
+    sameHostDefault = sameHost;
+  }
+
+  /**
+   * Adds a domain whose hosts, and itself, are in scope.
+   */
+  public void addHostSuffix(String suffix) {
+    suffix = suffix.toLowerCase();
+    if (suffix.startsWith("."))
+      suffix = suffix.substring(1);
+    hosts.add(suffix);
+    hosts.add("." + suffix);
+    hasSuffixes = true;
+  }
+
+  /**
+   * Adds a path prefix that is in scope.
+   */
+  public void addPathPrefix(String prefix) {
+    if (paths == null)
+      paths = new Node();
+    Node node = paths;
+    for (int i = 0; i < prefix.length(); i++)
+      node = node.addChild(prefix.charAt(i));
+    node.end = true;
+  }
+
+  /**
+   * Sets the greatest number of directories a path may have after the
+   * path prefix it starts with (or after the root if there are no path
+   * prefixes), or -1 for any number.
+   */
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Adds a regular expression one of which a URL must contain to be in
+   * scope.
+   *
+   * @throws PatternSyntaxException If the expression is not valid.
+   */
+  public void addInclude(String regex) {
+    Pattern.compile(regex);
+    includes.add(regex);
+    include = join(includes);
+  }
+
+  /**
+   * Adds a regular expression no URL in scope may contain.
+   *
+   * @throws PatternSyntaxException If the expression is not valid.
+   */
+  public void addExclude(String regex) {
+    Pattern.compile(regex);
+    excludes.add(regex);
+    exclude = join(excludes);
+  }
+
+  /**
+   * Compiles a list of expressions into one that matches what any of
+   * them does.
+   */
+  protected static Pattern join(List<String> regexes) {
+    StringBuilder joined = new StringBuilder();
+    for (String regex : regexes) {
+      if (joined.length() > 0)
+        joined.append('|');
+      joined.append("(?:").append(regex).append(')');
+    }
+    return Pattern.compile(joined.toString());
+  }
+
+  /**
+   * Returns true if there are host or suffix rules.
+   */
+  public boolean hasHostRules() {
+    return hasHosts || hasSuffixes;
+  }
+
+  /**
+   * Returns true if there are path rules.
+   */
+  public boolean hasPathRules() {
+    return paths != null;
+  }
+
+  /**
+   * Returns true if a URL is in scope.
+   */
+  public boolean contains(URL url) {
+    if (hasHostRules() && !hostInScope(url.getHost().toLowerCase()))
+      return false;
+    if (paths != null || maxDepth >= 0) {
+      String path = url.getPath();
+      int start = (paths == null) ? 0 : prefixLength(path);
+      if (start < 0)
+        return false;
+      if (maxDepth >= 0 && directories(path, start) > maxDepth)
+        return false;
+    }
+    if (exclude != null || include != null) {
+      String string = url.toString();
+      if (exclude != null && exclude.matcher(string).find())
+        return false;
+      if (include != null && !include.matcher(string).find())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the links in scope, in order.
+   */
+  public List<Link> filter(List<Link> links) {
+    return filter(links, null);
+  }
+
+  /**
+   * Returns the links found on a page that are in scope, in order.
+   *
+   * @param links The links.
+   * @param page  The link of the page they were found on, or
+   *              <code>null</code> if there is none.
+   */
+  public List<Link> filter(List<Link> links, Link page) {
+    String pageHost = null;
+    if (sameHostDefault && !hasHostRules() && page != null)
+      pageHost = page.getURL().getHost();
+    List<Link> inScope = new ArrayList<Link>(links.size());
+    for (Link link : links) {
+      URL url = link.getURL();
+      if ((pageHost == null || pageHost.equalsIgnoreCase(url.getHost())) && contains(url))
+        inScope.add(link);
+    }
+    return inScope;
+  }
+
+  /**
+   * Returns true if a host is one of the hosts or in one of the
+   * domains.
+   */
+  protected boolean hostInScope(String host) {
+    if (hosts.contains(host))
+      return true;
+    if (!hasSuffixes)
+      return false;
+    for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+      if (hosts.contains(host.substring(dot)))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the length of the longest path prefix a path starts with,
+   * or -1 if it starts with none.
+   */
+  protected int prefixLength(String path) {
+    int longest = paths.end ? 0 : -1;
+    Node node = paths;
+    for (int i = 0; i < path.length() && node != null; i++) {
+      node = node.child(path.charAt(i));
+      if (node != null && node.end)
+        longest = i + 1;
+    }
+    return longest;
+  }
+
+  /**
+   * Returns the number of directories in a path after the given index.
+   */
+  protected static int directories(String path, int start) {
+    // A slash right after the prefix ends its directory
+    if (start < path.length() && path.charAt(start) == '/')
+      start++;
+    int directories = 0;
+    for (int i = path.indexOf('/', start); i >= 0; i = path.indexOf('/', i + 1))
+      directories++;
+    return directories;
+  }
+
+  public String toString() {
+    StringBuilder description = new StringBuilder();
+    if (hasHostRules())
+      description.append(hosts.size()).append(" hosts and domains");
+    else if (sameHostDefault)
+      description.append("same host as page");
+    if (paths != null)
+      description.append(description.length() > 0 ? ", " : "").append("path prefixes");
+    if (maxDepth >= 0)
+      description.append(description.length() > 0 ? ", " : "").append("depth ").append(maxDepth);
+    if (include != null)
+      description.append(description.length() > 0 ? ", " : "").append(includes.size()).append(" includes");
+    if (exclude != null)
+      description.append(description.length() > 0 ? ", " : "").append(excludes.size()).append(" excludes");
+    return (description.length() == 0) ? "everything" : description.toString();
+  }
+
+  /**
+   * A node of the path trie.  Children are kept in parallel arrays
+   * sorted by character.
+   */
+  protected static final class Node {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    char[] keys = NO_KEYS;
+    Node[] children = NO_CHILDREN;
+    int numChildren = 0;
+    /**
+     * True if a path prefix ends here
+     */
+    boolean end = false;
+
+    Node child(char c) {
+      int i = Arrays.binarySearch(keys, 0, numChildren, c);
+      return (i >= 0) ? children[i] : null;
+    }
+
+    Node addChild(char c) {
+      int i = Arrays.binarySearch(keys, 0, numChildren, c);
+      if (i >= 0)
+        return children[i];
+      i = -i - 1;
+      if (numChildren == keys.length) {
+        int length = Math.max(2, 2 * numChildren);
+        keys = Arrays.copyOf(keys, length);
+        children = Arrays.copyOf(children, length);
+      }
+      System.arraycopy(keys, i, keys, i + 1, numChildren - i);
+      System.arraycopy(children, i, children, i + 1, numChildren - i);
+      Node child = new Node();
+      keys[i] = c;
+      children[i] = child;
+      numChildren++;
+      return child;
+    }
+  }
+}
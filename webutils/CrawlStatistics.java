@@ -0,0 +1,204 @@
+package ir.webutils;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * CrawlStatistics keeps running counts for a crawl (pages fetched,
+ * pages indexed and any other named event a spider cares to count)
+ * and reports the overall crawl rate.  All methods are synchronized
+ * so that a single instance can be shared by concurrent crawl
+ * threads.
+ *
+ * @author Garrett Kelley
+ */
+public class CrawlStatistics {
+
+  /**
+   * Time in milliseconds when the crawl was started
+   */
+  protected long startTime = 0;
+
+  /**
+   * Time in milliseconds when the crawl was finished
+   */
+  protected long endTime = 0;
+
+  /**
+   * The number of pages successfully downloaded
+   */
+  protected long pagesFetched = 0;
+
+  /**
+   * The number of pages indexed
+   */
+  protected long pagesIndexed = 0;
+
+  /**
+   * Counts of other named events, kept in sorted order for reporting
+   */
+  protected Map<String, Long> counts = new TreeMap<String, Long>();
+
+  /**
+   * For each host, the body bytes received from it and the bytes
+   * they decompressed to
+   */
+  protected Map<String, long[]> hostBytes = new HashMap<String, long[]>();
+
+  /**
+   * The number of hosts listed in the report, those that sent the
+   * most bytes
+   */
+  public static final int REPORTED_HOSTS = 10;
+
+  /**
+   * Marks the start of the crawl.
+   */
+  public synchronized void start() {
+    startTime = System.currentTimeMillis();
+    endTime = 0;
+  }
+
+  /**
+   * Marks the end of the crawl.
+   */
+  public synchronized void stop() {
+    endTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Records that a page was successfully downloaded.
+   */
+  public synchronized void pageFetched() {
+    pagesFetched++;
+  }
+
+  /**
+   * Records that a page was indexed.
+   */
+  public synchronized void pageIndexed() {
+    pagesIndexed++;
+  }
+
+  /**
+   * Adds one to the count for the named event.
+   */
+  public void increment(String name) {
+    increment(name, 1);
+  }
+
+  /**
+   * Adds <code>n</code> to the count for the named event.
+   */
+  public synchronized void increment(String name, long n) {
+    Long count = counts.get(name);
+    counts.put(name, count == null ? n : count + n);
+  }
+
+  /**
+   * Records the body bytes received from a host and the number of
+   * bytes they decompressed to (the same if they were not
+   * compressed).
+   */
+  public synchronized void bytesReceived(String host, long transferred, long decoded) {
+    long[] bytes = hostBytes.get(host);
+    if (bytes == null) {
+      bytes = new long[2];
+      hostBytes.put(host, bytes);
+    }
+    bytes[0] += transferred;
+    bytes[1] += decoded;
+  }
+
+  /**
+   * Returns the body bytes received from a host and the bytes they
+   * decompressed to, as a two element array.
+   */
+  public synchronized long[] getHostBytes(String host) {
+    long[] bytes = hostBytes.get(host);
+    return (bytes == null) ? new long[2] : bytes.clone();
+  }
+
+  /**
+   * Returns the count for the named event, 0 if it never occurred.
+   */
+  public synchronized long getCount(String name) {
+    Long count = counts.get(name);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Returns the number of pages successfully downloaded.
+   */
+  public synchronized long getPagesFetched() {
+    return pagesFetched;
+  }
+
+  /**
+   * Returns the number of pages indexed.
+   */
+  public synchronized long getPagesIndexed() {
+    return pagesIndexed;
+  }
+
+  /**
+   * Returns the number of seconds the crawl has been running (or ran
+   * if it has been stopped).
+   */
+  public synchronized double elapsedSeconds() {
+    long end = (endTime == 0) ? System.currentTimeMillis() : endTime;
+    return (end - startTime) / 1000.0;
+  }
+
+  /**
+   * Returns the number of pages downloaded per second.
+   */
+  public synchronized double pagesPerSecond() {
+    double seconds = elapsedSeconds();
+    return (seconds > 0) ? pagesFetched / seconds : 0.0;
+  }
+
+  /**
+   * Prints a summary of the crawl.
+   *
+   * @param out     The stream to print to.
+   * @param threads The number of crawl threads used, so that runs with
+   *                different thread counts can be compared.
+   */
+  public synchronized void report(PrintStream out, int threads) {
+    out.println("\nCrawl statistics (" + threads + (threads == 1 ? " thread" : " threads") + "):");
+    out.println("  Elapsed seconds: " + elapsedSeconds());
+    out.println("  Pages fetched: " + pagesFetched);
+    out.println("  Pages indexed: " + pagesIndexed);
+    out.println("  Pages/sec: " + Math.round(pagesPerSecond() * 100) / 100.0);
+    for (Map.Entry<String, Long> entry : counts.entrySet())
+      out.println("  " + entry.getKey() + ": " + entry.getValue());
+    if (!hostBytes.isEmpty()) {
+      long transferred = 0, decoded = 0;
+      for (long[] bytes : hostBytes.values()) {
+        transferred += bytes[0];
+        decoded += bytes[1];
+      }
+      out.println("  Bytes received: " + bytesString(transferred, decoded));
+      List<Map.Entry<String, long[]>> hosts = new ArrayList<Map.Entry<String, long[]>>(hostBytes.entrySet());
+      Collections.sort(hosts, new Comparator<Map.Entry<String, long[]>>() {
+        public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+          return Long.compare(b.getValue()[0], a.getValue()[0]);
+        }
+      });
+      for (Map.Entry<String, long[]> host : hosts.subList(0, Math.min(REPORTED_HOSTS, hosts.size())))
+        out.println("    " + host.getKey() + ": " + bytesString(host.getValue()[0], host.getValue()[1]));
+    }
+  }
+
+  /**
+   * Describes a number of bytes received and what they decompressed
+   * to.
+   */
+  protected static String bytesString(long transferred, long decoded) {
+    if (transferred == decoded || transferred == 0)
+      return Long.toString(transferred);
+    return transferred + " (" + decoded + " decompressed, "
+        + Math.round(10.0 * decoded / transferred) / 10.0 + "x)";
+  }
+}
@@ -14,25 +14,20 @@ public class DirectorySpider extends Spider {
   static URL firstURL;
 
   /**
-   * Gets links from the page that are in or below the starting
-   * directory.
+   * Limits the scope to the directory of the first page, and the
+   * links followed from each page to those on the host the page came
+   * from, unless the -scope rules name the hosts or the paths.
    *
-   * @return The links on <code>page</code> that are in or below the
-   *         directory of the first page.
+   * @return The scope.
    */
-  public List<Link> getNewLinks(HTMLPage page) {
-    List<Link> links = new LinkExtractor(page).extractLinks();
-    URL url = page.getLink().getURL();
-
-    ListIterator<Link> iterator = links.listIterator();
-    while (iterator.hasNext()) {
-      Link link = iterator.next();
-      if (!url.getHost().equals(link.getURL().getHost()))
-        iterator.remove();
-      else if (!link.getURL().getPath().startsWith(getDirectory(firstURL)))
-        iterator.remove();
-    }
-    return links;
+  protected CrawlScope createScope() {
+    CrawlScope scope = super.createScope();
+    if (scope == null)
+      scope = new CrawlScope();
+    scope.setSameHostDefault(true);
+    if (!scope.hasPathRules())
+      scope.addPathPrefix(getDirectory(firstURL));
+    return scope;
   }
 
   /**
@@ -61,17 +56,9 @@ public class DirectorySpider extends Spider {
   }
 
   /**
-   * Spider the web according to the following command options,
-   * but only below the start URL directory.
-   * <ul>
-   * <li>-safe : Check for and obey robots.txt and robots META tag
-   * directives.</li>
-   * <li>-d &lt;directory&gt; : Store indexed files in &lt;directory&gt;.</li>
-   * <li>-c &lt;count&gt; : Store at most &lt;count&gt; files.</li>
-   * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
-   * <li>-slow : Pause briefly before getting a page.  This can be
-   * useful when debugging.
-   * </ul>
+   * Spider the web according to the command options described in
+   * {@link Spider#processArgs Spider.processArgs}, but only below the
+   * start URL directory.
    */
   public static void main(String args[]) {
     new DirectorySpider().go(args);
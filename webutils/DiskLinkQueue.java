@@ -0,0 +1,395 @@
+package ir.webutils;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A first-in first-out queue of links that keeps only its two ends in
+ * memory.  New links collect in a tail buffer; when it fills, they are
+ * appended to memory-mapped segment files in a directory on disk.
+ * Links are removed from a head buffer, which is refilled from the
+ * oldest segment (or, once nothing is left on disk, from the tail
+ * buffer).  Segment files are deleted as soon as they have been read,
+ * and at most two are mapped at any time, so a frontier of tens of
+ * millions of URLs needs only a bounded amount of heap.
+ * <p>
+ * Only the URL of a link is stored on disk, so links that have been
+ * spilled come back as plain <code>Link</code> objects.  The iterator
+ * is read-only.  The queue is not synchronized.
+ *
+ * @author Garrett Kelley
+ */
+public class DiskLinkQueue extends AbstractQueue<Link> {
+
+  /**
+   * Default number of links held in each of the head and tail buffers
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+  /**
+   * Default size in bytes of each segment file
+   */
+  public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * The directory segment files are written to
+   */
+  protected File dir;
+
+  /**
+   * The maximum number of links in each of the head and tail buffers
+   */
+  protected int bufferSize;
+
+  /**
+   * The size in bytes of each segment file
+   */
+  protected int segmentBytes;
+
+  /**
+   * Links at the front of the queue
+   */
+  protected ArrayDeque<Link> head = new ArrayDeque<Link>();
+
+  /**
+   * Links at the back of the queue that have not been written to disk
+   */
+  protected ArrayDeque<Link> tail = new ArrayDeque<Link>();
+
+  /**
+   * Segments holding the middle of the queue, oldest first
+   */
+  protected ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+  /**
+   * The number of links in the queue
+   */
+  protected int size = 0;
+
+  /**
+   * Number used to name the next segment file
+   */
+  protected int nextSegment = 0;
+
+  /**
+   * The number of links in the tail buffer at which it is spilled to
+   * disk: <code>bufferSize</code>, or more after a failed spill
+   */
+  protected int spillThreshold;
+
+  /**
+   * Constructs an empty queue that spills to the given directory,
+   * which is created if necessary, with default buffer and segment
+   * sizes.
+   */
+  public DiskLinkQueue(File dir) throws IOException {
+    this(dir, DEFAULT_BUFFER_SIZE, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * Constructs an empty queue that spills to the given directory.
+   *
+   * @param dir          Directory for segment files.
+   * @param bufferSize   Number of links held in each of the head and tail buffers.
+   * @param segmentBytes Size of each segment file in bytes.
+   */
+  public DiskLinkQueue(File dir, int bufferSize, int segmentBytes) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Failed to create directory " + dir);
+    this.dir = dir;
+    this.bufferSize = bufferSize;
+    this.segmentBytes = segmentBytes;
+    this.spillThreshold = bufferSize;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean offer(Link link) {
+    if (segments.isEmpty() && tail.isEmpty() && head.size() < bufferSize)
+      head.add(link);
+    else {
+      tail.add(link);
+      if (tail.size() >= spillThreshold)
+        spillTail();
+    }
+    size++;
+    return true;
+  }
+
+  public Link poll() {
+    if (head.isEmpty())
+      refillHead();
+    Link link = head.poll();
+    if (link != null)
+      size--;
+    return link;
+  }
+
+  public Link peek() {
+    if (head.isEmpty())
+      refillHead();
+    return head.peek();
+  }
+
+  /**
+   * Removes all links and deletes all segment files.
+   */
+  public void clear() {
+    head.clear();
+    tail.clear();
+    for (Segment segment : segments)
+      segment.delete();
+    segments.clear();
+    size = 0;
+  }
+
+  /**
+   * Empties the queue and deletes the spill directory if it is empty.
+   */
+  public void close() {
+    clear();
+    dir.delete();
+  }
+
+  /**
+   * Returns the number of links currently stored on disk.
+   */
+  public int spilledSize() {
+    return size - head.size() - tail.size();
+  }
+
+  /**
+   * Writes every link in the tail buffer to the end of the last
+   * segment, removing each from the buffer once it is written.  If a
+   * write fails, the links not yet written stay in memory, and the
+   * next spill waits until the buffer has doubled.
+   */
+  protected void spillTail() {
+    try {
+      Segment segment = segments.peekLast();
+      while (!tail.isEmpty()) {
+        byte[] bytes = tail.peek().getURL().toString().getBytes(StandardCharsets.UTF_8);
+        if (segment == null || !segment.append(bytes)) {
+          if (segment != null)
+            segment.seal();
+          segment = new Segment(new File(dir, "frontier-" + (nextSegment++) + ".seg"),
+              Math.max(segmentBytes, bytes.length + 4));
+          segments.add(segment);
+          segment.append(bytes);
+        }
+        tail.poll();
+      }
+      spillThreshold = bufferSize;
+    }
+    catch (IOException e) {
+      // Keep the links in memory rather than lose them
+      System.err.println("DiskLinkQueue: Could not write to " + dir + ": " + e);
+      spillThreshold = 2 * Math.max(tail.size(), bufferSize);
+    }
+  }
+
+  /**
+   * Moves up to <code>bufferSize</code> links into the empty head
+   * buffer, from the oldest segment if there is one and otherwise
+   * from the tail buffer.
+   */
+  protected void refillHead() {
+    try {
+      while (head.size() < bufferSize && !segments.isEmpty()) {
+        Segment segment = segments.peekFirst();
+        byte[] bytes = segment.next();
+        // Once read, a segment is deleted; later spills start a new one
+        if (bytes == null)
+          segments.removeFirst().delete();
+        else
+          head.add(toLink(bytes));
+      }
+    }
+    catch (IOException e) {
+      System.err.println("DiskLinkQueue: Could not read from " + dir + ": " + e);
+    }
+    if (head.isEmpty() && segments.isEmpty() && !tail.isEmpty()) {
+      ArrayDeque<Link> swap = head;
+      head = tail;
+      tail = swap;
+    }
+  }
+
+  /**
+   * Makes a link from the stored bytes of its URL.
+   */
+  protected static Link toLink(byte[] bytes) throws MalformedURLException {
+    return new Link(new URL(new String(bytes, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Returns a read-only iterator over the links in queue order.
+   * Links stored on disk are read one at a time as the iterator gets
+   * to them, without being removed, so iterating needs no more heap
+   * than the queue does.
+   */
+  public Iterator<Link> iterator() {
+    List<Iterable<Link>> parts = new ArrayList<Iterable<Link>>(segments.size() + 2);
+    parts.add(head);
+    parts.addAll(segments);
+    parts.add(tail);
+    return new ChainedIterator<Link>(parts);
+  }
+
+  /**
+   * A segment file holding length-prefixed UTF-8 URLs.  The file is
+   * mapped only while it is being appended to or read from.
+   */
+  protected static class Segment implements Iterable<Link> {
+    /**
+     * The segment file
+     */
+    File file;
+    /**
+     * The size of the file
+     */
+    int capacity;
+    /**
+     * The mapping of the file, <code>null</code> when not mapped
+     */
+    MappedByteBuffer map;
+    /**
+     * Offset of the next record to read
+     */
+    int readPos = 0;
+    /**
+     * Offset at which the next record will be written
+     */
+    int writePos = 0;
+    /**
+     * True once no more records will be appended
+     */
+    boolean sealed = false;
+
+    Segment(File file, int capacity) throws IOException {
+      this.file = file;
+      this.capacity = capacity;
+      map();
+    }
+
+    /**
+     * Maps the file into memory.
+     */
+    void map() throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      }
+      finally {
+        raf.close();
+      }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return <code>false</code> if there is no room left.
+     */
+    boolean append(byte[] bytes) throws IOException {
+      if (writePos + 4 + bytes.length > capacity)
+        return false;
+      if (map == null)
+        map();
+      map.putInt(writePos, bytes.length);
+      map.position(writePos + 4);
+      map.put(bytes);
+      writePos += 4 + bytes.length;
+      return true;
+    }
+
+    /**
+     * Marks the segment as complete and releases its mapping unless
+     * it is already being read.
+     */
+    void seal() {
+      sealed = true;
+      if (readPos == 0)
+        map = null;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The record, or <code>null</code> if all written records have been read.
+     */
+    byte[] next() throws IOException {
+      if (readPos >= writePos)
+        return null;
+      if (map == null)
+        map();
+      int length = map.getInt(readPos);
+      byte[] bytes = new byte[length];
+      map.position(readPos + 4);
+      map.get(bytes);
+      readPos += 4 + length;
+      return bytes;
+    }
+
+    /**
+     * Returns an iterator over the links of the unread records that
+     * reads them one at a time without consuming them.  A read error
+     * is reported and ends the iteration.
+     */
+    public Iterator<Link> iterator() {
+      return new Iterator<Link>() {
+        int pos = readPos;
+        Link next = null;
+
+        public boolean hasNext() {
+          if (next == null && pos < writePos) {
+            try {
+              if (map == null)
+                map();
+              int length = map.getInt(pos);
+              byte[] bytes = new byte[length];
+              ByteBuffer view = map.duplicate();
+              view.position(pos + 4);
+              view.get(bytes);
+              next = toLink(bytes);
+              pos += 4 + length;
+            }
+            catch (IOException e) {
+              System.err.println("DiskLinkQueue: Could not read from " + file + ": " + e);
+              pos = writePos;
+            }
+            // A sealed segment not yet being read is mapped only while iterated
+            if (pos >= writePos && sealed && readPos == 0)
+              map = null;
+          }
+          return next != null;
+        }
+
+        public Link next() {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          Link link = next;
+          next = null;
+          return link;
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    /**
+     * Deletes the segment file.
+     */
+    void delete() {
+      map = null;
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package ir.webutils;
+
+/**
+ * FetchOptions controls how {@link WebPage#fetch(java.net.URL,
+ * FetchOptions) WebPage.fetch} downloads a page: whether responses
+ * that are not HTML are abandoned as soon as they are recognized, and
+ * how many bytes of a body are read at most, whether compressed
+ * transfer is offered to the server, and how long a download may
+ * take.  The default options read any content in full, accept gzip
+ * and deflate compression, and time out connections and reads that
+ * stall (but set no deadline for the whole page).
+ *
+ * @author Garrett Kelley
+ */
+public class FetchOptions {
+
+  /**
+   * Default limit on the number of body bytes read when a limit is wanted
+   */
+  public static final int DEFAULT_MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * Default milliseconds to wait for a connection to be made
+   */
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+  /**
+   * Default milliseconds to wait for data when reading
+   */
+  public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+  /**
+   * Whether to stop reading responses that are not HTML
+   */
+  protected boolean htmlOnly = false;
+
+  /**
+   * The most body bytes read, or -1 for no limit
+   */
+  protected int maxBodySize = -1;
+
+  /**
+   * Whether to ask for gzip or deflate compressed responses
+   */
+  protected boolean acceptCompression = true;
+
+  /**
+   * Milliseconds to wait for a connection, 0 for no limit
+   */
+  protected int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+  /**
+   * Milliseconds to wait for data when reading, 0 for no limit
+   */
+  protected int readTimeout = DEFAULT_READ_TIMEOUT;
+
+  /**
+   * Milliseconds the whole download may take, or -1 for no limit
+   */
+  protected long deadline = -1;
+
+  /**
+   * Constructs options that read any content in full.
+   */
+  public FetchOptions() {
+  }
+
+  /**
+   * Constructs a copy of the given options.
+   */
+  public FetchOptions(FetchOptions options) {
+    htmlOnly = options.htmlOnly;
+    maxBodySize = options.maxBodySize;
+    acceptCompression = options.acceptCompression;
+    connectTimeout = options.connectTimeout;
+    readTimeout = options.readTimeout;
+    deadline = options.deadline;
+  }
+
+  /**
+   * Returns true if responses that are not HTML are abandoned.
+   */
+  public boolean getHTMLOnly() {
+    return htmlOnly;
+  }
+
+  /**
+   * Sets whether responses that are not HTML, judged by the
+   * Content-Type header and the first bytes of the body, are
+   * abandoned without reading the rest of the body.
+   */
+  public void setHTMLOnly(boolean htmlOnly) {
+    this.htmlOnly = htmlOnly;
+  }
+
+  /**
+   * Returns the most body bytes read, or -1 for no limit.
+   */
+  public int getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  /**
+   * Sets the most body bytes read.  Longer bodies are cut off and the
+   * rest is not downloaded.
+   *
+   * @param maxBodySize The limit in bytes, or -1 for no limit.
+   */
+  public void setMaxBodySize(int maxBodySize) {
+    this.maxBodySize = maxBodySize;
+  }
+
+  /**
+   * Returns true if compressed responses are asked for.
+   */
+  public boolean getAcceptCompression() {
+    return acceptCompression;
+  }
+
+  /**
+   * Sets whether to send <code>Accept-Encoding: gzip, deflate</code>
+   * so the server may compress the body.  Compressed bodies are
+   * decompressed as they are read, so the maximum body size applies
+   * to the decompressed bytes.
+   */
+  public void setAcceptCompression(boolean acceptCompression) {
+    this.acceptCompression = acceptCompression;
+  }
+
+  /**
+   * Returns the milliseconds to wait for a connection, 0 for no limit.
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Sets the milliseconds to wait for a connection to be made.
+   *
+   * @param connectTimeout The timeout, or 0 for no limit.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * Returns the milliseconds to wait for data, 0 for no limit.
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * Sets the milliseconds to wait for the response head or for more
+   * of the body to arrive.
+   *
+   * @param readTimeout The timeout, or 0 for no limit.
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Returns the milliseconds the whole download may take, or -1 for
+   * no limit.
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Sets the milliseconds the whole download of a page may take,
+   * counted from when the connection is opened.  This catches servers
+   * that send a trickle of data that never trips the read timeout.
+   * The deadline is checked between reads, so it may be overrun by up
+   * to the read timeout.
+   *
+   * @param deadline The limit, or -1 for no limit.
+   */
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+  }
+
+  public String toString() {
+    return "htmlOnly=" + htmlOnly + " maxBodySize=" + maxBodySize
+        + " acceptCompression=" + acceptCompression + " connectTimeout=" + connectTimeout
+        + " readTimeout=" + readTimeout + " deadline=" + deadline;
+  }
+}
@@ -0,0 +1,48 @@
+package ir.webutils;
+
+/**
+ * Fingerprint is a static utility class that computes 64-bit hash
+ * fingerprints of strings, such as canonical URLs.  With 64 bits the
+ * chance of two different URLs in a crawl of millions of pages
+ * sharing a fingerprint is negligible, so fingerprints can stand in
+ * for the URLs themselves in sets of visited pages.
+ * <p>
+ * The hash is 64-bit FNV-1a over the characters of the string
+ * followed by a final bit-mixing step so that all 64 bits depend on
+ * every character.
+ *
+ * @author Garrett Kelley
+ */
+public class Fingerprint {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Returns the 64-bit fingerprint of a string.
+   */
+  public static long of(CharSequence s) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      hash ^= (c & 0xff);
+      hash *= FNV_PRIME;
+      hash ^= (c >>> 8);
+      hash *= FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * Spreads the bits of a hash value so that each output bit depends
+   * on every input bit (the finalizer of MurmurHash3).
+   */
+  public static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,162 @@
+package ir.webutils;
+
+import java.io.*;
+
+/**
+ * A set of 64-bit fingerprints stored in a single primitive array
+ * using open addressing with linear probing.  Each entry costs 8
+ * bytes plus the free slots needed to keep probing fast; the table is
+ * allowed to fill to 80% and grows by half when it does, so the
+ * memory used per fingerprint stays between 10 and 15 bytes.
+ *
+ * @author Garrett Kelley
+ */
+public class FingerprintSet {
+
+  /**
+   * Largest fraction of the table that may be occupied
+   */
+  protected static final double MAX_LOAD = 0.8;
+
+  /**
+   * The table; 0 marks an empty slot
+   */
+  protected long[] table;
+
+  /**
+   * Whether the fingerprint 0 (which cannot be stored in the table) is in the set
+   */
+  protected boolean containsZero = false;
+
+  /**
+   * The number of fingerprints in the set
+   */
+  protected int size = 0;
+
+  /**
+   * Constructs an empty set.
+   */
+  public FingerprintSet() {
+    this(1024);
+  }
+
+  /**
+   * Constructs an empty set with room for the given number of
+   * fingerprints before it needs to grow.
+   */
+  public FingerprintSet(int expectedSize) {
+    table = new long[Math.max(16, (int) Math.ceil(expectedSize / MAX_LOAD))];
+  }
+
+  /**
+   * Adds a fingerprint to the set.
+   *
+   * @return <code>true</code> iff. the fingerprint was not already in the set.
+   */
+  public boolean add(long fingerprint) {
+    if (fingerprint == 0) {
+      if (containsZero)
+        return false;
+      containsZero = true;
+      size++;
+      return true;
+    }
+    if (size + 1 > table.length * MAX_LOAD)
+      resize((int) Math.min(Integer.MAX_VALUE - 8, table.length + (long) table.length / 2));
+    if (!insert(table, fingerprint))
+      return false;
+    size++;
+    return true;
+  }
+
+  /**
+   * Returns true if the fingerprint is in the set.
+   */
+  public boolean contains(long fingerprint) {
+    if (fingerprint == 0)
+      return containsZero;
+    int i = slot(fingerprint, table.length);
+    while (table[i] != 0) {
+      if (table[i] == fingerprint)
+        return true;
+      if (++i == table.length)
+        i = 0;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of fingerprints in the set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the approximate number of bytes of memory used by the set.
+   */
+  public long memoryBytes() {
+    return 8L * table.length;
+  }
+
+  /**
+   * The first slot to probe for a fingerprint in a table of the
+   * given length.  The fingerprint is mixed again so that poorly
+   * distributed values do not cluster, and the high bits are mapped
+   * onto the table range without a division.
+   */
+  protected static int slot(long fingerprint, int length) {
+    return (int) (((Fingerprint.mix(fingerprint) >>> 32) * length) >>> 32);
+  }
+
+  /**
+   * Puts a non-zero fingerprint in a table.
+   *
+   * @return <code>false</code> if it was already there.
+   */
+  protected static boolean insert(long[] table, long fingerprint) {
+    int i = slot(fingerprint, table.length);
+    while (table[i] != 0) {
+      if (table[i] == fingerprint)
+        return false;
+      if (++i == table.length)
+        i = 0;
+    }
+    table[i] = fingerprint;
+    return true;
+  }
+
+  /**
+   * Moves all fingerprints into a table of a new length.
+   */
+  protected void resize(int length) {
+    long[] newTable = new long[length];
+    for (long fingerprint : table)
+      if (fingerprint != 0)
+        insert(newTable, fingerprint);
+    table = newTable;
+  }
+
+  /**
+   * Writes the set to a stream.
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    if (containsZero)
+      out.writeLong(0);
+    for (long fingerprint : table)
+      if (fingerprint != 0)
+        out.writeLong(fingerprint);
+  }
+
+  /**
+   * Reads a set written by <code>write</code>.
+   */
+  public static FingerprintSet read(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    FingerprintSet set = new FingerprintSet(n);
+    for (int i = 0; i < n; i++)
+      set.add(in.readLong());
+    return set;
+  }
+}
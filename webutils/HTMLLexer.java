@@ -0,0 +1,568 @@
+package ir.webutils;
+
+import java.util.*;
+
+/**
+ * HTMLLexer is a fast, forgiving tokenizer for HTML that reports
+ * tags and text to a callback as it scans, in the manner of the
+ * Swing <code>HTMLEditorKit.ParserCallback</code> but without a DTD,
+ * a document model or any objects made per tag.  Tag names are passed
+ * as lower case strings (shared for common tags), and the attributes
+ * of a tag are offered through one reusable {@link Attributes
+ * Attributes} object that records where each name and value lies in
+ * the text; a value is only turned into a <code>String</code> when a
+ * callback asks for it.
+ * <p>
+ * Tags that never have an end tag (META, BASE, FRAME, IMG, etc.) are
+ * reported to <code>handleSimpleTag</code>, all others to
+ * <code>handleStartTag</code>; another tag written as
+ * <code>&lt;tag/&gt;</code> is reported to
+ * <code>handleStartTag</code> and then <code>handleEndTag</code>, as
+ * by the Swing parser.  No other end tags are implied.  The contents
+ * of SCRIPT and STYLE elements are skipped.  Text is passed as found,
+ * without decoding character references; see {@link #decode decode}.
+ * <p>
+ * An instance may be reused but not shared between threads.
+ *
+ * @author Garrett Kelley
+ */
+public class HTMLLexer {
+
+  /**
+   * Receives the tags and text found by the lexer.  All methods do
+   * nothing by default.
+   */
+  public static abstract class Callback {
+
+    /**
+     * Called for each run of text between tags.
+     *
+     * @param text     The characters of the document.
+     * @param start    The index of the first character of the text.
+     * @param length   The number of characters of text.
+     * @param position The position of the text in the document.
+     */
+    public void handleText(char[] text, int start, int length, int position) {
+    }
+
+    /**
+     * Called for a start tag of an element that may have content.
+     *
+     * @param tag        The tag name in lower case.
+     * @param attributes The attributes, valid only during this call.
+     * @param position   The position of the tag in the document.
+     */
+    public void handleStartTag(String tag, Attributes attributes, int position) {
+    }
+
+    /**
+     * Called for an end tag.
+     *
+     * @param tag      The tag name in lower case.
+     * @param position The position of the tag in the document.
+     */
+    public void handleEndTag(String tag, int position) {
+    }
+
+    /**
+     * Called for a tag that has no content, such as META or
+     * <code>&lt;br/&gt;</code>.
+     *
+     * @param tag        The tag name in lower case.
+     * @param attributes The attributes, valid only during this call.
+     * @param position   The position of the tag in the document.
+     */
+    public void handleSimpleTag(String tag, Attributes attributes, int position) {
+    }
+
+    /**
+     * Called for the text of a comment.
+     *
+     * @param text     The characters of the document.
+     * @param start    The index of the first character of the comment text.
+     * @param length   The number of characters in the comment.
+     * @param position The position of the comment in the document.
+     */
+    public void handleComment(char[] text, int start, int length, int position) {
+    }
+  }
+
+  /**
+   * The attributes of the tag being reported.  Names are matched
+   * without regard to case.
+   */
+  public static final class Attributes {
+    char[] text;
+    int count = 0;
+    int[] nameStart = new int[8], nameEnd = new int[8];
+    // valueStart is -1 for an attribute without a value
+    int[] valueStart = new int[8], valueEnd = new int[8];
+
+    void clear(char[] text) {
+      this.text = text;
+      count = 0;
+    }
+
+    void add(int ns, int ne, int vs, int ve) {
+      if (count == nameStart.length) {
+        int length = 2 * count;
+        nameStart = Arrays.copyOf(nameStart, length);
+        nameEnd = Arrays.copyOf(nameEnd, length);
+        valueStart = Arrays.copyOf(valueStart, length);
+        valueEnd = Arrays.copyOf(valueEnd, length);
+      }
+      nameStart[count] = ns;
+      nameEnd[count] = ne;
+      valueStart[count] = vs;
+      valueEnd[count] = ve;
+      count++;
+    }
+
+    /**
+     * Returns the number of attributes.
+     */
+    public int getLength() {
+      return count;
+    }
+
+    /**
+     * Returns the name of the i'th attribute in lower case.
+     */
+    public String getName(int i) {
+      return new String(text, nameStart[i], nameEnd[i] - nameStart[i]).toLowerCase();
+    }
+
+    /**
+     * Returns the value of the i'th attribute with character
+     * references decoded, or "" if it has no value.
+     */
+    public String getValue(int i) {
+      if (valueStart[i] < 0)
+        return "";
+      return decode(text, valueStart[i], valueEnd[i] - valueStart[i]);
+    }
+
+    /**
+     * Returns the index of the first attribute with the given lower
+     * case name, or -1.
+     */
+    public int indexOf(String name) {
+      int length = name.length();
+      for (int i = 0; i < count; i++) {
+        if (nameEnd[i] - nameStart[i] != length)
+          continue;
+        int j = 0;
+        while (j < length && Character.toLowerCase(text[nameStart[i] + j]) == name.charAt(j))
+          j++;
+        if (j == length)
+          return i;
+      }
+      return -1;
+    }
+
+    /**
+     * Returns true if the tag has an attribute with the given lower
+     * case name.
+     */
+    public boolean isDefined(String name) {
+      return indexOf(name) >= 0;
+    }
+
+    /**
+     * Returns the decoded value of the attribute with the given lower
+     * case name, or <code>null</code> if there is no such attribute.
+     */
+    public String getAttribute(String name) {
+      int i = indexOf(name);
+      return (i < 0) ? null : getValue(i);
+    }
+  }
+
+  /**
+   * Tags reported to <code>handleSimpleTag</code>
+   */
+  protected static final Set<String> EMPTY_TAGS = new HashSet<String>(Arrays.asList(
+      "area", "base", "basefont", "br", "col", "embed", "frame", "hr", "img", "input",
+      "isindex", "keygen", "link", "meta", "param", "source", "track", "wbr"));
+
+  /**
+   * Names shared rather than allocated when they are found
+   */
+  protected static final String[] COMMON_TAGS = {
+      "a", "abbr", "address", "area", "b", "base", "basefont", "blockquote", "body", "br",
+      "button", "caption", "center", "code", "col", "dd", "div", "dl", "dt", "em", "embed",
+      "font", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "hr",
+      "html", "i", "iframe", "img", "input", "label", "li", "link", "meta", "nav", "noscript",
+      "ol", "option", "p", "param", "pre", "script", "section", "select", "small", "span",
+      "strong", "style", "sub", "sup", "table", "tbody", "td", "textarea", "th", "thead",
+      "title", "tr", "u", "ul"};
+
+  /**
+   * Open addressing table of <code>COMMON_TAGS</code> by hash
+   */
+  private static final String[] tagTable = new String[256];
+
+  static {
+    for (String tag : COMMON_TAGS) {
+      int i = hash(tag.toCharArray(), 0, tag.length()) & (tagTable.length - 1);
+      while (tagTable[i] != null)
+        i = (i + 1) & (tagTable.length - 1);
+      tagTable[i] = tag;
+    }
+  }
+
+  /**
+   * Named character references decoded by <code>decode</code>
+   */
+  protected static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+
+  static {
+    String[] names = {"amp", "lt", "gt", "quot", "apos", "nbsp", "copy", "reg", "trade",
+        "mdash", "ndash", "lsquo", "rsquo", "ldquo", "rdquo", "hellip", "eacute", "egrave",
+        "aacute", "agrave", "iacute", "oacute", "uacute", "ntilde", "ccedil", "uuml", "ouml",
+        "auml", "szlig", "middot", "bull", "laquo", "raquo", "deg", "euro", "pound", "yen",
+        "sect", "para", "times", "divide"};
+    char[] chars = {'&', '<', '>', '"', '\'', '\u00a0', '\u00a9', '\u00ae', '\u2122',
+        '\u2014', '\u2013', '\u2018', '\u2019', '\u201c', '\u201d', '\u2026', '\u00e9', '\u00e8',
+        '\u00e1', '\u00e0', '\u00ed', '\u00f3', '\u00fa', '\u00f1', '\u00e7', '\u00fc', '\u00f6',
+        '\u00e4', '\u00df', '\u00b7', '\u2022', '\u00ab', '\u00bb', '\u00b0', '\u20ac', '\u00a3', '\u00a5',
+        '\u00a7', '\u00b6', '\u00d7', '\u00f7'};
+    for (int i = 0; i < names.length; i++)
+      ENTITIES.put(names[i], chars[i]);
+  }
+
+  /**
+   * The size in characters of a new buffer for documents passed as
+   * strings, and the largest one kept after a document (256 KB)
+   */
+  private static final int BUFFER_SIZE = 1 << 16, MAX_KEPT_BUFFER_SIZE = 1 << 17;
+
+  /**
+   * A buffer for the characters of documents passed as strings,
+   * reused by each thread unless a callback starts another parse.  A
+   * buffer grown past <code>MAX_KEPT_BUFFER_SIZE</code> by a large
+   * document is dropped afterwards rather than kept.
+   */
+  private static final ThreadLocal<char[][]> buffers = new ThreadLocal<char[][]>() {
+    protected char[][] initialValue() {
+      return new char[1][];
+    }
+  };
+
+  /**
+   * The attributes of the current tag
+   */
+  protected Attributes attributes = new Attributes();
+
+  /**
+   * Scans a document, reporting to the callback.
+   *
+   * @param html     The document.
+   * @param callback Receives the tags and text.
+   */
+  public void parse(String html, Callback callback) {
+    char[][] holder = buffers.get();
+    char[] buffer = holder[0];
+    // A callback may parse another document while this one is in use
+    holder[0] = null;
+    if (buffer == null || buffer.length < html.length())
+      buffer = new char[Math.max(html.length(), BUFFER_SIZE)];
+    html.getChars(0, html.length(), buffer, 0);
+    try {
+      parse(buffer, html.length(), callback);
+    }
+    finally {
+      holder[0] = (buffer.length > MAX_KEPT_BUFFER_SIZE) ? null : buffer;
+    }
+  }
+
+  /**
+   * Scans a document, reporting to the callback.
+   *
+   * @param text     The characters of the document.
+   * @param length   The number of characters in the document.
+   * @param callback Receives the tags and text.
+   */
+  public void parse(char[] text, int length, Callback callback) {
+    int i = 0;
+    int textStart = 0;
+    while (i < length) {
+      if (text[i] != '<' || i + 1 >= length) {
+        i++;
+        continue;
+      }
+      char next = text[i + 1];
+      int end;
+      if (next == '!' || next == '?') {
+        flushText(text, textStart, i, callback);
+        if (next == '!' && startsWith(text, length, i, "<!--")) {
+          int close = indexOf(text, length, i + 4, "-->");
+          callback.handleComment(text, i + 4, close - i - 4, i);
+          end = Math.min(length, close + 3);
+        }
+        else
+          end = skipPast(text, length, i + 2, '>');
+      }
+      else if (next == '/' && i + 2 < length && isNameStart(text[i + 2])) {
+        flushText(text, textStart, i, callback);
+        int nameEnd = scanName(text, length, i + 2);
+        callback.handleEndTag(tagName(text, i + 2, nameEnd), i);
+        end = skipPast(text, length, nameEnd, '>');
+      }
+      else if (isNameStart(next)) {
+        flushText(text, textStart, i, callback);
+        end = scanTag(text, length, i, callback);
+      }
+      else {
+        // A '<' that does not start markup is text
+        i++;
+        continue;
+      }
+      i = textStart = end;
+    }
+    flushText(text, textStart, length, callback);
+  }
+
+  /**
+   * Scans a start tag beginning at <code>start</code> and reports it.
+   * The contents of SCRIPT and STYLE elements are skipped.
+   *
+   * @return The index just after the tag (or skipped contents).
+   */
+  protected int scanTag(char[] text, int length, int start, Callback callback) {
+    int nameEnd = scanName(text, length, start + 1);
+    String tag = tagName(text, start + 1, nameEnd);
+    attributes.clear(text);
+    boolean selfClosing = false;
+    int i = nameEnd;
+    while (i < length) {
+      char c = text[i];
+      if (c == '>') {
+        i++;
+        break;
+      }
+      if (c == '/') {
+        if (i + 1 < length && text[i + 1] == '>') {
+          selfClosing = true;
+          i += 2;
+          break;
+        }
+        i++;
+        continue;
+      }
+      if (Character.isWhitespace(c)) {
+        i++;
+        continue;
+      }
+      // attribute name
+      int ns = i;
+      while (i < length && (c = text[i]) != '=' && c != '>' && c != '/' && !Character.isWhitespace(c))
+        i++;
+      int ne = i;
+      while (i < length && Character.isWhitespace(text[i]))
+        i++;
+      int vs = -1, ve = -1;
+      if (i < length && text[i] == '=') {
+        i++;
+        while (i < length && Character.isWhitespace(text[i]))
+          i++;
+        if (i < length && (text[i] == '"' || text[i] == '\'')) {
+          char quote = text[i++];
+          vs = i;
+          while (i < length && text[i] != quote)
+            i++;
+          ve = i;
+          if (i < length)
+            i++;
+        }
+        else {
+          vs = i;
+          while (i < length && text[i] != '>' && !Character.isWhitespace(text[i]))
+            i++;
+          ve = i;
+        }
+      }
+      if (ne > ns)
+        attributes.add(ns, ne, vs, ve);
+    }
+    if (EMPTY_TAGS.contains(tag))
+      callback.handleSimpleTag(tag, attributes, start);
+    else if (selfClosing) {
+      // As in the Swing parser, <a/> opens and closes an element
+      callback.handleStartTag(tag, attributes, start);
+      callback.handleEndTag(tag, start);
+    }
+    else {
+      callback.handleStartTag(tag, attributes, start);
+      if (tag.equals("script") || tag.equals("style")) {
+        // Skip to the end tag, which is then scanned as usual
+        int close = i;
+        while ((close = indexOf(text, length, close, "</")) < length
+            && !startsWithIgnoreCase(text, length, close + 2, tag))
+          close += 2;
+        return close;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Reports the text between two indexes, if there is any.
+   */
+  private static void flushText(char[] text, int start, int end, Callback callback) {
+    if (end > start)
+      callback.handleText(text, start, end - start, start);
+  }
+
+  private static boolean isNameStart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Returns the index just after a tag name starting at
+   * <code>start</code>.
+   */
+  private static int scanName(char[] text, int length, int start) {
+    int i = start;
+    char c;
+    while (i < length && (c = text[i]) != '>' && c != '/' && !Character.isWhitespace(c))
+      i++;
+    return i;
+  }
+
+  /**
+   * Returns the lower case name between two indexes, shared if it is
+   * one of <code>COMMON_TAGS</code>.
+   */
+  protected static String tagName(char[] text, int start, int end) {
+    int length = end - start;
+    int i = hash(text, start, end) & (tagTable.length - 1);
+    String tag;
+    while ((tag = tagTable[i]) != null) {
+      if (tag.length() == length) {
+        int j = 0;
+        while (j < length && Character.toLowerCase(text[start + j]) == tag.charAt(j))
+          j++;
+        if (j == length)
+          return tag;
+      }
+      i = (i + 1) & (tagTable.length - 1);
+    }
+    return new String(text, start, length).toLowerCase();
+  }
+
+  /**
+   * Hashes the lower case form of the characters between two indexes.
+   */
+  private static int hash(char[] text, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++)
+      h = 31 * h + Character.toLowerCase(text[i]);
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the index just after the next occurrence of a character,
+   * or <code>length</code>.
+   */
+  private static int skipPast(char[] text, int length, int start, char c) {
+    for (int i = start; i < length; i++)
+      if (text[i] == c)
+        return i + 1;
+    return length;
+  }
+
+  /**
+   * Returns the index of the next occurrence of a string, or
+   * <code>length</code>.
+   */
+  private static int indexOf(char[] text, int length, int start, String s) {
+    for (int i = start; i + s.length() <= length; i++)
+      if (text[i] == s.charAt(0) && startsWith(text, length, i, s))
+        return i;
+    return length;
+  }
+
+  private static boolean startsWith(char[] text, int length, int start, String s) {
+    if (start + s.length() > length)
+      return false;
+    for (int j = 0; j < s.length(); j++)
+      if (text[start + j] != s.charAt(j))
+        return false;
+    return true;
+  }
+
+  private static boolean startsWithIgnoreCase(char[] text, int length, int start, String s) {
+    if (start + s.length() > length)
+      return false;
+    for (int j = 0; j < s.length(); j++)
+      if (Character.toLowerCase(text[start + j]) != s.charAt(j))
+        return false;
+    return true;
+  }
+
+  /**
+   * Returns text with character references such as
+   * <code>&amp;amp;</code> and <code>&amp;#233;</code> decoded.
+   * Unknown references are left as they are.
+   *
+   * @param text   The characters.
+   * @param start  The index of the first character.
+   * @param length The number of characters.
+   */
+  public static String decode(char[] text, int start, int length) {
+    int end = start + length;
+    int amp = start;
+    while (amp < end && text[amp] != '&')
+      amp++;
+    if (amp == end)
+      return new String(text, start, length);
+    StringBuilder decoded = new StringBuilder(length);
+    decoded.append(text, start, amp - start);
+    int i = amp;
+    while (i < end) {
+      char c = text[i];
+      if (c != '&') {
+        decoded.append(c);
+        i++;
+        continue;
+      }
+      int semi = i + 1;
+      while (semi < end && semi - i <= 10 && text[semi] != ';')
+        semi++;
+      if (semi < end && text[semi] == ';' && semi > i + 1) {
+        int code = -1;
+        if (text[i + 1] == '#') {
+          try {
+            if (semi > i + 2 && (text[i + 2] == 'x' || text[i + 2] == 'X'))
+              code = Integer.parseInt(new String(text, i + 3, semi - i - 3), 16);
+            else
+              code = Integer.parseInt(new String(text, i + 2, semi - i - 2));
+          }
+          catch (NumberFormatException e) {
+          }
+        }
+        else {
+          Character entity = ENTITIES.get(new String(text, i + 1, semi - i - 1));
+          if (entity != null)
+            code = entity;
+        }
+        if (code >= 0 && Character.isValidCodePoint(code)) {
+          decoded.appendCodePoint(code);
+          i = semi + 1;
+          continue;
+        }
+      }
+      decoded.append(c);
+      i++;
+    }
+    return decoded.toString();
+  }
+
+  /**
+   * Returns a string with character references decoded.
+   */
+  public static String decode(String text) {
+    return decode(text.toCharArray(), 0, text.length());
+  }
+}
@@ -0,0 +1,136 @@
+package ir.webutils;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+/**
+ * Measures how fast links can be extracted from a corpus of saved
+ * pages (for example the directory a spider saved its pages in),
+ * comparing the Swing <code>HTMLEditorKit</code> parser that
+ * <code>LinkExtractor</code> used to use with {@link HTMLLexer
+ * HTMLLexer}.  Each parser is run over the whole corpus several times
+ * to warm up and then timed; the number of links found by each is
+ * printed so they can be compared, along with the memory allocated
+ * per page where the JVM can report it.
+ * <p>
+ * Usage: HTMLLexerBenchmark &lt;directory&gt; [&lt;rounds&gt;] (default
+ * 10 rounds).
+ *
+ * @author Garrett Kelley
+ */
+public class HTMLLexerBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    File dir = new File(args[0]);
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+    List<HTMLPage> pages = new ArrayList<HTMLPage>();
+    long chars = 0;
+    File[] files = dir.listFiles();
+    Arrays.sort(files);
+    for (File file : files) {
+      if (!file.getName().endsWith(".html"))
+        continue;
+      String text = new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8");
+      pages.add(new HTMLPage(new Link(file.toURI().toURL()), text));
+      chars += text.length();
+    }
+    System.out.println("Pages: " + pages.size() + "  Characters: " + chars + "  Rounds: " + rounds);
+
+    for (int parser = 0; parser < 2; parser++) {
+      String name = (parser == 0) ? "Swing HTMLEditorKit (before)" : "HTMLLexer (after)";
+      // Warm up
+      for (int r = 0; r < Math.max(2, rounds / 2); r++)
+        extractAll(pages, parser);
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      int links = 0;
+      for (int r = 0; r < rounds; r++)
+        links = extractAll(pages, parser);
+      long elapsed = System.nanoTime() - start;
+      allocated = allocatedBytes() - allocated;
+      double seconds = elapsed / 1e9;
+      System.out.println(name + ": " + Math.round(seconds * 1000) + " ms, "
+          + Math.round(rounds * chars / seconds / 1e5) / 10.0 + " M chars/sec, "
+          + links + " links"
+          + (allocated > 0 ? ", " + allocated / ((long) rounds * pages.size()) + " bytes allocated/page" : ""));
+    }
+  }
+
+  /**
+   * Extracts the links of every page with one of the parsers.
+   *
+   * @return The total number of links found.
+   */
+  static int extractAll(List<HTMLPage> pages, int parser) {
+    int links = 0;
+    for (HTMLPage page : pages) {
+      if (parser == 0)
+        links += new SwingLinkExtractor(page).extractLinks().size();
+      else
+        links += new LinkExtractor(page).extractLinks().size();
+    }
+    return links;
+  }
+
+  /**
+   * Returns the number of bytes allocated by this thread so far, or 0
+   * if the JVM cannot tell.
+   */
+  static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    return 0;
+  }
+
+  /**
+   * The Swing callback <code>LinkExtractor</code> was before it used
+   * <code>HTMLLexer</code>: links from A and FRAME tags.
+   */
+  static class SwingLinkExtractor extends HTMLEditorKit.ParserCallback {
+    List<Link> links = new LinkedList<Link>();
+    HTMLPage page;
+    URL url;
+
+    SwingLinkExtractor(HTMLPage page) {
+      this.page = page;
+      this.url = HTMLPage.addEndSlash(page.getLink().getURL());
+    }
+
+    public void handleStartTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
+      if (tag == HTML.Tag.A)
+        addLink(attributes, HTML.Attribute.HREF);
+    }
+
+    public void handleSimpleTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
+      if (tag == HTML.Tag.FRAME)
+        addLink(attributes, HTML.Attribute.SRC);
+    }
+
+    List<Link> extractLinks() {
+      try {
+        new HTMLParserMaker().getParser().parse(new StringReader(page.getText()), this, true);
+      }
+      catch (IOException e) {
+        System.err.println("HTMLLexerBenchmark: " + e);
+      }
+      return links;
+    }
+
+    void addLink(MutableAttributeSet attributes, HTML.Attribute attr) {
+      String link = (String) attributes.getAttribute(attr);
+      if (link == null || link.startsWith("#"))
+        return;
+      try {
+        links.add(new Link(new URL(url, link)));
+      }
+      catch (MalformedURLException e) {
+        System.err.println("HTMLLexerBenchmark: " + e);
+      }
+    }
+  }
+}
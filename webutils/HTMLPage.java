@@ -31,6 +31,22 @@ public class HTMLPage {
    */
   protected List<Link> outLinks;
 
+  /**
+   * The response the page was downloaded from, <code>null</code> if
+   * the page was not built from a download
+   */
+  protected final WebResponse response;
+
+  /**
+   * The result of parsing this page, made when first needed
+   */
+  protected PageAnalyzer analysis = null;
+
+  /**
+   * The SimHash of the text of this page, made when first needed
+   */
+  protected SimHash simHash = null;
+
   /**
    * Constructs an <code>HTMLPage</code> with the given link and text.
    *
@@ -38,8 +54,34 @@ public class HTMLPage {
    * @param text The text of the page.
    */
   public HTMLPage(Link link, String text) {
+    this(link, text, null);
+  }
+
+  /**
+   * Constructs an <code>HTMLPage</code> with the given link and text
+   * that was downloaded in the given response.
+   *
+   * @param link     <code>Link</code> object to the given page.
+   * @param text     The text of the page.
+   * @param response The response the page was downloaded from.
+   */
+  public HTMLPage(Link link, String text, WebResponse response) {
     this.link = link;
     this.text = text;
+    this.response = response;
+  }
+
+  /**
+   * Constructs an <code>HTMLPage</code> with the same link, text and
+   * response as another, sharing its analysis and SimHash so the text
+   * is not parsed again.
+   *
+   * @param page The page to copy.
+   */
+  protected HTMLPage(HTMLPage page) {
+    this(page.link, page.text, page.response);
+    this.analysis = page.analysis;
+    this.simHash = page.simHash;
   }
 
   /**
@@ -63,6 +105,46 @@ public class HTMLPage {
     return link;
   }
 
+  /**
+   * Returns the response (status code, headers, etc.) this page was
+   * downloaded from, or <code>null</code> if it is not known.
+   */
+  public WebResponse getResponse() {
+    return response;
+  }
+
+  /**
+   * Returns the links, Robots META directives, BASE href and title of
+   * this page.  The page is parsed the first time this is called and
+   * the result is kept, so all users of the page share one parse.
+   */
+  public synchronized PageAnalyzer getAnalysis() {
+    if (analysis == null)
+      analysis = new PageAnalyzer(this).analyze();
+    return analysis;
+  }
+
+  /**
+   * Returns the SimHash of the text of this page, for finding pages
+   * that are nearly the same.  It is computed the first time this is
+   * called and kept.
+   */
+  public synchronized SimHash getSimHash() {
+    if (simHash == null)
+      simHash = new SimHash(this);
+    return simHash;
+  }
+
+  /**
+   * Returns a new list of the absolute links on this page, which the
+   * caller may change, and sets the out-links of the page to it.
+   */
+  public List<Link> extractLinks() {
+    List<Link> links = new ArrayList<Link>(getAnalysis().getLinks());
+    setOutLinks(links);
+    return links;
+  }
+
   /**
    * Set of the outLinks for this page to given list
    */
@@ -114,7 +196,7 @@ public class HTMLPage {
       // Ideally, this command should be added to the <head> part of the document; however,
       // many documents don't have explicit <head>'s and putting it at the from of the
       // document seems to work since browsers are robust to "ungrammatical" HTML
-      out.println("<base href=\"" + addEndSlash(link.getURL()) + "\">");
+      out.println(baseElement());
       out.print(text);
       out.close();
     }
@@ -123,6 +205,14 @@ public class HTMLPage {
     }
   }
 
+  /**
+   * Returns the HTML "BASE" element with the original URL that
+   * <code>write</code> puts before the text of the page.
+   */
+  public String baseElement() {
+    return "<base href=\"" + addEndSlash(link.getURL()) + "\">";
+  }
+
   /**
    * If URL looks like a directory rather than a file, then
    * add a "/" at the end so that it acts as a proper base URL
@@ -130,7 +220,7 @@ public class HTMLPage {
    */
   protected static URL addEndSlash(URL url) {
     String fileName = url.getPath();
-    if (MoreString.fileExtension(fileName).equals(""))
+    if (!fileName.endsWith("/") && MoreString.fileExtension(fileName).equals(""))
       try {
         return new URL(url.toString() + "/");
       }
@@ -6,14 +6,26 @@ import java.net.*;
 /**
  * HTMLPageRetriever allows clients to download web pages from URLs.
  * This is the default implementation, which performs no processing
- * aside from downloading web pages from a URL.  This class does not
- * maintain any state, so subclasses do not need to worry about
- * fields.
+ * aside from downloading web pages from a URL.  The only state it
+ * keeps is the {@link FetchOptions FetchOptions} used for downloads
+ * and, optionally, an {@link HttpClientFetcher HttpClientFetcher} to
+ * download them with instead of a new connection per page.
  *
  * @author Ted Wild
  */
 public class HTMLPageRetriever {
 
+  /**
+   * How pages are downloaded
+   */
+  protected FetchOptions fetchOptions = new FetchOptions();
+
+  /**
+   * The shared HTTP client pages are downloaded with, or
+   * <code>null</code> to download them with <code>WebPage</code>
+   */
+  protected HttpClientFetcher httpClientFetcher = null;
+
   /**
    * Constructs a HTMLPageRetriever object.  Subclasses wishing to
    * behave as singletons do not need to worry about overriding the
@@ -22,6 +34,40 @@ public class HTMLPageRetriever {
   public HTMLPageRetriever() {
   }
 
+  /**
+   * Returns the options used to download pages.
+   */
+  public FetchOptions getFetchOptions() {
+    return fetchOptions;
+  }
+
+  /**
+   * Sets the options used to download pages.
+   */
+  public void setFetchOptions(FetchOptions fetchOptions) {
+    this.fetchOptions = fetchOptions;
+  }
+
+  /**
+   * Returns the HTTP client pages are downloaded with, or
+   * <code>null</code> if they are downloaded with
+   * <code>WebPage</code>.
+   */
+  public HttpClientFetcher getHttpClientFetcher() {
+    return httpClientFetcher;
+  }
+
+  /**
+   * Sets the HTTP client pages are downloaded with.
+   *
+   * @param httpClientFetcher The client, or <code>null</code> to
+   *                          download pages with
+   *                          <code>WebPage</code>.
+   */
+  public void setHttpClientFetcher(HttpClientFetcher httpClientFetcher) {
+    this.httpClientFetcher = httpClientFetcher;
+  }
+
   /**
    * Downloads a web page from a given URL.
    *
@@ -31,7 +77,62 @@ public class HTMLPageRetriever {
    *         downloaded from the <code>Link</code>.
    */
   public HTMLPage getHTMLPage(Link link) throws PathDisallowedException {
-    return new HTMLPage(link, WebPage.getWebPage(link.getURL()));
+    WebResponse response = fetch(link.getURL());
+    return new HTMLPage(getPageLink(link, response), response.getText(), response);
+  }
+
+  /**
+   * Returns the delay between requests to the host of a URL that the
+   * host has asked for, for example with a robots.txt "Crawl-delay".
+   * This implementation does not check, and returns -1.
+   *
+   * @param url A URL on the host.
+   * @return The delay in milliseconds, or -1 if none is known.
+   */
+  public long getCrawlDelay(URL url) {
+    return -1;
+  }
+
+  /**
+   * Called when a URL is first queued, before it is downloaded, so
+   * that information about its host can be prepared ahead of time.
+   * This implementation does nothing.
+   *
+   * @param url A URL that will be downloaded later.
+   */
+  public void prefetch(URL url) {
+  }
+
+  /**
+   * Returns the link to use for a downloaded page: the requested link,
+   * or a link to the cleaned final URL if the request was redirected.
+   * This is where redirects are recorded, so no separate request is
+   * needed to discover them.
+   *
+   * @param link     The link that was requested.
+   * @param response The response to the request.
+   */
+  protected Link getPageLink(Link link, WebResponse response) {
+    if (!response.redirected())
+      return link;
+    Link redirected = new Link(response.getFinalURL());
+    redirected.cleanURL();
+    return redirected;
+  }
+
+  /**
+   * Downloads a URL with a single request and the current fetch
+   * options, keeping the status code and headers along with the text.
+   * Subclasses use this method for all downloads of pages.  The
+   * <code>HttpClientFetcher</code> is used if one has been set.
+   *
+   * @param url The URL to download.
+   * @return The response from the server.
+   */
+  protected WebResponse fetch(URL url) {
+    if (httpClientFetcher != null)
+      return httpClientFetcher.fetch(url, fetchOptions);
+    return WebPage.fetch(url, fetchOptions);
   }
 }// HTMLPageRetriever
 
@@ -0,0 +1,108 @@
+package ir.webutils;
+
+import java.util.*;
+
+/**
+ * HostCircuitBreaker keeps track of consecutive failed downloads from
+ * each host so a spider can stop wasting requests (and timeouts) on a
+ * host that is down or overloaded.  After <code>maxFailures</code>
+ * failures in a row the circuit for the host is opened, and stays
+ * open for the rest of the crawl: {@link #allow allow} returns false
+ * for it and the spider drops its remaining links.  A successful
+ * download resets the count.  Since an open circuit never closes, and
+ * so would end a crawl of a single site that has a bad minute, a
+ * spider only uses one when asked to with -maxfailures.
+ * <p>
+ * A download counts as a failure if it timed out, could not connect
+ * or read at all, or got a 5xx status.  Statuses such as 404 say
+ * nothing about the health of the host and are not failures.  All
+ * methods are synchronized so one instance can be shared by crawl
+ * threads.
+ *
+ * @author Garrett Kelley
+ */
+public class HostCircuitBreaker {
+
+  /**
+   * The number of consecutive failures that opens the circuit for a
+   * host
+   */
+  protected int maxFailures;
+
+  /**
+   * The number of consecutive failures of each host with failures
+   * and a closed circuit
+   */
+  protected Map<String, Integer> failures = new HashMap<String, Integer>();
+
+  /**
+   * Hosts whose circuit is open
+   */
+  protected Set<String> openHosts = new HashSet<String>();
+
+  /**
+   * Creates a breaker that opens after the given number of consecutive
+   * failures.
+   *
+   * @param maxFailures The number of failures, at least 1.
+   */
+  public HostCircuitBreaker(int maxFailures) {
+    if (maxFailures < 1)
+      throw new IllegalArgumentException("maxFailures must be at least 1: " + maxFailures);
+    this.maxFailures = maxFailures;
+  }
+
+  /**
+   * Returns true if a download of the given response should count
+   * against its host.
+   */
+  public static boolean isFailure(WebResponse response) {
+    if (response.timedOut() || response.getStatusCode() >= 500)
+      return true;
+    return response.getError() != null && response.getStatusCode() == -1;
+  }
+
+  /**
+   * Returns true unless the circuit for the host is open.
+   */
+  public synchronized boolean allow(String host) {
+    return !openHosts.contains(host);
+  }
+
+  /**
+   * Records the outcome of a download from a host.
+   *
+   * @param failure True if the download failed (see {@link #isFailure
+   *                isFailure}).
+   * @return True if this failure opened the circuit for the host.
+   */
+  public synchronized boolean record(String host, boolean failure) {
+    if (!failure) {
+      failures.remove(host);
+      return false;
+    }
+    if (openHosts.contains(host))
+      return false;
+    Integer count = failures.get(host);
+    count = (count == null) ? 1 : count + 1;
+    if (count < maxFailures) {
+      failures.put(host, count);
+      return false;
+    }
+    failures.remove(host);
+    openHosts.add(host);
+    return true;
+  }
+
+  /**
+   * Returns the hosts whose circuit is open.
+   */
+  public synchronized Set<String> getOpenHosts() {
+    return new TreeSet<String>(openHosts);
+  }
+
+  public synchronized String toString() {
+    return openHosts.size() + " hosts cut off after " + maxFailures + " consecutive failures"
+        + (openHosts.isEmpty() ? "" : " " + new TreeSet<String>(openHosts));
+  }
+}
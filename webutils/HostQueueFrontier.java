@@ -0,0 +1,348 @@
+package ir.webutils;
+
+import java.util.*;
+
+/**
+ * A two-level crawl frontier in the style of the Mercator crawler
+ * that lets many hosts be crawled in parallel while each individual
+ * host is visited no faster than a given delay.
+ * <p>
+ * New links go into one of several <em>front queues</em> according to
+ * their priority ({@link #priority priority}).  Links are moved from
+ * the front queues, favoring higher priorities, into per-host
+ * <em>back queues</em>, so that each back queue holds links for a
+ * single host.  A min-heap orders the hosts with waiting links by the
+ * earliest time they may next be contacted.  {@link #poll poll}
+ * returns a link only from a host whose time has come, and that host
+ * is then unavailable until the caller reports with {@link #release
+ * release} that it has finished with the link, at which point the
+ * host's next time is set from the delay given.
+ * <p>
+ * The front queues may be any <code>Queue</code>, for example {@link
+ * DiskLinkQueue DiskLinkQueue} for crawls too large for memory.  At
+ * most <code>maxBackQueueLinks</code> links are held in the (in
+ * memory) back queues.  This class is not synchronized.
+ *
+ * @author Garrett Kelley
+ */
+public class HostQueueFrontier extends AbstractQueue<Link> {
+
+  /**
+   * Default number of hosts that have back queues at the same time
+   */
+  public static final int DEFAULT_MAX_HOSTS = 64;
+
+  /**
+   * Default limit on the number of links in all back queues together
+   */
+  public static final int DEFAULT_MAX_BACK_QUEUE_LINKS = 10000;
+
+  /**
+   * The front queues, highest priority first
+   */
+  protected List<Queue<Link>> frontQueues;
+
+  /**
+   * The back queues, by host
+   */
+  protected Map<String, HostQueue> hostQueues = new HashMap<String, HostQueue>();
+
+  /**
+   * Hosts with waiting links that are not in use, by the time they may
+   * next be contacted
+   */
+  protected PriorityQueue<HostQueue> readyHeap = new PriorityQueue<HostQueue>();
+
+  /**
+   * Earliest time each recently contacted host may be contacted again,
+   * kept for hosts whose back queue has been removed.  Bounded in size.
+   */
+  protected Map<String, Long> nextAllowed = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > 100000;
+    }
+  };
+
+  /**
+   * The most hosts that may have back queues at once
+   */
+  protected int maxHosts;
+
+  /**
+   * The most links held in back queues at once
+   */
+  protected int maxBackQueueLinks;
+
+  /**
+   * The number of links in back queues
+   */
+  protected int backQueueLinks = 0;
+
+  /**
+   * The number of links in the frontier
+   */
+  protected int size = 0;
+
+  /**
+   * Chooses which front queue to take the next link from
+   */
+  protected Random random = new Random(0);
+
+  /**
+   * Constructs a frontier with the given front queues, which should
+   * be empty, and the default limits.
+   *
+   * @param frontQueues The front queues, highest priority first.
+   */
+  public HostQueueFrontier(List<Queue<Link>> frontQueues) {
+    this(frontQueues, DEFAULT_MAX_HOSTS, DEFAULT_MAX_BACK_QUEUE_LINKS);
+  }
+
+  /**
+   * Constructs a frontier with the given front queues and limits.
+   *
+   * @param frontQueues       The front queues, highest priority first.
+   * @param maxHosts          The most hosts that may have back queues at once.
+   * @param maxBackQueueLinks The most links held in back queues at once.
+   */
+  public HostQueueFrontier(List<Queue<Link>> frontQueues, int maxHosts, int maxBackQueueLinks) {
+    this.frontQueues = frontQueues;
+    this.maxHosts = maxHosts;
+    this.maxBackQueueLinks = maxBackQueueLinks;
+  }
+
+  /**
+   * Returns the front queue a link should go in: 0 for the highest
+   * priority.  This implementation prefers pages nearer the root of
+   * their site, using the number of directories in the path.
+   */
+  protected int priority(Link link) {
+    String path = link.getURL().getPath();
+    int depth = 0;
+    for (int i = 1; i < path.length(); i++)
+      if (path.charAt(i) == '/')
+        depth++;
+    return Math.min(depth, frontQueues.size() - 1);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean offer(Link link) {
+    frontQueues.get(priority(link)).add(link);
+    size++;
+    fillBackQueues();
+    return true;
+  }
+
+  /**
+   * Removes and returns a link from the host that has been waiting
+   * longest for its turn, if that host may be contacted now.  The
+   * host is then in use until <code>release</code> is called.
+   *
+   * @return A link, or <code>null</code> if no host is ready.
+   */
+  public Link poll() {
+    HostQueue hostQueue = readyHeap.peek();
+    if (hostQueue == null || hostQueue.readyTime > System.currentTimeMillis())
+      return null;
+    readyHeap.poll();
+    Link link = hostQueue.links.poll();
+    hostQueue.inUse = true;
+    backQueueLinks--;
+    size--;
+    fillBackQueues();
+    return link;
+  }
+
+  /**
+   * Returns the next link <code>poll</code> would return, or
+   * <code>null</code> if no host is ready.
+   */
+  public Link peek() {
+    HostQueue hostQueue = readyHeap.peek();
+    if (hostQueue == null || hostQueue.readyTime > System.currentTimeMillis())
+      return null;
+    return hostQueue.links.peek();
+  }
+
+  /**
+   * Reports that the caller has finished with a link returned by
+   * <code>poll</code>, so its host may be contacted again after the
+   * given delay.
+   *
+   * @param link  The link returned by <code>poll</code>.
+   * @param delay Milliseconds to wait before contacting its host again.
+   */
+  public void release(Link link, long delay) {
+    String host = link.getURL().getHost();
+    HostQueue hostQueue = hostQueues.get(host);
+    long readyTime = System.currentTimeMillis() + delay;
+    nextAllowed.put(host, readyTime);
+    if (hostQueue == null)
+      return;
+    hostQueue.inUse = false;
+    hostQueue.readyTime = readyTime;
+    if (hostQueue.links.isEmpty())
+      hostQueues.remove(host);
+    else
+      readyHeap.add(hostQueue);
+    fillBackQueues();
+  }
+
+  /**
+   * Returns the number of milliseconds until some host will be ready,
+   * 0 if one is ready now, or -1 if none will become ready until a
+   * link is released or added.
+   */
+  public long millisUntilReady() {
+    HostQueue hostQueue = readyHeap.peek();
+    if (hostQueue == null)
+      return -1;
+    return Math.max(0, hostQueue.readyTime - System.currentTimeMillis());
+  }
+
+  /**
+   * Removes all waiting links for a host.
+   *
+   * @return The number of links removed.
+   */
+  public int removeHost(String host) {
+    int removed = 0;
+    HostQueue hostQueue = hostQueues.get(host);
+    if (hostQueue != null) {
+      removed = hostQueue.links.size();
+      backQueueLinks -= removed;
+      hostQueue.links.clear();
+      readyHeap.remove(hostQueue);
+      if (!hostQueue.inUse)
+        hostQueues.remove(host);
+    }
+    for (Queue<Link> frontQueue : frontQueues) {
+      Iterator<Link> iterator = frontQueue.iterator();
+      // Front queues such as DiskLinkQueue may not support removal
+      try {
+        while (iterator.hasNext()) {
+          if (iterator.next().getURL().getHost().equals(host)) {
+            iterator.remove();
+            removed++;
+          }
+        }
+      }
+      catch (UnsupportedOperationException e) {
+      }
+    }
+    size -= removed;
+    fillBackQueues();
+    return removed;
+  }
+
+  /**
+   * Removes all links.
+   */
+  public void clear() {
+    for (Queue<Link> frontQueue : frontQueues)
+      frontQueue.clear();
+    hostQueues.clear();
+    readyHeap.clear();
+    backQueueLinks = 0;
+    size = 0;
+  }
+
+  /**
+   * Returns a read-only iterator over all the links, back queues first.
+   */
+  public Iterator<Link> iterator() {
+    List<Iterable<Link>> queues = new ArrayList<Iterable<Link>>(hostQueues.size() + frontQueues.size());
+    for (HostQueue hostQueue : hostQueues.values())
+      queues.add(hostQueue.links);
+    queues.addAll(frontQueues);
+    return new ChainedIterator<Link>(queues);
+  }
+
+  /**
+   * Moves links from the front queues to the back queues while there
+   * is room for more hosts or there are hosts with no waiting links,
+   * and the back queues are not over their limit.
+   */
+  protected void fillBackQueues() {
+    while (backQueueLinks < maxBackQueueLinks
+        && (hostQueues.size() < maxHosts || readyHeap.size() < hostQueues.size())) {
+      Queue<Link> frontQueue = chooseFrontQueue();
+      if (frontQueue == null)
+        return;
+      Link link = frontQueue.peek();
+      String host = link.getURL().getHost();
+      HostQueue hostQueue = hostQueues.get(host);
+      if (hostQueue == null) {
+        if (hostQueues.size() >= maxHosts)
+          return; // wait for a host to finish before starting another
+        hostQueue = new HostQueue(host);
+        Long readyTime = nextAllowed.get(host);
+        hostQueue.readyTime = (readyTime == null) ? 0 : readyTime;
+        hostQueues.put(host, hostQueue);
+      }
+      frontQueue.poll();
+      if (hostQueue.links.isEmpty() && !hostQueue.inUse)
+        readyHeap.add(hostQueue);
+      hostQueue.links.add(link);
+      backQueueLinks++;
+    }
+  }
+
+  /**
+   * Picks a non-empty front queue at random, queue <code>i</code> of
+   * <code>n</code> weighted by <code>n - i</code>.
+   *
+   * @return The chosen queue, or <code>null</code> if all are empty.
+   */
+  protected Queue<Link> chooseFrontQueue() {
+    int n = frontQueues.size();
+    int totalWeight = 0;
+    for (int i = 0; i < n; i++)
+      if (!frontQueues.get(i).isEmpty())
+        totalWeight += n - i;
+    if (totalWeight == 0)
+      return null;
+    int choice = random.nextInt(totalWeight);
+    for (int i = 0; i < n; i++) {
+      if (!frontQueues.get(i).isEmpty()) {
+        choice -= n - i;
+        if (choice < 0)
+          return frontQueues.get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The back queue of one host.
+   */
+  protected static class HostQueue implements Comparable<HostQueue> {
+    /**
+     * The host
+     */
+    final String host;
+    /**
+     * Waiting links for the host
+     */
+    final ArrayDeque<Link> links = new ArrayDeque<Link>();
+    /**
+     * Earliest time the host may be contacted
+     */
+    long readyTime = 0;
+    /**
+     * True while a link from this host is being processed
+     */
+    boolean inUse = false;
+
+    HostQueue(String host) {
+      this.host = host;
+    }
+
+    public int compareTo(HostQueue other) {
+      return Long.compare(readyTime, other.readyTime);
+    }
+  }
+}
@@ -0,0 +1,439 @@
+package ir.webutils;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * HttpClientFetcher downloads pages with a single shared
+ * <code>java.net.http.HttpClient</code> instead of a new
+ * <code>URLConnection</code> per page.  The client keeps connections
+ * alive between requests and speaks HTTP/2 to servers that support
+ * it, so many requests to a host share one connection.  Downloads
+ * complete through a <code>CompletableFuture</code> ({@link
+ * #fetchAsync fetchAsync}), and at most <code>maxPerHost</code> of
+ * them run against any one host at a time; further requests for the
+ * host wait their turn without holding a thread.
+ * <p>
+ * The body is handled exactly as by {@link WebPage#fetch(URL,
+ * FetchOptions) WebPage.fetch}: it is decompressed, abandoned if it
+ * is not HTML, cut off at the maximum size and decoded according to
+ * the {@link FetchOptions FetchOptions}, and the result is a {@link
+ * WebResponse WebResponse}.  The client has no read timeout of its
+ * own, so a body being read is closed by a {@link Watchdog Watchdog}
+ * when the page deadline passes, or when no bytes have arrived for the
+ * read timeout.
+ * URLs that are not HTTP are passed to <code>WebPage.fetch</code>.
+ * Give a retriever a fetcher with {@link
+ * HTMLPageRetriever#setHttpClientFetcher
+ * HTMLPageRetriever.setHttpClientFetcher} to use it for all page
+ * downloads.
+ *
+ * @author Garrett Kelley
+ */
+public class HttpClientFetcher {
+
+  /**
+   * Default number of requests that may run against one host at once
+   */
+  public static final int DEFAULT_MAX_PER_HOST = 4;
+
+  /**
+   * The shared client
+   */
+  protected final HttpClient client;
+
+  /**
+   * Runs the blocking part of each download (reading the body) and
+   * the client's own work
+   */
+  protected final ExecutorService executor;
+
+  /**
+   * Runs the watchdogs that close the bodies of downloads that overrun
+   * their deadline or stall, since the client has no read timeout of
+   * its own
+   */
+  protected final ScheduledExecutorService timer;
+
+  /**
+   * The most requests that may run against one host at once
+   */
+  protected final int maxPerHost;
+
+  /**
+   * The request slots of each host with requests running or waiting
+   */
+  protected final Map<String, HostSlots> hostSlots = new HashMap<String, HostSlots>();
+
+  /**
+   * The number of responses received over each HTTP version
+   */
+  protected final Map<HttpClient.Version, Long> versionCounts =
+      new EnumMap<HttpClient.Version, Long>(HttpClient.Version.class);
+
+  /**
+   * Creates a fetcher that runs at most
+   * <code>DEFAULT_MAX_PER_HOST</code> requests against a host at once
+   * and waits for connections as long as the default fetch options.
+   */
+  public HttpClientFetcher() {
+    this(DEFAULT_MAX_PER_HOST, FetchOptions.DEFAULT_CONNECT_TIMEOUT);
+  }
+
+  /**
+   * Creates a fetcher.
+   *
+   * @param maxPerHost     The most requests that may run against one
+   *                       host at once.
+   * @param connectTimeout Milliseconds to wait for a connection, 0
+   *                       for no limit.  This is fixed for the life
+   *                       of the client, so the connect timeout of the
+   *                       fetch options is not used.
+   */
+  public HttpClientFetcher(int maxPerHost, int connectTimeout) {
+    if (maxPerHost < 1)
+      throw new IllegalArgumentException("maxPerHost must be at least 1: " + maxPerHost);
+    this.maxPerHost = maxPerHost;
+    ThreadFactory daemons = new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "HttpClientFetcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    executor = Executors.newCachedThreadPool(daemons);
+    timer = Executors.newSingleThreadScheduledExecutor(daemons);
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .executor(executor);
+    if (connectTimeout > 0)
+      builder.connectTimeout(Duration.ofMillis(connectTimeout));
+    client = builder.build();
+  }
+
+  /**
+   * Downloads a URL, waiting for the result.
+   *
+   * @return The response, with empty text if the page could not be
+   *         read or was skipped.
+   */
+  public WebResponse fetch(URL url, FetchOptions options) {
+    WebResponse response = new WebResponse(url);
+    try {
+      return fetchAsync(url, options).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response.error = e.toString();
+    }
+    catch (ExecutionException e) {
+      response.error = e.getCause().toString();
+      System.err.println("HttpClientFetcher.fetch(): " + e.getCause());
+    }
+    return response;
+  }
+
+  /**
+   * Starts downloading a URL.  The download waits until fewer than
+   * <code>maxPerHost</code> requests are running against the host.
+   * Errors are reported in the response rather than by completing
+   * the future exceptionally.
+   *
+   * @return A future for the response.
+   */
+  public CompletableFuture<WebResponse> fetchAsync(final URL url, final FetchOptions options) {
+    String protocol = url.getProtocol();
+    if (!protocol.equals("http") && !protocol.equals("https"))
+      return CompletableFuture.completedFuture(WebPage.fetch(url, options));
+    final String host = url.getHost();
+    return acquire(host)
+        .thenCompose(new Function<Void, CompletionStage<WebResponse>>() {
+          public CompletionStage<WebResponse> apply(Void ignored) {
+            return send(url, options);
+          }
+        })
+        .whenComplete(new BiConsumer<WebResponse, Throwable>() {
+          public void accept(WebResponse response, Throwable error) {
+            release(host);
+          }
+        });
+  }
+
+  /**
+   * Sends the request for a URL and reads the response once a request
+   * slot for its host is held.
+   */
+  protected CompletableFuture<WebResponse> send(final URL url, final FetchOptions options) {
+    final WebResponse response = new WebResponse(url);
+    final long start = System.currentTimeMillis();
+    HttpRequest request;
+    try {
+      HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI()).GET();
+      if (options.getAcceptCompression())
+        builder.header("Accept-Encoding", "gzip, deflate");
+      // The request timeout covers waiting for the response head
+      long timeout = (options.getDeadline() > 0) ? options.getDeadline() : options.getReadTimeout();
+      if (timeout > 0)
+        builder.timeout(Duration.ofMillis(timeout));
+      request = builder.build();
+    }
+    catch (URISyntaxException | IllegalArgumentException e) {
+      response.error = e.toString();
+      System.err.println("HttpClientFetcher.fetch(): " + e);
+      return CompletableFuture.completedFuture(response);
+    }
+    return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+        .handleAsync(new BiFunction<HttpResponse<InputStream>, Throwable, WebResponse>() {
+          public WebResponse apply(HttpResponse<InputStream> httpResponse, Throwable error) {
+            if (error != null)
+              fail(response, error);
+            else
+              readResponse(httpResponse, response, options, start);
+            return response;
+          }
+        }, executor);
+  }
+
+  /**
+   * Fills in a response from the status, headers and body the client
+   * received.  Bodies of error statuses are not read.  The body is read
+   * under a {@link Watchdog Watchdog} if there is a page deadline or a
+   * read timeout.
+   */
+  protected void readResponse(HttpResponse<InputStream> httpResponse, WebResponse response,
+                              FetchOptions options, long start) {
+    InputStream body = httpResponse.body();
+    Watchdog watchdog = null;
+    long deadline = Long.MAX_VALUE;
+    try {
+      countVersion(httpResponse.version());
+      response.statusCode = httpResponse.statusCode();
+      response.headers.putAll(httpResponse.headers().map());
+      response.finalURL = httpResponse.uri().toURL();
+      response.contentLength = httpResponse.headers().firstValueAsLong("Content-Length").orElse(-1);
+      if (response.statusCode >= 400) {
+        body.close();
+        response.error = "HTTP status " + response.statusCode;
+        return;
+      }
+      if (options.getDeadline() >= 0)
+        deadline = start + options.getDeadline();
+      if (deadline < Long.MAX_VALUE || options.getReadTimeout() > 0) {
+        // A stalled read cannot time itself out, so the watchdog closes the body under it
+        watchdog = new Watchdog(body, deadline, options.getReadTimeout());
+        body = watchdog.getInputStream();
+      }
+      WebPage.readBody(body, null, response, options, deadline);
+    }
+    catch (IOException e) {
+      closeQuietly(body);
+      // Reading fails with "closed" when the watchdog closes the body
+      String expired = (watchdog == null) ? null : watchdog.getExpired();
+      fail(response, (expired != null) ? new SocketTimeoutException(expired) : e);
+    }
+    finally {
+      if (watchdog != null)
+        watchdog.cancel();
+    }
+  }
+
+  /**
+   * Records an error in a response.
+   */
+  protected void fail(WebResponse response, Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null)
+      error = error.getCause();
+    response.error = error.toString();
+    response.timedOut = error instanceof SocketTimeoutException
+        || error instanceof HttpTimeoutException;
+    System.err.println("HttpClientFetcher.fetch(): " + error);
+  }
+
+  /**
+   * Closes a stream, ignoring errors.
+   */
+  static void closeQuietly(InputStream in) {
+    try {
+      in.close();
+    }
+    catch (IOException e) {
+    }
+  }
+
+  /**
+   * Returns a future that completes when a request slot of a host is
+   * held.
+   */
+  protected synchronized CompletableFuture<Void> acquire(String host) {
+    HostSlots slots = hostSlots.get(host);
+    if (slots == null) {
+      slots = new HostSlots();
+      hostSlots.put(host, slots);
+    }
+    if (slots.running < maxPerHost) {
+      slots.running++;
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> slot = new CompletableFuture<Void>();
+    slots.waiting.add(slot);
+    return slot;
+  }
+
+  /**
+   * Gives back a request slot of a host, forgetting the host once it
+   * has nothing running or waiting.
+   */
+  protected void release(String host) {
+    CompletableFuture<Void> next;
+    synchronized (this) {
+      HostSlots slots = hostSlots.get(host);
+      next = slots.waiting.poll();
+      if (next == null && --slots.running == 0)
+        hostSlots.remove(host);
+    }
+    // The slot passes straight to the next waiting request
+    if (next != null)
+      next.complete(null);
+  }
+
+  protected synchronized void countVersion(HttpClient.Version version) {
+    Long count = versionCounts.get(version);
+    versionCounts.put(version, count == null ? 1 : count + 1);
+  }
+
+  public synchronized String toString() {
+    return "responses by version " + versionCounts + ", at most " + maxPerHost + " requests per host";
+  }
+
+  /**
+   * Closes the body of a download when its deadline passes or when no
+   * bytes have arrived for the read timeout.  Reads through the stream
+   * from {@link #getInputStream getInputStream} reset the idle time;
+   * each time the watchdog wakes up before either limit is reached it
+   * schedules itself again for the nearer one.
+   */
+  protected class Watchdog implements Runnable {
+    /**
+     * The body being read
+     */
+    final InputStream body;
+    /**
+     * Time in milliseconds the download must finish by, or
+     * <code>Long.MAX_VALUE</code>
+     */
+    final long deadline;
+    /**
+     * Milliseconds without bytes after which the body is closed, or 0
+     * for no limit
+     */
+    final long idleTimeout;
+    /**
+     * Time in milliseconds bytes last arrived
+     */
+    volatile long lastActivity = System.currentTimeMillis();
+    /**
+     * Why the body was closed, or <code>null</code> while it is open
+     */
+    String expired = null;
+    /**
+     * Whether the download has finished
+     */
+    boolean cancelled = false;
+    /**
+     * The next wake-up
+     */
+    ScheduledFuture<?> future = null;
+
+    Watchdog(InputStream body, long deadline, long idleTimeout) {
+      this.body = body;
+      this.deadline = deadline;
+      this.idleTimeout = Math.max(0, idleTimeout);
+      schedule(lastActivity);
+    }
+
+    /**
+     * Returns the body as a stream whose reads count as activity.
+     */
+    InputStream getInputStream() {
+      return new FilterInputStream(body) {
+        public int read() throws IOException {
+          int b = super.read();
+          lastActivity = System.currentTimeMillis();
+          return b;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+          int n = super.read(buffer, offset, length);
+          if (n > 0)
+            lastActivity = System.currentTimeMillis();
+          return n;
+        }
+      };
+    }
+
+    /**
+     * Schedules the next wake-up for whichever limit is nearer.
+     */
+    synchronized void schedule(long now) {
+      long next = deadline;
+      if (idleTimeout > 0)
+        next = Math.min(next, lastActivity + idleTimeout);
+      future = timer.schedule(this, Math.max(0, next - now), TimeUnit.MILLISECONDS);
+    }
+
+    public void run() {
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        if (cancelled)
+          return;
+        if (now >= deadline)
+          expired = "Page deadline passed";
+        else if (idleTimeout > 0 && now - lastActivity >= idleTimeout)
+          expired = "Read timed out";
+        else {
+          schedule(now);
+          return;
+        }
+      }
+      closeQuietly(body);
+    }
+
+    /**
+     * Returns why the body was closed, or <code>null</code> if it was
+     * not.
+     */
+    synchronized String getExpired() {
+      return expired;
+    }
+
+    /**
+     * Stops the watchdog once the download has finished.
+     */
+    synchronized void cancel() {
+      cancelled = true;
+      if (future != null)
+        future.cancel(false);
+    }
+  }
+
+  /**
+   * The requests running against a host and those waiting for a slot.
+   * Guarded by the fetcher.
+   */
+  protected static class HostSlots {
+    /**
+     * The number of requests holding a slot
+     */
+    int running = 0;
+    /**
+     * Requests waiting for a slot, completed in order as slots free up
+     */
+    Queue<CompletableFuture<Void>> waiting = new LinkedList<CompletableFuture<Void>>();
+  }
+}
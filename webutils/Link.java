@@ -1,11 +1,16 @@
 package ir.webutils;
 
-import java.io.*;
 import java.net.*;
 
 /**
  * Link is a class that contains a URL.  Subclasses of link may keep
  * additional information (such as anchor text & other attributes)
+ * <p>
+ * Two links are equal if their URLs have the same canonical form
+ * (see {@link URLCanonicalizer URLCanonicalizer}).  The canonical
+ * string and its 64-bit fingerprint are computed once when the link
+ * is made, so comparing and hashing links never resolves host names
+ * the way <code>java.net.URL.equals</code> and <code>hashCode</code> do.
  *
  * @author Ted Wild and Ray Mooney
  */
@@ -14,6 +19,16 @@ public class Link {
 
   private URL url = null;
 
+  /**
+   * The canonical form of the URL, which determines equality
+   */
+  private String key = "";
+
+  /**
+   * The 64-bit fingerprint of <code>key</code>
+   */
+  private long fingerprint = 0;
+
   /**
    * May be subclassed.  This constructor should not be invoked by
    * clients of <code>Link</code>.
@@ -29,6 +44,7 @@ public class Link {
    */
   public Link(URL url) {
     this.url = url;
+    setKey(cleanURL(url).toString());
   }
 
   /**
@@ -37,12 +53,21 @@ public class Link {
   public Link(String urlName) {
     try {
       this.url = cleanURL(new URL(urlName));
+      setKey(url.toString());
     }
     catch (MalformedURLException e) {
       System.err.println("Bad URL: " + urlName);
     }
   }
 
+  /**
+   * Sets the canonical string identifying this link and its fingerprint.
+   */
+  private void setKey(String key) {
+    this.key = key;
+    this.fingerprint = Fingerprint.of(key);
+  }
+
   /**
    * Returns the URL of this link.
    *
@@ -56,39 +81,52 @@ public class Link {
     return url.toString();
   }
 
+  /**
+   * Returns the canonical form of the URL of this link.  Links are
+   * equal iff. their canonical strings are equal.
+   */
+  public final String getCanonicalString() {
+    return key;
+  }
+
+  /**
+   * Returns a 64-bit fingerprint of the canonical form of the URL
+   * of this link.
+   */
+  public final long fingerprint() {
+    return fingerprint;
+  }
+
   public boolean equals(Object o) {
-    return (o instanceof Link) && ((Link) o).url.equals(this.url);
+    if (!(o instanceof Link))
+      return false;
+    Link link = (Link) o;
+    return link.fingerprint == this.fingerprint && link.key.equals(this.key);
   }
 
   public int hashCode() {
-    return url.hashCode();
+    return (int) (fingerprint ^ (fingerprint >>> 32));
   }
 
+  /**
+   * Replaces the URL of this link with its canonical form.
+   */
   public void cleanURL() {
+    // The canonical string was computed when the link was made
+    if (url != null && !url.toString().equals(key))
       url = cleanURL(url);
   }
 
   /**
-   * Standardize URL by using the URL connection to get a redirected URL
+   * Standardize URL by putting it in canonical form (see {@link
+   * URLCanonicalizer URLCanonicalizer}).  Does not use the network;
+   * redirects are discovered when the page is actually downloaded.
    *
    * @param url The unnormalized URL
    * @return a cleaned, normalized URL 
    */
   public static URL cleanURL(URL url) {
-      if (!url.toString().startsWith("mailto:"))
-	  try {
-	      // System.out.println( "Cleaning URL: " + url);
-	      URLConnection con = url.openConnection();
-	      con.connect();
-	      InputStream is = con.getInputStream();
-	      URL redirectedURL = con.getURL();
-	      // System.out.println( "Cleaned URL: " + redirectedURL);
-	      is.close();    
-	      return removeRef(redirectedURL);
-	  } catch (IOException e) {
-	      return url;
-	  }
-      else return url;
+    return URLCanonicalizer.canonicalize(url);
   }
 
   /**
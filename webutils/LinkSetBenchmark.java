@@ -0,0 +1,74 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * Measures how fast a crawl's set of visited pages can be updated,
+ * comparing a <code>HashSet</code> of <code>java.net.URL</code>
+ * objects (the way <code>Link</code> identity used to work, where
+ * hashing and comparing a URL may resolve its host name) with a
+ * <code>HashSet</code> of <code>Link</code> objects (identity by
+ * canonical string and fingerprint).  Each set has every URL added
+ * once and then looked up once, as a spider does when it checks and
+ * marks pages as visited.
+ * <p>
+ * Usage: LinkSetBenchmark [&lt;numURLs&gt; [&lt;numHosts&gt;]]
+ * (defaults 1000000 and 1000).  Host names end in ".invalid" so name
+ * lookups fail instead of reaching real servers; how long they take
+ * to fail depends on the local resolver.
+ *
+ * @author Garrett Kelley
+ */
+public class LinkSetBenchmark {
+
+  public static void main(String[] args) throws MalformedURLException {
+    int numURLs = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int numHosts = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+    List<URL> urls = new ArrayList<URL>(numURLs);
+    List<Link> links = new ArrayList<Link>(numURLs);
+    for (int i = 0; i < numURLs; i++) {
+      URL url = new URL("http://host" + (i % numHosts) + ".example.invalid/dir" + (i % 97)
+          + "/page" + i + ".html");
+      urls.add(url);
+      links.add(new Link(url));
+    }
+    // Look up fresh copies, as a spider does with newly extracted links
+    List<URL> urlCopies = new ArrayList<URL>(numURLs);
+    List<Link> linkCopies = new ArrayList<Link>(numURLs);
+    for (int i = 0; i < numURLs; i++) {
+      urlCopies.add(new URL(urls.get(i).toString()));
+      linkCopies.add(new Link(urlCopies.get(i)));
+    }
+
+    System.out.println("URLs: " + numURLs + "  Hosts: " + numHosts);
+    report("HashSet<URL> (before)", timeSet(urls, urlCopies), numURLs);
+    report("HashSet<Link> (after)", timeSet(links, linkCopies), numURLs);
+  }
+
+  /**
+   * Adds every element to a new set and then looks up every copy,
+   * returning the elapsed nanoseconds.
+   */
+  static <T> long timeSet(List<T> elements, List<T> copies) {
+    long start = System.nanoTime();
+    Set<T> set = new HashSet<T>();
+    for (T element : elements)
+      set.add(element);
+    int found = 0;
+    for (T copy : copies)
+      if (set.contains(copy))
+        found++;
+    long elapsed = System.nanoTime() - start;
+    if (found != copies.size())
+      System.out.println("  Warning: only found " + found + " of " + copies.size());
+    return elapsed;
+  }
+
+  static void report(String name, long nanos, int numURLs) {
+    double seconds = nanos / 1e9;
+    System.out.println(name + ": " + Math.round(seconds * 1000) + " ms, "
+        + Math.round(2 * numURLs / seconds) + " operations/sec");
+  }
+}
@@ -0,0 +1,158 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * PageAnalyzer collects everything the spiders need from a page in a
+ * single scan with {@link HTMLLexer HTMLLexer}: the absolute
+ * out-links, the Robots META tag directives, the BASE href and the
+ * title.  Relative links are completed against the BASE href once it
+ * has been seen.
+ * <p>
+ * Use {@link HTMLPage#getAnalysis HTMLPage.getAnalysis} rather than
+ * constructing one directly, so that a page is parsed only once no
+ * matter how many parts of the crawl look at it.
+ *
+ * @author Garrett Kelley
+ */
+public class PageAnalyzer extends LinkExtractor {
+
+  /**
+   * The content of the last Robots META tag, lower case, or
+   * <code>null</code> if there is none
+   */
+  protected String robotRules = null;
+
+  /**
+   * The BASE href completed against the page URL, or
+   * <code>null</code> if there is none
+   */
+  protected URL baseURL = null;
+
+  /**
+   * The text of the title, or <code>null</code> if there is none
+   */
+  protected StringBuilder title = null;
+
+  /**
+   * True while inside the TITLE element
+   */
+  protected boolean inTitle = false;
+
+  /**
+   * Create an analyzer for the given page
+   */
+  public PageAnalyzer(HTMLPage page) {
+    super(page);
+    this.links = new ArrayList<Link>();
+  }
+
+  /**
+   * Parses the page and collects its links, robots directives, BASE
+   * href and title.
+   *
+   * @return <code>this</code>, for use with the accessors.
+   */
+  public PageAnalyzer analyze() {
+    parse();
+    this.links = Collections.unmodifiableList(this.links);
+    return this;
+  }
+
+  public void handleText(char[] text, int start, int length, int position) {
+    if (inTitle)
+      title.append(HTMLLexer.decode(text, start, length));
+  }
+
+  public void handleStartTag(String tag, HTMLLexer.Attributes attributes, int position) {
+    if (tag.equals("title")) {
+      inTitle = true;
+      if (title == null)
+        title = new StringBuilder();
+    }
+    else
+      super.handleStartTag(tag, attributes, position);
+  }
+
+  public void handleEndTag(String tag, int position) {
+    if (tag.equals("title"))
+      inTitle = false;
+  }
+
+  /**
+   * Handles FRAME (through <code>LinkExtractor</code>), META and BASE
+   * tags.  Only the last Robots META tag is considered.
+   */
+  public void handleSimpleTag(String tag, HTMLLexer.Attributes attributes, int position) {
+    if (tag.equals("meta")) {
+      String name = attributes.getAttribute("name");
+      String content = attributes.getAttribute("content");
+      if (name != null && name.equalsIgnoreCase("robots") && content != null)
+        robotRules = content.toLowerCase();
+    }
+    else if (tag.equals("base")) {
+      String href = attributes.getAttribute("href");
+      if (href != null && baseURL == null) {
+        try {
+          baseURL = new URL(page.getLink().getURL(), href);
+          this.url = HTMLPage.addEndSlash(baseURL);
+        }
+        catch (MalformedURLException e) {
+          System.err.println("PageAnalyzer: " + e);
+        }
+      }
+    }
+    else
+      super.handleSimpleTag(tag, attributes, position);
+  }
+
+  /**
+   * Returns the absolute links on the page.  The list may not be
+   * changed; use {@link HTMLPage#extractLinks HTMLPage.extractLinks}
+   * for a copy that may.
+   */
+  public List<Link> getLinks() {
+    return links;
+  }
+
+  /**
+   * Returns the content of the Robots META tag in lower case, or
+   * <code>null</code> if the page has none.
+   */
+  public String getRobotRules() {
+    return robotRules;
+  }
+
+  /**
+   * Returns true if the Robots META tag says NOINDEX (or NONE).
+   */
+  public boolean noIndex() {
+    return robotRules != null
+        && (robotRules.indexOf("noindex") != -1 || robotRules.indexOf("none") != -1);
+  }
+
+  /**
+   * Returns true if the Robots META tag says NOFOLLOW (or NONE).
+   */
+  public boolean noFollow() {
+    return robotRules != null
+        && (robotRules.indexOf("nofollow") != -1 || robotRules.indexOf("none") != -1);
+  }
+
+  /**
+   * Returns the BASE href completed against the page URL, or
+   * <code>null</code> if the page has none.
+   */
+  public URL getBaseURL() {
+    return baseURL;
+  }
+
+  /**
+   * Returns the title of the page with white space collapsed, or
+   * <code>null</code> if it has none.
+   */
+  public String getTitle() {
+    return (title == null) ? null : title.toString().trim().replaceAll("\\s+", " ");
+  }
+}
@@ -52,23 +52,60 @@ public class PageRankSpider extends Spider {
 
     protected void indexPage(HTMLPage page) {
         // Define the page number of this document
-        String pageNumber = "P"
-                + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1);
+        String pageNumber = pageNumber(count);
 
+        List<String> links = new ArrayList<String>();
+        for (Link link : page.getAnalysis().getLinks()) {
+            links.add(link.getURL().toString());
+        }
+        addPageToGraph(page.link.getURL().toString(), pageNumber, links);
+
+        writePage(page, pageNumber);
+    }
+
+    /**
+     * Returns the name of the file for the page indexed with the given count, without the
+     * ".html" extension.
+     */
+    protected String pageNumber(int pageCount) {
+        return "P" + MoreString.padWithZeros(pageCount,
+                (int) Math.floor(MoreMath.log(maxCount, 10)) + 1);
+    }
+
+    /**
+     * Adds an indexed page and its out-links to the crawl graph.
+     *
+     * @param name       The URL of the page.
+     * @param pageNumber The name of the file the page is stored in, without the extension.
+     * @param links      The URLs the page links to.
+     */
+    protected void addPageToGraph(String name, String pageNumber, List<String> links) {
         // Get the Node associated with the current page
-        PageRankNode node = crawlGraph.getNode(page.link.getURL().toString());
+        PageRankNode node = crawlGraph.getNode(name);
         node.pageNumber = pageNumber + ".html";
         node.isIndexed = true;
 
-        for (Link link : new LinkExtractor(page).extractLinks()) {
+        for (String linkName : links) {
             // Add edge if page does not link to istelf
-            String linkName = link.getURL().toString();
             if (!linkName.equals(node.name)) {
                 node.addEdge(crawlGraph.getNode(linkName));
             }
         }
+    }
 
-        page.write(saveDir, pageNumber);
+    /**
+     * Keeps the links of each indexed page in the checkpoint so the crawl graph can be rebuilt
+     * when resuming.
+     */
+    protected List<Link> checkpointLinks(HTMLPage page) {
+        return page.getAnalysis().getLinks();
+    }
+
+    /**
+     * Adds a page indexed before the checkpoint back to the crawl graph.
+     */
+    protected void restoreIndexedPage(int pageCount, String url, List<String> links) {
+        addPageToGraph(url, pageNumber(pageCount), links);
     }
 
     /**
@@ -243,14 +280,9 @@ public class PageRankSpider extends Spider {
     }
 
     /**
-     * Spider the web according to the following command options:
-     * <ul>
-     * <li>-safe : Check for and obey robots.txt and robots META tag directives.</li>
-     * <li>-d &lt;directory&gt; : Store indexed files in &lt;directory&gt;.</li>
-     * <li>-c &lt;maxCount&gt; : Store at most &lt;maxCount&gt; files (default is 10,000).</li>
-     * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
-     * <li>-slow : Pause briefly before getting a page. This can be useful when debugging.
-     * </ul>
+     * Spider the web according to the command options described in
+     * {@link Spider#processArgs Spider.processArgs}, then compute the PageRank of the pages
+     * indexed.
      */
     public static void main(String args[]) {
         new PageRankSpider().go(args);
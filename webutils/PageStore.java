@@ -0,0 +1,472 @@
+package ir.webutils;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.*;
+
+import ir.utilities.*;
+
+/**
+ * PageStore keeps crawled pages in a few large append-only segment
+ * files instead of one <code>P&lt;count&gt;.html</code> file per page,
+ * so a crawl of millions of pages does not spend its time creating
+ * files and filling a directory.  Each page is a record holding its
+ * name (the file name it would otherwise have, without ".html"), its
+ * URL, the time it was fetched, the response headers and the text.
+ * Records may be compressed one by one with a <code>Deflater</code>.
+ * <p>
+ * The store is a directory of segments, each a data file
+ * (<code>segment-NNNNN.data</code>) and an index file
+ * (<code>segment-NNNNN.index</code>) giving the name, offset and
+ * length of each record in the data file.  A segment is closed once it
+ * reaches <code>maxSegmentSize</code> bytes.  Every record is handed to
+ * the operating system as it is added, like the file of a page would
+ * be, but it is not forced to disk until its segment is closed or
+ * {@link #sync sync} is called.  Records are only ever appended:
+ * opening an existing store starts a new segment, and a record with
+ * the name of an earlier one replaces it, just as rewriting a page
+ * file would.  A record cut short by a crash is ignored when the store
+ * is read.
+ * <p>
+ * Stores are read with {@link PageStoreReader PageStoreReader}, which
+ * is also what lets {@link ir.vsr.DocumentIterator DocumentIterator}
+ * index them.  <code>main</code> exports a store to
+ * <code>P&lt;count&gt;.html</code> files as written by {@link
+ * HTMLPage#write HTMLPage.write}, for tools that need them.
+ *
+ * @author Garrett Kelley
+ */
+public class PageStore {
+
+  /**
+   * The name of the directory a spider keeps its store in, within its
+   * save directory
+   */
+  public static final String DIRECTORY = "store";
+
+  /**
+   * Default size in bytes at which a segment is closed
+   */
+  public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * Record flag for a deflated body
+   */
+  static final byte DEFLATED = 1;
+
+  /**
+   * Bytes before the payload of each record: its length and flags
+   */
+  static final int RECORD_HEADER_SIZE = 5;
+
+  /**
+   * The directory of the store
+   */
+  protected final File dir;
+
+  /**
+   * Whether new records are deflated
+   */
+  protected final boolean compress;
+
+  /**
+   * The size at which a segment is closed
+   */
+  protected final long maxSegmentSize;
+
+  /**
+   * The number of the segment being written
+   */
+  protected int segment;
+
+  /**
+   * The data and index files of the segment being written, or
+   * <code>null</code> before the first record
+   */
+  protected FileChannel data = null, index = null;
+
+  /**
+   * Bytes written to the data file of the current segment
+   */
+  protected long segmentSize = 0;
+
+  /**
+   * The number of records added and the bytes they took before and
+   * after compression
+   */
+  protected long records = 0, rawBytes = 0, storedBytes = 0;
+
+  /**
+   * Compresses records, reused between them
+   */
+  protected final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * Opens a store for adding pages, creating its directory if needed,
+   * with the default segment size.
+   *
+   * @param dir      The directory of the store.
+   * @param compress Whether to deflate each record.
+   */
+  public PageStore(File dir, boolean compress) throws IOException {
+    this(dir, compress, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens a store for adding pages, creating its directory if needed.
+   *
+   * @param dir            The directory of the store.
+   * @param compress       Whether to deflate each record.
+   * @param maxSegmentSize The size in bytes at which a segment is
+   *                       closed and a new one started.
+   */
+  public PageStore(File dir, boolean compress, long maxSegmentSize) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Could not create page store directory " + dir);
+    this.dir = dir;
+    this.compress = compress;
+    this.maxSegmentSize = maxSegmentSize;
+    // Never append to a segment an earlier run may have left unfinished
+    List<Integer> numbers = segmentNumbers(dir);
+    segment = numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1) + 1;
+  }
+
+  /**
+   * Adds a downloaded page to the store.
+   *
+   * @param name The name of the page, e.g. "P001".
+   * @param page The page.
+   */
+  public void add(String name, HTMLPage page) throws IOException {
+    add(record(name, page));
+  }
+
+  /**
+   * Returns the record for a downloaded page.
+   *
+   * @param name The name of the page, e.g. "P001".
+   * @param page The page.
+   */
+  public static Record record(String name, HTMLPage page) {
+    WebResponse response = page.getResponse();
+    return new Record(name, page.getLink().getURL().toString(),
+        (response == null) ? System.currentTimeMillis() : response.getFetchTime(),
+        (response == null) ? null : response.getHeaders(), page.getText());
+  }
+
+  /**
+   * Adds a record to the store.
+   */
+  public void add(Record record) throws IOException {
+    addAll(Collections.singletonList(record));
+  }
+
+  /**
+   * Adds records to the store, in order.  The records going to each
+   * segment are written with one gathering write to its data file and
+   * one to its index file.
+   */
+  public synchronized void addAll(List<Record> batch) throws IOException {
+    List<ByteBuffer> recordBuffers = new ArrayList<ByteBuffer>(batch.size());
+    ByteArrayOutputStream entries = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(entries);
+    long offset = segmentSize;
+    for (Record record : batch) {
+      byte[] payload = record.toBytes();
+      byte flags = 0;
+      rawBytes += payload.length;
+      if (compress) {
+        payload = deflate(payload);
+        flags |= DEFLATED;
+      }
+      if (data == null || offset >= maxSegmentSize) {
+        writeSegment(recordBuffers, entries);
+        startSegment();
+        offset = 0;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+      buffer.putInt(payload.length).put(flags).put(payload).flip();
+      recordBuffers.add(buffer);
+      out.writeUTF(record.name);
+      out.writeLong(offset);
+      out.writeInt(buffer.remaining());
+      offset += buffer.remaining();
+      records++;
+      storedBytes += buffer.remaining();
+    }
+    writeSegment(recordBuffers, entries);
+  }
+
+  /**
+   * Writes records and their index entries to the current segment and
+   * clears them.  The index entries go after the data, so every entry
+   * points at a whole record.
+   */
+  protected void writeSegment(List<ByteBuffer> recordBuffers, ByteArrayOutputStream entries)
+      throws IOException {
+    if (recordBuffers.isEmpty())
+      return;
+    ByteBuffer[] buffers = recordBuffers.toArray(new ByteBuffer[recordBuffers.size()]);
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers)
+      remaining += buffer.remaining();
+    while (remaining > 0) {
+      long written = data.write(buffers);
+      segmentSize += written;
+      remaining -= written;
+    }
+    ByteBuffer entryBuffer = ByteBuffer.wrap(entries.toByteArray());
+    while (entryBuffer.hasRemaining())
+      index.write(entryBuffer);
+    recordBuffers.clear();
+    entries.reset();
+  }
+
+  /**
+   * Forces the records added so far to disk.
+   */
+  public synchronized void sync() throws IOException {
+    if (data != null)
+      data.force(true);
+    if (index != null)
+      index.force(true);
+  }
+
+  /**
+   * Closes the current segment and starts the next one.
+   */
+  protected void startSegment() throws IOException {
+    closeSegment();
+    data = FileChannel.open(dataFile(dir, segment).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    index = FileChannel.open(indexFile(dir, segment).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    segment++;
+    segmentSize = 0;
+  }
+
+  /**
+   * Forces the files of the current segment, if any, to disk and
+   * closes them, so that <code>sync</code> need only force the
+   * segment being written.
+   */
+  protected void closeSegment() throws IOException {
+    if (data == null)
+      return;
+    sync();
+    data.close();
+    index.close();
+    data = index = null;
+  }
+
+  /**
+   * Closes the store.  Records added so far stay readable.
+   */
+  public synchronized void close() throws IOException {
+    closeSegment();
+    deflater.end();
+  }
+
+  /**
+   * Compresses a record payload.
+   */
+  protected byte[] deflate(byte[] bytes) {
+    deflater.reset();
+    deflater.setInput(bytes);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished())
+      out.write(buffer, 0, deflater.deflate(buffer));
+    return out.toByteArray();
+  }
+
+  public synchronized String toString() {
+    return records + " pages in " + dir + (compress
+        ? ", " + rawBytes + " bytes deflated to " + storedBytes : "");
+  }
+
+  /**
+   * Returns the data file of a segment.
+   */
+  static File dataFile(File dir, int segment) {
+    return new File(dir, "segment-" + MoreString.padWithZeros(segment, 5) + ".data");
+  }
+
+  /**
+   * Returns the index file of a segment.
+   */
+  static File indexFile(File dir, int segment) {
+    return new File(dir, "segment-" + MoreString.padWithZeros(segment, 5) + ".index");
+  }
+
+  /**
+   * Returns the numbers of the segments in a store directory, in
+   * order.
+   */
+  static List<Integer> segmentNumbers(File dir) {
+    List<Integer> numbers = new ArrayList<Integer>();
+    String[] names = dir.list();
+    if (names == null)
+      return numbers;
+    for (String name : names) {
+      if (name.startsWith("segment-") && name.endsWith(".index")) {
+        try {
+          numbers.add(Integer.parseInt(name.substring(8, name.length() - 6)));
+        }
+        catch (NumberFormatException e) {
+        }
+      }
+    }
+    Collections.sort(numbers);
+    return numbers;
+  }
+
+  /**
+   * A page in the store
+   */
+  public static class Record {
+    /**
+     * The name of the page, e.g. "P001"
+     */
+    public final String name;
+    /**
+     * The URL of the page
+     */
+    public final String url;
+    /**
+     * When the page was fetched, in milliseconds since the epoch
+     */
+    public final long fetchTime;
+    /**
+     * The response headers, possibly empty
+     */
+    public final Map<String, List<String>> headers;
+    /**
+     * The text of the page
+     */
+    public final String text;
+
+    /**
+     * Creates a record.
+     *
+     * @param headers The response headers, or <code>null</code> for
+     *                none.  Headers with a <code>null</code> name
+     *                (the status line) are left out.
+     */
+    public Record(String name, String url, long fetchTime, Map<String, List<String>> headers,
+                  String text) {
+      this.name = name;
+      this.url = url;
+      this.fetchTime = fetchTime;
+      this.headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+      if (headers != null) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+          if (header.getKey() != null)
+            this.headers.put(header.getKey(), header.getValue());
+      }
+      this.text = text;
+    }
+
+    /**
+     * Returns the record as a page, with a link to its URL.
+     */
+    public HTMLPage toPage() throws MalformedURLException {
+      // The URL was cleaned when the page was crawled
+      return new HTMLPage(new Link(new URL(url)), text);
+    }
+
+    /**
+     * Encodes the record as the payload of a store record.
+     */
+    byte[] toBytes() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() + 256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      writeString(out, name);
+      writeString(out, url);
+      out.writeLong(fetchTime);
+      out.writeInt(headers.size());
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        writeString(out, header.getKey());
+        out.writeInt(header.getValue().size());
+        for (String value : header.getValue())
+          writeString(out, value);
+      }
+      writeString(out, text);
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record payload made by <code>toBytes</code>.
+     */
+    static Record fromBytes(byte[] bytes) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      String name = readString(in);
+      String url = readString(in);
+      long fetchTime = in.readLong();
+      int headerCount = in.readInt();
+      Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+      for (int i = 0; i < headerCount; i++) {
+        String key = readString(in);
+        int valueCount = in.readInt();
+        List<String> values = new ArrayList<String>(valueCount);
+        for (int j = 0; j < valueCount; j++)
+          values.add(readString(in));
+        headers.put(key, values);
+      }
+      return new Record(name, url, fetchTime, headers, readString(in));
+    }
+
+    public String toString() {
+      return name + " " + url;
+    }
+  }
+
+  /**
+   * Writes a string as its length and UTF-8 bytes.
+   */
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by <code>writeString</code>.
+   */
+  static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Exports the pages of a store to <code>P&lt;count&gt;.html</code>
+   * files, each with a BASE element giving its URL, exactly as a
+   * spider writes them without a store.  Command format: "PageStore
+   * [STORE] [DIR]" where STORE is the store directory and DIR is the
+   * directory to write the files to.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: java ir.webutils.PageStore <store directory> <output directory>");
+      System.exit(1);
+    }
+    File outDir = new File(args[1]);
+    if (!outDir.isDirectory() && !outDir.mkdirs())
+      throw new IOException("Could not create directory " + outDir);
+    PageStoreReader reader = new PageStoreReader(new File(args[0]));
+    int exported = 0;
+    for (Record record : reader) {
+      record.toPage().write(outDir, record.name);
+      exported++;
+    }
+    System.out.println("Exported " + exported + " pages to " + outDir);
+  }
+}
@@ -0,0 +1,230 @@
+package ir.webutils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * PageStoreReader reads the pages in a {@link PageStore PageStore}.
+ * The data files of all segments are memory-mapped, so records are
+ * read straight out of the page cache without copying through stream
+ * buffers, and the indexes are read into memory so any page can be
+ * found by name.  When several records have the same name the latest
+ * one is used, in the place of the first.  Index entries for records
+ * that did not make it to the data file whole (e.g. because of a crash)
+ * are ignored.
+ * <p>
+ * Iterating over the reader gives the pages in the order they were
+ * first added.  A reader sees the records that were in the store when
+ * it was created.  {@link #close close} lets go of the mapped segments
+ * and the index, so a reader that is done with should be closed rather
+ * than kept.
+ *
+ * @author Garrett Kelley
+ */
+public class PageStoreReader implements Iterable<PageStore.Record>, Closeable {
+
+  /**
+   * The directory of the store
+   */
+  protected final File dir;
+
+  /**
+   * The mapped data file of each segment
+   */
+  protected final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+  /**
+   * Where each page is, by name, in the order the pages were first
+   * added
+   */
+  protected final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+  /**
+   * Opens a store for reading.
+   *
+   * @param dir The directory of the store.
+   */
+  public PageStoreReader(File dir) throws IOException {
+    if (!isStore(dir))
+      throw new IOException("Not a page store: " + dir);
+    this.dir = dir;
+    for (int number : PageStore.segmentNumbers(dir)) {
+      File dataFile = PageStore.dataFile(dir, number);
+      if (!dataFile.exists())
+        continue;
+      FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+      try {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE)
+          throw new IOException("Page store segment too large to map: " + dataFile);
+        segments.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      }
+      finally {
+        // The mapping stays valid after the channel is closed
+        channel.close();
+      }
+      readIndex(PageStore.indexFile(dir, number), segments.size() - 1);
+    }
+  }
+
+  /**
+   * Returns true if a directory holds a page store.
+   */
+  public static boolean isStore(File dir) {
+    return dir.isDirectory() && !PageStore.segmentNumbers(dir).isEmpty();
+  }
+
+  /**
+   * Reads the index of a segment into <code>entries</code>.
+   */
+  protected void readIndex(File indexFile, int segment) throws IOException {
+    long dataSize = segments.get(segment).capacity();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+    try {
+      while (true) {
+        String name = in.readUTF();
+        long offset = in.readLong();
+        int length = in.readInt();
+        if (offset < 0 || length < PageStore.RECORD_HEADER_SIZE || offset + length > dataSize)
+          break;
+        entries.put(name, new Entry(segment, (int) offset, length));
+      }
+    }
+    catch (EOFException e) {
+      // The end of the index, possibly in the middle of an entry
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the number of pages in the store.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the names of the pages, in the order they were first added.
+   */
+  public List<String> names() {
+    return new ArrayList<String>(entries.keySet());
+  }
+
+  /**
+   * Returns true if the store has a page with the given name.
+   */
+  public boolean contains(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Returns the page with the given name, or <code>null</code> if
+   * there is none.
+   */
+  public PageStore.Record get(String name) throws IOException {
+    Entry entry = entries.get(name);
+    return (entry == null) ? null : read(entry);
+  }
+
+  /**
+   * Reads the record an index entry points to.
+   */
+  protected PageStore.Record read(Entry entry) throws IOException {
+    if (entry.segment >= segments.size())
+      throw new IOException("Page store reader closed: " + dir);
+    ByteBuffer buffer = segments.get(entry.segment).duplicate();
+    buffer.position(entry.offset);
+    int payloadLength = buffer.getInt();
+    byte flags = buffer.get();
+    if (payloadLength != entry.length - PageStore.RECORD_HEADER_SIZE)
+      throw new IOException("Corrupt page store record at " + entry.offset + " in " + dir);
+    byte[] payload = new byte[payloadLength];
+    buffer.get(payload);
+    if ((flags & PageStore.DEFLATED) != 0)
+      payload = inflate(payload);
+    return PageStore.Record.fromBytes(payload);
+  }
+
+  /**
+   * Decompresses a deflated record payload.
+   */
+  protected static byte[] inflate(byte[] bytes) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(3 * bytes.length);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(buffer);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new IOException("Truncated page store record");
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupt page store record: " + e.getMessage());
+    }
+    finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Returns an iterator over the pages, in the order they were first
+   * added.  A record that cannot be read is reported with an
+   * <code>UncheckedIOException</code>.
+   */
+  public Iterator<PageStore.Record> iterator() {
+    final Iterator<Entry> iterator = entries.values().iterator();
+    return new Iterator<PageStore.Record>() {
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      public PageStore.Record next() {
+        try {
+          return read(iterator.next());
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Closes the reader.  The segments are unmapped once nothing refers
+   * to their buffers any more.
+   */
+  public void close() {
+    segments.clear();
+    entries.clear();
+  }
+
+  public String toString() {
+    return entries.size() + " pages in " + segments.size() + " segments in " + dir;
+  }
+
+  /**
+   * Where a record is in the store
+   */
+  protected static class Entry {
+    final int segment;
+    final int offset;
+    final int length;
+
+    Entry(int segment, int offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+package ir.webutils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * PageWriter saves pages on a background thread so that crawl threads
+ * do not wait for the disk.  {@link #write write} only adds the page to
+ * a buffer and returns; it waits only while the buffer already holds
+ * <code>maxBufferedChars</code> characters of page text.  The writer
+ * thread takes everything in the buffer at once and saves it as a
+ * batch, either to a {@link PageStore PageStore} with one gathering
+ * write per segment, or as <code>&lt;name&gt;.html</code> files in a
+ * directory, each written with one gathering <code>FileChannel</code>
+ * write of its BASE element and text.  The files are exactly those
+ * {@link HTMLPage#write HTMLPage.write} makes.
+ * <p>
+ * Every <code>syncInterval</code> milliseconds the pages saved since
+ * the last time are forced to disk, so a crash of the machine loses at
+ * most that much; with an interval of -1 nothing is forced, as with
+ * <code>HTMLPage.write</code>.  {@link #flush flush} waits until every
+ * page given so far has been saved, and {@link #close close} saves the
+ * rest and stops the thread.  Errors are reported and counted, and the
+ * writer goes on with the next page.  A {@link Listener Listener} is
+ * told the number of each page once it has been saved, so that a
+ * record of the crawl such as a {@link CrawlCheckpoint
+ * CrawlCheckpoint} can count the page without waiting for it.
+ *
+ * @author Garrett Kelley
+ */
+public class PageWriter {
+
+  /**
+   * Default number of characters of page text that may wait to be
+   * saved
+   */
+  public static final long DEFAULT_MAX_BUFFERED_CHARS = 16 * 1024 * 1024;
+
+  /**
+   * The directory files are written to
+   */
+  protected final File dir;
+
+  /**
+   * The store pages are added to, or <code>null</code> to write files
+   */
+  protected final PageStore store;
+
+  /**
+   * Milliseconds between forcing saved pages to disk, or -1 never to
+   */
+  protected final long syncInterval;
+
+  /**
+   * The most characters of page text that may wait to be saved
+   */
+  protected final long maxBufferedChars;
+
+  /**
+   * Pages waiting to be saved
+   */
+  protected List<Pending> buffer = new ArrayList<Pending>();
+
+  /**
+   * Characters of text of the pages waiting or being saved
+   */
+  protected long bufferedChars = 0;
+
+  /**
+   * The number of pages given to <code>write</code> and not saved yet
+   */
+  protected int unsaved = 0;
+
+  /**
+   * Whether <code>close</code> has been called
+   */
+  protected boolean closed = false;
+
+  /**
+   * Files written since the last sync
+   */
+  protected List<Path> unsynced = new ArrayList<Path>();
+
+  /**
+   * Time in milliseconds of the last sync
+   */
+  protected long lastSync = System.currentTimeMillis();
+
+  /**
+   * Counts for the report
+   */
+  protected long pages = 0, batches = 0, syncs = 0, fullWaits = 0, errors = 0;
+
+  /**
+   * The character set files are written in, as by a
+   * <code>FileWriter</code>
+   */
+  protected final Charset charset = Charset.defaultCharset();
+
+  /**
+   * The thread saving pages
+   */
+  protected final Thread thread;
+
+  /**
+   * Told about each page saved, or <code>null</code>
+   */
+  protected volatile Listener listener = null;
+
+  /**
+   * Is told about the pages a <code>PageWriter</code> has saved
+   */
+  public interface Listener {
+    /**
+     * Called by the writer thread once the page given to
+     * <code>write</code> with this number has been saved, or could not
+     * be because of an error.
+     */
+    void pageSaved(int number);
+  }
+
+  /**
+   * Creates a writer and starts its thread.
+   *
+   * @param dir              The directory to write files to.
+   * @param store            The store to add pages to instead, or
+   *                         <code>null</code>.
+   * @param syncInterval     Milliseconds between forcing saved pages
+   *                         to disk, 0 to force every batch, or -1
+   *                         never to.
+   * @param maxBufferedChars The most characters of page text that may
+   *                         wait to be saved.
+   */
+  public PageWriter(File dir, PageStore store, long syncInterval, long maxBufferedChars) {
+    this.dir = dir;
+    this.store = store;
+    this.syncInterval = syncInterval;
+    this.maxBufferedChars = maxBufferedChars;
+    thread = new Thread("PageWriter") {
+      public void run() {
+        writeLoop();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Sets the listener told about each page saved.
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Adds a page to be saved under the given name, waiting only while
+   * the buffer is full.
+   *
+   * @param page The page.
+   * @param name The name of the page, without the ".html" extension.
+   */
+  public void write(HTMLPage page, String name) {
+    write(page, name, 0);
+  }
+
+  /**
+   * Adds a page to be saved under the given name, waiting only while
+   * the buffer is full.
+   *
+   * @param page   The page.
+   * @param name   The name of the page, without the ".html" extension.
+   * @param number The number to give the listener once the page is
+   *               saved.
+   */
+  public synchronized void write(HTMLPage page, String name, int number) {
+    if (closed)
+      throw new IllegalStateException("PageWriter is closed");
+    if (bufferedChars >= maxBufferedChars) {
+      fullWaits++;
+      try {
+        while (bufferedChars >= maxBufferedChars)
+          wait();
+      }
+      catch (InterruptedException e) {
+        // Go over the limit rather than lose the page
+        Thread.currentThread().interrupt();
+      }
+    }
+    buffer.add(new Pending(page, name, number));
+    bufferedChars += page.getText().length();
+    unsaved++;
+    notifyAll();
+  }
+
+  /**
+   * Waits until every page given to <code>write</code> so far has been
+   * saved.
+   */
+  public synchronized void flush() {
+    try {
+      while (unsaved > 0)
+        wait();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Saves the remaining pages, forces them to disk unless
+   * <code>syncInterval</code> is -1, and stops the writer thread.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      thread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop run by the writer thread: takes the whole buffer, saves
+   * it, and syncs when it is time to.
+   */
+  protected void writeLoop() {
+    while (true) {
+      List<Pending> batch;
+      synchronized (this) {
+        try {
+          while (buffer.isEmpty() && !closed) {
+            long wait = 0;
+            if (syncInterval > 0 && (!unsynced.isEmpty() || store != null))
+              wait = Math.max(1, lastSync + syncInterval - System.currentTimeMillis());
+            wait(wait);
+            if (buffer.isEmpty() && syncDue())
+              break;
+          }
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        if (buffer.isEmpty() && closed)
+          break;
+        batch = buffer;
+        buffer = new ArrayList<Pending>();
+      }
+      if (!batch.isEmpty())
+        save(batch);
+      if (syncDue())
+        sync();
+      long chars = 0;
+      Listener listener = this.listener;
+      for (Pending pending : batch) {
+        chars += pending.page.getText().length();
+        if (listener != null)
+          listener.pageSaved(pending.number);
+      }
+      synchronized (this) {
+        bufferedChars -= chars;
+        unsaved -= batch.size();
+        notifyAll();
+      }
+    }
+    if (syncInterval >= 0)
+      sync();
+  }
+
+  /**
+   * Returns true if saved pages should be forced to disk now.
+   */
+  protected boolean syncDue() {
+    return syncInterval >= 0 && System.currentTimeMillis() - lastSync >= syncInterval;
+  }
+
+  /**
+   * Saves a batch of pages.
+   */
+  protected void save(List<Pending> batch) {
+    batches++;
+    if (store != null) {
+      List<PageStore.Record> records = new ArrayList<PageStore.Record>(batch.size());
+      for (Pending pending : batch)
+        records.add(PageStore.record(pending.name, pending.page));
+      try {
+        store.addAll(records);
+        pages += batch.size();
+      }
+      catch (IOException e) {
+        errors++;
+        System.err.println("PageWriter.save(): " + e);
+      }
+      return;
+    }
+    for (Pending pending : batch) {
+      Path path = new File(dir, pending.name + ".html").toPath();
+      ByteBuffer[] buffers = {
+          charset.encode(pending.page.baseElement() + System.lineSeparator()),
+          charset.encode(pending.page.getText())};
+      try {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+          while (buffers[0].hasRemaining() || buffers[1].hasRemaining())
+            channel.write(buffers);
+        }
+        finally {
+          channel.close();
+        }
+        pages++;
+        if (syncInterval >= 0)
+          unsynced.add(path);
+      }
+      catch (IOException e) {
+        errors++;
+        System.err.println("PageWriter.save(): " + e);
+      }
+    }
+  }
+
+  /**
+   * Forces the pages saved since the last sync to disk.
+   */
+  protected void sync() {
+    try {
+      if (store != null)
+        store.sync();
+      for (Path path : unsynced) {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        try {
+          channel.force(true);
+        }
+        finally {
+          channel.close();
+        }
+      }
+    }
+    catch (IOException e) {
+      errors++;
+      System.err.println("PageWriter.sync(): " + e);
+    }
+    unsynced.clear();
+    lastSync = System.currentTimeMillis();
+    syncs++;
+  }
+
+  public synchronized String toString() {
+    return pages + " pages saved in " + batches + " batches, " + syncs + " syncs, "
+        + fullWaits + " waits for a full buffer" + (errors > 0 ? ", " + errors + " errors" : "");
+  }
+
+  /**
+   * A page waiting to be saved
+   */
+  protected static class Pending {
+    final HTMLPage page;
+    final String name;
+    final int number;
+
+    Pending(HTMLPage page, String name, int number) {
+      this.page = page;
+      this.name = name;
+      this.number = number;
+    }
+  }
+}
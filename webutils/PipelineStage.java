@@ -0,0 +1,268 @@
+package ir.webutils;
+
+import java.util.concurrent.*;
+
+/**
+ * PipelineStage is one stage of a crawl pipeline: a pool of worker
+ * threads that each repeatedly take an item and pass it to a {@link
+ * Handler Handler}.  Items come either from a bounded queue that the
+ * previous stage {@link #put put}s them on, or, for the first stage,
+ * from a {@link Source Source} the workers pull from.  A full queue
+ * blocks <code>put</code>, so a slow stage holds back the stages
+ * before it instead of letting work pile up in memory.
+ * <p>
+ * Each stage keeps the measurements needed to find the bottleneck of
+ * the pipeline: how busy its workers were, how deep its queue got, and
+ * how long earlier stages waited to put items on it.  A stage whose
+ * workers are always busy and whose queue is always full is the one to
+ * give more threads; <code>toString</code> reports them.
+ *
+ * @author Garrett Kelley
+ */
+public class PipelineStage<T> {
+
+  /**
+   * Handles the items of a stage
+   */
+  public interface Handler<T> {
+    /**
+     * Handles an item.  Runs on the workers of the stage, several at a
+     * time if the stage has more than one.
+     */
+    void handle(T item) throws InterruptedException;
+  }
+
+  /**
+   * Supplies the items of a first stage
+   */
+  public interface Source<T> {
+    /**
+     * Returns the next item, waiting if necessary, or
+     * <code>null</code> when there are no more.
+     */
+    T next();
+  }
+
+  /**
+   * The name of the stage, for reports
+   */
+  protected final String name;
+
+  /**
+   * The number of worker threads
+   */
+  protected final int workers;
+
+  /**
+   * The items waiting to be handled, or <code>null</code> for a stage
+   * with a source
+   */
+  protected final BlockingQueue<Object> queue;
+
+  /**
+   * Where a first stage takes its items from, or <code>null</code>
+   */
+  protected final Source<T> source;
+
+  /**
+   * What is done with each item
+   */
+  protected final Handler<T> handler;
+
+  /**
+   * The worker threads, once started
+   */
+  protected ExecutorService pool = null;
+
+  /**
+   * Put on the queue after the last item, once for each worker
+   */
+  protected static final Object END = new Object();
+
+  /**
+   * Time the stage was started and stopped, in milliseconds
+   */
+  protected long startTime = 0, stopTime = 0;
+
+  /**
+   * Measurements: items handled, nanoseconds spent handling them,
+   * nanoseconds producers spent waiting for room on the queue, the
+   * total and number of queue depth samples, and the greatest depth
+   */
+  protected long items = 0, busyNanos = 0, blockedNanos = 0, depthTotal = 0, depthSamples = 0,
+      maxDepth = 0;
+
+  /**
+   * Creates a stage whose items are put on a bounded queue.
+   *
+   * @param name     The name of the stage.
+   * @param workers  The number of worker threads.
+   * @param capacity The most items that may wait on the queue.
+   * @param handler  What is done with each item.
+   */
+  public PipelineStage(String name, int workers, int capacity, Handler<T> handler) {
+    this(name, workers, new ArrayBlockingQueue<Object>(capacity), null, handler);
+  }
+
+  /**
+   * Creates a first stage whose workers take items from a source.
+   *
+   * @param name    The name of the stage.
+   * @param workers The number of worker threads.
+   * @param source  Where items are taken from.
+   * @param handler What is done with each item.
+   */
+  public PipelineStage(String name, int workers, Source<T> source, Handler<T> handler) {
+    this(name, workers, null, source, handler);
+  }
+
+  private PipelineStage(String name, int workers, BlockingQueue<Object> queue, Source<T> source,
+                        Handler<T> handler) {
+    if (workers < 1)
+      throw new IllegalArgumentException(name + " stage needs at least 1 worker: " + workers);
+    this.name = name;
+    this.workers = workers;
+    this.queue = queue;
+    this.source = source;
+    this.handler = handler;
+  }
+
+  /**
+   * Starts the workers.
+   */
+  public void start() {
+    startTime = System.currentTimeMillis();
+    pool = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; i++) {
+      pool.execute(new Runnable() {
+        public void run() {
+          work();
+        }
+      });
+    }
+    pool.shutdown();
+  }
+
+  /**
+   * The loop run by each worker.
+   */
+  @SuppressWarnings("unchecked")
+  protected void work() {
+    try {
+      while (true) {
+        T item;
+        if (source != null) {
+          item = source.next();
+          if (item == null)
+            return;
+        }
+        else {
+          Object next = queue.take();
+          if (next == END)
+            return;
+          item = (T) next;
+        }
+        long start = System.nanoTime();
+        try {
+          handler.handle(item);
+        }
+        catch (RuntimeException e) {
+          System.err.println("PipelineStage " + name + ": Error handling " + item + ": " + e);
+        }
+        finally {
+          record(System.nanoTime() - start);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      // Stopped
+    }
+  }
+
+  /**
+   * Adds an item to the queue of the stage, waiting while it is full.
+   */
+  public void put(T item) throws InterruptedException {
+    sampleDepth();
+    if (!queue.offer(item)) {
+      long start = System.nanoTime();
+      queue.put(item);
+      synchronized (this) {
+        blockedNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * Waits until the workers have finished.  A stage with a queue is
+   * told first that no more items will be put on it, and finishes the
+   * ones already there; a first stage finishes when its source runs
+   * out.
+   */
+  public void finish() throws InterruptedException {
+    if (queue != null) {
+      for (int i = 0; i < workers; i++)
+        queue.put(END);
+    }
+    while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+    }
+    stopTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Stops the workers without finishing queued items.
+   */
+  public void stop() {
+    if (pool != null)
+      pool.shutdownNow();
+    stopTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Records that an item took the given time to handle.
+   */
+  protected synchronized void record(long nanos) {
+    items++;
+    busyNanos += nanos;
+  }
+
+  /**
+   * Records the current depth of the queue.
+   */
+  protected synchronized void sampleDepth() {
+    int depth = queue.size();
+    depthTotal += depth;
+    depthSamples++;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+
+  /**
+   * Returns the name of the stage.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the fraction of the time the workers of the stage were
+   * busy between its start and its end (or now, if it is running).
+   */
+  public synchronized double getUtilization() {
+    long elapsed = ((stopTime > 0) ? stopTime : System.currentTimeMillis()) - startTime;
+    return (elapsed <= 0) ? 0 : busyNanos / (1e6 * elapsed * workers);
+  }
+
+  public synchronized String toString() {
+    StringBuilder report = new StringBuilder();
+    report.append(name).append(": ").append(workers).append(workers == 1 ? " thread, " : " threads, ")
+        .append(items).append(" items, ").append(Math.round(100 * getUtilization())).append("% busy");
+    if (queue != null) {
+      report.append(", queue depth ")
+          .append(depthSamples == 0 ? "0" : String.format("%.1f", (double) depthTotal / depthSamples))
+          .append(" average, ").append(maxDepth).append(" most of ")
+          .append(queue.size() + queue.remainingCapacity())
+          .append(", producers waited ").append(blockedNanos / 1000000).append(" ms");
+    }
+    return report.toString();
+  }
+}
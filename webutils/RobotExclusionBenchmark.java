@@ -0,0 +1,149 @@
+package ir.webutils;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Measures how fast a <code>RobotExclusionSet</code> built from a
+ * large robots.txt file answers whether paths are disallowed.  The
+ * compiled trie is compared with a linear scan of the rules, first
+ * for plain prefix rules (what <code>contains</code> used to do with
+ * <code>startsWith</code>), then for a file that also has Allow rules
+ * and <code>*</code>/<code>$</code> wildcards, where the scan tries
+ * each rule as a regular expression.  The answers of the trie are
+ * checked against the scan.
+ * <p>
+ * Usage: RobotExclusionBenchmark [&lt;numRules&gt; [&lt;numPaths&gt;]]
+ * (defaults 5000 and 50000).
+ *
+ * @author Garrett Kelley
+ */
+public class RobotExclusionBenchmark {
+
+  public static void main(String[] args) {
+    int numRules = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+    int numPaths = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+    Random random = new Random(42);
+
+    List<String> paths = new ArrayList<String>(numPaths);
+    for (int i = 0; i < numPaths; i++)
+      paths.add(randomPath(random) + (random.nextInt(4) == 0 ? "?id=" + random.nextInt(100) : ""));
+
+    System.out.println("Rules: " + numRules + "  Paths: " + numPaths);
+    for (int wildcards = 0; wildcards < 2; wildcards++) {
+      StringBuilder robots = new StringBuilder("User-agent: *\n");
+      List<String[]> rules = new ArrayList<String[]>(numRules);
+      for (int i = 0; i < numRules; i++) {
+        String field = (wildcards == 1 && random.nextInt(5) == 0) ? "Allow" : "Disallow";
+        String pattern = randomPath(random);
+        // Cut after the first directory at the earliest, so no rule blocks everything
+        int minLength = pattern.indexOf('/', 1) + 1;
+        pattern = pattern.substring(0, minLength + random.nextInt(pattern.length() - minLength + 1));
+        if (wildcards == 1 && random.nextInt(10) == 0)
+          pattern = pattern.substring(0, minLength) + "*.html$";
+        else if (wildcards == 1 && random.nextInt(10) == 0)
+          pattern = "/*?id=" + random.nextInt(100);
+        robots.append(field).append(": ").append(pattern).append('\n');
+        rules.add(new String[]{field, pattern});
+      }
+      System.out.println(wildcards == 0 ? "Disallow prefixes:" : "Allow, Disallow, * and $:");
+
+      long start = System.nanoTime();
+      RobotExclusionSet set = new RobotExclusionSet();
+      set.parseRobotsFileString(robots.toString());
+      System.out.println("  Compile: " + Math.round((System.nanoTime() - start) / 1e6) + " ms");
+
+      boolean[] expected = new boolean[numPaths];
+      start = System.nanoTime();
+      if (wildcards == 0)
+        scanPrefixes(rules, paths, expected);
+      else
+        scanPatterns(rules, paths, expected);
+      report("Linear scan (before)", System.nanoTime() - start, numPaths);
+
+      boolean[] actual = new boolean[numPaths];
+      start = System.nanoTime();
+      for (int i = 0; i < numPaths; i++)
+        actual[i] = set.contains(paths.get(i));
+      report("Trie (after)", System.nanoTime() - start, numPaths);
+
+      int disallowed = 0, mismatches = 0;
+      for (int i = 0; i < numPaths; i++) {
+        if (actual[i])
+          disallowed++;
+        if (actual[i] != expected[i])
+          mismatches++;
+      }
+      System.out.println("  Disallowed: " + disallowed + "  Mismatches: " + mismatches);
+    }
+  }
+
+  /**
+   * Returns a random path a few directories deep.
+   */
+  static String randomPath(Random random) {
+    StringBuilder path = new StringBuilder();
+    int depth = 1 + random.nextInt(4);
+    for (int d = 0; d < depth; d++)
+      path.append("/d").append(random.nextInt(d == 0 ? 2000 : 50));
+    return path.append("/page").append(random.nextInt(100)).append(".html").toString();
+  }
+
+  /**
+   * Checks each path against every Disallow prefix in turn.
+   */
+  static void scanPrefixes(List<String[]> rules, List<String> paths, boolean[] results) {
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      for (String[] rule : rules) {
+        if (path.startsWith(rule[1])) {
+          results[i] = true;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks each path against every rule as a regular expression,
+   * keeping the longest match.
+   */
+  static void scanPatterns(List<String[]> rules, List<String> paths, boolean[] results) {
+    List<Pattern> patterns = new ArrayList<Pattern>(rules.size());
+    for (String[] rule : rules) {
+      String pattern = rule[1];
+      boolean end = pattern.endsWith("$");
+      if (end)
+        pattern = pattern.substring(0, pattern.length() - 1);
+      StringBuilder regex = new StringBuilder();
+      for (String part : pattern.split("\\*", -1)) {
+        if (regex.length() > 0)
+          regex.append(".*");
+        regex.append(Pattern.quote(part));
+      }
+      patterns.add(Pattern.compile(regex + (end ? "$" : "")));
+    }
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      int bestLength = -1;
+      boolean bestAllow = false;
+      for (int r = 0; r < rules.size(); r++) {
+        String[] rule = rules.get(r);
+        int length = rule[1].length() - (rule[1].endsWith("$") ? 1 : 0);
+        boolean allow = rule[0].equals("Allow");
+        if ((length > bestLength || (length == bestLength && allow))
+            && patterns.get(r).matcher(path).lookingAt()) {
+          bestLength = length;
+          bestAllow = allow;
+        }
+      }
+      results[i] = bestLength >= 0 && !bestAllow;
+    }
+  }
+
+  static void report(String name, long nanos, int numPaths) {
+    double seconds = nanos / 1e9;
+    System.out.println("  " + name + ": " + Math.round(seconds * 1000) + " ms, "
+        + Math.round(numPaths / seconds) + " paths/sec");
+  }
+}
@@ -3,7 +3,6 @@ package ir.webutils;
 import ir.utilities.*;
 
 import java.util.*;
-import java.util.regex.*;
 import java.io.*;
 
 /**
@@ -13,20 +12,54 @@ import java.io.*;
  * been disallowed by the robots.txt file.  This class can also be
  * used to exclude files linked to on a page that specifies NOFOLLOW
  * in its Robots META tag.
+ * <p>
+ * The elements of the set are Disallow patterns.  Allow patterns may
+ * be added as well, and patterns may use the <code>*</code> (any
+ * characters) and <code>$</code> (end of path) wildcards.  When
+ * several patterns match a path the longest one decides, and an Allow
+ * wins a tie.  Patterns are compiled into a character trie, so
+ * checking a path takes time proportional to its length rather than
+ * to the number of rules.
  *
  * @author Ted Wild & Ray Mooney
  */
 
 public class RobotExclusionSet extends AbstractSet<String> {
 
-  private LinkedList<String> set;
+  /**
+   * The Disallow patterns, in the order added
+   */
+  private List<String> set;
+
+  /**
+   * The Allow patterns, in the order added
+   */
+  private List<String> allowed;
+
+  /**
+   * The root of the trie of all patterns
+   */
+  private Node root;
+
+  /**
+   * Whether any pattern contains <code>*</code>
+   */
+  private boolean wildcards = false;
+
+  /**
+   * The Crawl-delay given in the robots.txt file in milliseconds, or
+   * -1 if none was given
+   */
+  private long crawlDelay = -1;
 
   /**
    * Constructs an empty set.
    */
   public RobotExclusionSet() {
     super();
-    set = new LinkedList<String>();
+    set = new ArrayList<String>();
+    allowed = new ArrayList<String>();
+    root = new Node();
   }
 
   /**
@@ -39,8 +72,7 @@ public class RobotExclusionSet extends AbstractSet<String> {
    * @param site The name of the site
    */
   public RobotExclusionSet(String site) {
-    super();
-    set = new LinkedList<String>();
+    this();
     String robotText = WebPage.getWebPage("http://" + site + "/robots.txt");
     if (robotText != null)
       this.parseRobotsFileString(robotText);
@@ -50,82 +82,296 @@ public class RobotExclusionSet extends AbstractSet<String> {
     return set.size();
   }
 
+  /**
+   * Adds a Disallow pattern.
+   *
+   * @return <code>false</code> if the pattern was already in the set.
+   */
   public boolean add(String o) {
-    if (set.contains(o))
+    if (!addPattern(o, Node.DISALLOW))
       return false;
-
     set.add(o);
     return true;
   }
 
+  /**
+   * Adds an Allow pattern, which overrides any shorter Disallow
+   * pattern that matches the same path.
+   *
+   * @return <code>false</code> if the pattern was already added.
+   */
+  public boolean addAllow(String pattern) {
+    if (!addPattern(pattern, Node.ALLOW))
+      return false;
+    allowed.add(pattern);
+    return true;
+  }
+
+  /**
+   * Returns the Allow patterns.
+   */
+  public List<String> getAllowed() {
+    return Collections.unmodifiableList(allowed);
+  }
+
   public Iterator<String> iterator() {
-    return set.iterator();
+    return Collections.unmodifiableList(set).iterator();
+  }
+
+  /**
+   * Returns the delay between requests asked for by a
+   * "Crawl-delay" line in the robots.txt file.
+   *
+   * @return The delay in milliseconds, or -1 if none was given.
+   */
+  public long getCrawlDelay() {
+    return crawlDelay;
   }
 
   /**
    * Checks to see if a path is prohibited by this set.  A path is
-   * prohibited if it starts with an entry in this set.
+   * prohibited if the longest pattern that matches it is a Disallow
+   * pattern.  A pattern without wildcards matches every path that
+   * starts with it.
    *
-   * @param path <code>String</code> object representing the path.
-   * @return <code>true</code> iff. <code>o</code> is a
-   *         <code>String</code> object, <code>o</code> is not
-   *         <code>null</code>, and for each element e in this set
-   *         <code>!o.startsWith(e)</code>.
+   * @param path <code>String</code> object representing the path,
+   *             optionally followed by the query.
+   * @return <code>true</code> iff. access to the path is disallowed.
    */
   public boolean contains(String path) {
     if (path.equals(""))
       path = "/";
+    if (!wildcards)
+      return matchPlain(path);
+
+    // Simulate the trie as a nondeterministic automaton: a node
+    // reached through '*' stays active while it consumes characters
+    List<Node> active = new ArrayList<Node>();
+    List<Node> next = new ArrayList<Node>();
+    addWithStars(active, root);
+    int bestLength = -1;
+    boolean bestAllow = false;
+    for (int i = 0; i <= path.length(); i++) {
+      for (Node node : active) {
+        int rule = (i == path.length()) ? node.prefixRule | node.endRule : node.prefixRule;
+        if (rule != 0 && (node.depth > bestLength
+            || (node.depth == bestLength && (rule & Node.ALLOW) != 0))) {
+          bestLength = node.depth;
+          bestAllow = (rule & Node.ALLOW) != 0;
+        }
+      }
+      if (i == path.length())
+        break;
+      char c = path.charAt(i);
+      next.clear();
+      for (Node node : active) {
+        if (node.star)
+          addWithStars(next, node);
+        Node child = node.child(c);
+        if (child != null)
+          addWithStars(next, child);
+      }
+      if (next.isEmpty())
+        break;
+      List<Node> swap = active;
+      active = next;
+      next = swap;
+    }
+    return bestLength >= 0 && !bestAllow;
+  }
 
-    Iterator<String> i = set.iterator();
-    boolean disallowed = false;
+  /**
+   * Matches a path when no pattern has a <code>*</code>, by following
+   * the single path through the trie.
+   */
+  private boolean matchPlain(String path) {
+    Node node = root;
+    int rule = 0;
+    for (int i = 0; ; i++) {
+      // Deeper matches override shallower ones; Allow wins a tie
+      int here = node.prefixRule;
+      if (i == path.length())
+        here |= node.endRule;
+      if (here != 0)
+        rule = here;
+      if (i == path.length())
+        break;
+      node = node.child(path.charAt(i));
+      if (node == null)
+        break;
+    }
+    return rule == Node.DISALLOW;
+  }
 
-    while (!disallowed && i.hasNext()) {
-      String disallowedPath = i.next();
-      if (path.startsWith(disallowedPath))
-        disallowed = true;
+  /**
+   * Adds a node, and the '*' nodes reachable from it without
+   * consuming a character, to a list of active nodes.
+   */
+  private static void addWithStars(List<Node> nodes, Node node) {
+    while (node != null) {
+      // Lists are short, so a linear check for duplicates is cheap
+      for (Node other : nodes)
+        if (other == node)
+          return;
+      nodes.add(node);
+      node = node.starChild;
     }
+  }
 
-    return disallowed;
+  /**
+   * Compiles a pattern into the trie.
+   *
+   * @param rule <code>Node.ALLOW</code> or <code>Node.DISALLOW</code>.
+   * @return <code>false</code> if the pattern was already there.
+   */
+  private boolean addPattern(String pattern, int rule) {
+    boolean end = pattern.endsWith("$");
+    if (end)
+      pattern = pattern.substring(0, pattern.length() - 1);
+    Node node = root;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '*') {
+        // Consecutive '*'s are the same as one
+        if (!node.star) {
+          if (node.starChild == null) {
+            node.starChild = new Node();
+            node.starChild.star = true;
+            node.starChild.depth = node.depth + 1;
+          }
+          node = node.starChild;
+        }
+        wildcards = true;
+      }
+      else
+        node = node.addChild(c);
+    }
+    if (end) {
+      if ((node.endRule & rule) != 0)
+        return false;
+      node.endRule |= rule;
+    }
+    else {
+      if ((node.prefixRule & rule) != 0)
+        return false;
+      node.prefixRule |= rule;
+    }
+    return true;
   }
 
   /**
-   * This method based on code in the WWW::RobotRules module in the
-   * libwww-perl5 library, available from www.cpan.org.
+   * Adds the rules in a robots.txt file that apply to all robots to
+   * this set.  A group of rules applies if one of the User-agent
+   * lines that start it names <code>*</code>.  This method based on
+   * code in the WWW::RobotRules module in the libwww-perl5 library,
+   * available from www.cpan.org.
    *
    * @param robotsFile The robots.txt file represented as a string.
    */
-  private void parseRobotsFileString(String robotsFile) {
-    int currentIndex = 0;
-    // Regex Pattern matchers for finding user-agent, disallow, and blank lines in file
-    Matcher userAgentLine = Pattern.compile("(?i)User-Agent:\\s*(.*)").matcher(robotsFile);
-    Matcher disallowLine = Pattern.compile("(?i)Disallow:\\s*(.*)").matcher(robotsFile);
-    Matcher blankLine = Pattern.compile("\n\\s*\n").matcher(robotsFile);
-    // Find each user-agent portion of file
-    while (userAgentLine.find()) {
-      if (userAgentLine.group(1).indexOf('*') != -1) {
-        // this User-Agent line applies to this robot
-        // find next blank line after this user-agent line
-        currentIndex = userAgentLine.end();
-        blankLine.region(currentIndex, robotsFile.length());
-        // Index of next blank line
-        int blankLineIndex = robotsFile.length();
-        if (blankLine.find())
-          blankLineIndex = blankLine.start();
-        // Find disallow lines before next blank line (or end of file)
-        disallowLine.region(currentIndex, blankLineIndex);
-        while (disallowLine.find()) {
-          // For each disallow line, add its path to the disallowed set
-          String disallowed = disallowLine.group(1).trim();
-          if (disallowed.length() > 0) {
-            if (disallowed.endsWith("/"))
-              disallowed = disallowed.substring(0, disallowed.lastIndexOf('/'));
-          }
-          this.add(disallowed);
+  public void parseRobotsFileString(String robotsFile) {
+    boolean applies = false;
+    // True while reading the User-agent lines that start a group
+    boolean inAgents = false;
+    int start = 0;
+    while (start < robotsFile.length()) {
+      int end = robotsFile.indexOf('\n', start);
+      if (end == -1)
+        end = robotsFile.length();
+      String line = robotsFile.substring(start, end);
+      start = end + 1;
+      int comment = line.indexOf('#');
+      if (comment != -1)
+        line = line.substring(0, comment);
+      int colon = line.indexOf(':');
+      if (colon == -1)
+        continue;
+      String field = line.substring(0, colon).trim().toLowerCase();
+      String value = line.substring(colon + 1).trim();
+      if (field.equals("user-agent")) {
+        if (!inAgents)
+          applies = false;
+        inAgents = true;
+        if (value.indexOf('*') != -1)
+          applies = true;
+        continue;
+      }
+      inAgents = false;
+      if (!applies)
+        continue;
+      // An empty Disallow allows everything
+      if (field.equals("disallow") && value.length() > 0)
+        this.add(value);
+      else if (field.equals("allow") && value.length() > 0)
+        this.addAllow(value);
+      else if (field.equals("crawl-delay")) {
+        try {
+          crawlDelay = Math.round(Double.parseDouble(value) * 1000);
+        }
+        catch (NumberFormatException e) {
         }
       }
     }
   }
 
+  /**
+   * A node of the trie.  Children are kept in parallel arrays sorted
+   * by character.
+   */
+  private static final class Node {
+    static final int DISALLOW = 1;
+    static final int ALLOW = 2;
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    char[] keys = NO_KEYS;
+    Node[] children = NO_CHILDREN;
+    int numChildren = 0;
+    /**
+     * The child reached through '*', if any
+     */
+    Node starChild = null;
+    /**
+     * True if this node was reached through '*'
+     */
+    boolean star = false;
+    /**
+     * The length of the patterns ending at this node
+     */
+    int depth = 0;
+    /**
+     * Rules for patterns ending here that match any path continuing
+     * from here, and for those ending in '$' that match only if the
+     * path ends here
+     */
+    int prefixRule = 0, endRule = 0;
+
+    Node child(char c) {
+      int i = Arrays.binarySearch(keys, 0, numChildren, c);
+      return (i >= 0) ? children[i] : null;
+    }
+
+    Node addChild(char c) {
+      int i = Arrays.binarySearch(keys, 0, numChildren, c);
+      if (i >= 0)
+        return children[i];
+      i = -i - 1;
+      if (numChildren == keys.length) {
+        int length = Math.max(2, 2 * numChildren);
+        keys = Arrays.copyOf(keys, length);
+        children = Arrays.copyOf(children, length);
+      }
+      System.arraycopy(keys, i, keys, i + 1, numChildren - i);
+      System.arraycopy(children, i, children, i + 1, numChildren - i);
+      Node child = new Node();
+      child.depth = depth + 1;
+      keys[i] = c;
+      children[i] = child;
+      numChildren++;
+      return child;
+    }
+  }
+
   /** The following methods are for test/diagnostic purposes */
 
   /**
@@ -155,4 +401,3 @@ public class RobotExclusionSet extends AbstractSet<String> {
   }
 
 }
-	
@@ -0,0 +1,304 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A bounded cache of parsed robots.txt rules, keyed by site (host and
+ * port).  Rules are kept for a fixed time and the least recently used
+ * site is dropped when the cache is full.  Sites that have no
+ * robots.txt (or whose robots.txt could not be read) are cached too,
+ * as an empty set of rules, for a separate, usually shorter, time so
+ * they are not asked again for every page.
+ * <p>
+ * Rules for a site can be requested ahead of time with {@link
+ * #prefetch prefetch}, which downloads robots.txt on a background
+ * thread.  A later {@link #get get} for the site waits for that
+ * download rather than starting another.  The cache may be used by
+ * several threads at once.
+ * <p>
+ * robots.txt files are downloaded with the same {@link FetchOptions
+ * FetchOptions} (timeouts, deadline and body limit) as the pages of
+ * the crawl, and with its {@link HttpClientFetcher HttpClientFetcher}
+ * if it has one; a {@link SafeHTMLPageRetriever SafeHTMLPageRetriever}
+ * passes its own on to its cache.
+ *
+ * @author Garrett Kelley
+ */
+public class RobotsCache {
+
+  /**
+   * Default number of sites kept
+   */
+  public static final int DEFAULT_MAX_SITES = 10000;
+
+  /**
+   * Default time in milliseconds rules are kept
+   */
+  public static final long DEFAULT_TTL = 24 * 60 * 60 * 1000L;
+
+  /**
+   * Default time in milliseconds a missing robots.txt is remembered
+   */
+  public static final long DEFAULT_NEGATIVE_TTL = 60 * 60 * 1000L;
+
+  /**
+   * Default number of threads downloading robots.txt files ahead of time
+   */
+  public static final int DEFAULT_PREFETCH_THREADS = 2;
+
+  /**
+   * The most sites kept
+   */
+  protected int maxSites;
+
+  /**
+   * Time in milliseconds rules are kept
+   */
+  protected long ttl;
+
+  /**
+   * Time in milliseconds a missing robots.txt is remembered
+   */
+  protected long negativeTtl;
+
+  /**
+   * The cached entries by site, least recently used first
+   */
+  protected LinkedHashMap<String, Entry> entries;
+
+  /**
+   * Runs prefetches; created when first needed
+   */
+  protected ExecutorService prefetcher = null;
+
+  /**
+   * The number of threads used for prefetching
+   */
+  protected int prefetchThreads;
+
+  /**
+   * How robots.txt files are downloaded
+   */
+  protected volatile FetchOptions fetchOptions = new FetchOptions();
+
+  /**
+   * The shared HTTP client robots.txt files are downloaded with, or
+   * <code>null</code> to download them with <code>WebPage</code>
+   */
+  protected volatile HttpClientFetcher httpClientFetcher = null;
+
+  /**
+   * Counts of lookups answered from the cache and of robots.txt downloads
+   */
+  protected long hits = 0, fetches = 0;
+
+  /**
+   * Constructs a cache with the default limits.
+   */
+  public RobotsCache() {
+    this(DEFAULT_MAX_SITES, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_PREFETCH_THREADS);
+  }
+
+  /**
+   * Constructs a cache.
+   *
+   * @param maxSites        The most sites kept.
+   * @param ttl             Milliseconds rules are kept.
+   * @param negativeTtl     Milliseconds a missing robots.txt is remembered.
+   * @param prefetchThreads Threads downloading robots.txt files ahead of time.
+   */
+  public RobotsCache(final int maxSites, long ttl, long negativeTtl, int prefetchThreads) {
+    this.maxSites = maxSites;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.prefetchThreads = prefetchThreads;
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > RobotsCache.this.maxSites;
+      }
+    };
+  }
+
+  /**
+   * Sets the options robots.txt files are downloaded with.  A copy is
+   * kept that reads any type of content, since robots.txt is not HTML.
+   */
+  public void setFetchOptions(FetchOptions fetchOptions) {
+    FetchOptions options = new FetchOptions(fetchOptions);
+    options.setHTMLOnly(false);
+    this.fetchOptions = options;
+  }
+
+  /**
+   * Sets the HTTP client robots.txt files are downloaded with.
+   *
+   * @param httpClientFetcher The client, or <code>null</code> to
+   *                          download them with <code>WebPage</code>.
+   */
+  public void setHttpClientFetcher(HttpClientFetcher httpClientFetcher) {
+    this.httpClientFetcher = httpClientFetcher;
+  }
+
+  /**
+   * Returns the rules for a site, downloading its robots.txt if they
+   * are not cached or have expired.
+   *
+   * @param site The host and port of the site.
+   */
+  public RobotExclusionSet get(String site) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(site);
+      if (entry == null || entry.expired()) {
+        entry = new Entry(site);
+        entries.put(site, entry);
+      }
+      else
+        hits++;
+    }
+    return entry.getRules();
+  }
+
+  /**
+   * Returns the rules for a site if they are cached and have been
+   * downloaded, without waiting.
+   *
+   * @param site The host and port of the site.
+   * @return The rules, or <code>null</code> if they are not available.
+   */
+  public synchronized RobotExclusionSet getIfPresent(String site) {
+    Entry entry = entries.get(site);
+    if (entry == null || !entry.task.isDone() || entry.expired())
+      return null;
+    return entry.getRules();
+  }
+
+  /**
+   * Starts downloading the robots.txt of a site on a background
+   * thread if its rules are not cached.
+   *
+   * @param site The host and port of the site.
+   */
+  public void prefetch(String site) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(site);
+      if (entry != null && !entry.expired())
+        return;
+      entry = new Entry(site);
+      entries.put(site, entry);
+      if (prefetcher == null) {
+        prefetcher = Executors.newFixedThreadPool(prefetchThreads, new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "robots-prefetch");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+    prefetcher.execute(entry.task);
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the number of sites cached.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Downloads and parses the robots.txt file of a site.  A response
+   * other than 200 OK leaves the rules empty and makes the entry
+   * negative.
+   */
+  protected RobotExclusionSet load(String site, Entry entry) {
+    synchronized (this) {
+      fetches++;
+    }
+    RobotExclusionSet rules = new RobotExclusionSet();
+    try {
+      URL url = new URL("http://" + site + "/robots.txt");
+      HttpClientFetcher fetcher = httpClientFetcher;
+      WebResponse response = (fetcher != null) ? fetcher.fetch(url, fetchOptions)
+          : WebPage.fetch(url, fetchOptions);
+      if (response.getStatusCode() == HttpURLConnection.HTTP_OK) {
+        rules.parseRobotsFileString(response.getText());
+        entry.expires = System.currentTimeMillis() + ttl;
+        return rules;
+      }
+    }
+    catch (MalformedURLException e) {
+      System.err.println("RobotsCache.load(): " + e);
+    }
+    entry.expires = System.currentTimeMillis() + negativeTtl;
+    return rules;
+  }
+
+  public synchronized String toString() {
+    return entries.size() + " sites cached, " + hits + " hits, " + fetches + " robots.txt requests";
+  }
+
+  /**
+   * The rules for one site, or the pending download of them.
+   */
+  protected class Entry {
+    /**
+     * Downloads and parses the rules; run exactly once
+     */
+    final FutureTask<RobotExclusionSet> task;
+    /**
+     * Time the entry expires; not before the download is done
+     */
+    volatile long expires = Long.MAX_VALUE;
+
+    Entry(final String site) {
+      task = new FutureTask<RobotExclusionSet>(new Callable<RobotExclusionSet>() {
+        public RobotExclusionSet call() {
+          return load(site, Entry.this);
+        }
+      });
+    }
+
+    boolean expired() {
+      return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * Waits for the download if necessary and returns the rules.
+     */
+    RobotExclusionSet getRules() {
+      // Download now rather than wait behind other prefetches; does
+      // nothing if the download has already started
+      task.run();
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            return task.get();
+          }
+          catch (InterruptedException e) {
+            interrupted = true;
+          }
+          catch (ExecutionException e) {
+            System.err.println("RobotsCache.get(): " + e.getCause());
+            return new RobotExclusionSet();
+          }
+        }
+      }
+      finally {
+        if (interrupted)
+          Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
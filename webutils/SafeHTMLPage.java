@@ -24,7 +24,36 @@ public final class SafeHTMLPage extends HTMLPage {
    *              indexed.
    */
   public SafeHTMLPage(Link link, String text, boolean index) {
-    super(link, text);
+    this(link, text, null, index);
+  }
+
+  /**
+   * Constructs an <code>SafeHTMLPage</code> with the given link,
+   * text, response it was downloaded in, and indication whether or
+   * not indexing is allowed.
+   *
+   * @param link     A <code>Link</code> object representing the given page.
+   * @param text     The text of the page.
+   * @param response The response the page was downloaded from.
+   * @param index    Should be <code>true</code> iff. the page can be
+   *                 indexed.
+   */
+  public SafeHTMLPage(Link link, String text, WebResponse response, boolean index) {
+    super(link, text, response);
+    indexAllowed = index;
+  }
+
+  /**
+   * Constructs an <code>SafeHTMLPage</code> with the link, text and
+   * response of a page that has already been analyzed, and an
+   * indication whether or not indexing is allowed.
+   *
+   * @param page  The page, whose analysis is kept.
+   * @param index Should be <code>true</code> iff. the page can be
+   *              indexed.
+   */
+  public SafeHTMLPage(HTMLPage page, boolean index) {
+    super(page);
     indexAllowed = index;
   }
 
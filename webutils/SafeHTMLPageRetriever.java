@@ -6,18 +6,55 @@ import java.net.*;
 /**
  * Keeps track of Robot Exclusion information.  Clients can use this
  * class to ensure that they do not access pages prohibited either by
- * the Robots Exclusion Protocol or Robots META tags.
+ * the Robots Exclusion Protocol or Robots META tags.  The robots.txt
+ * rules of each site are kept in a {@link RobotsCache RobotsCache},
+ * so a crawl that moves back and forth between sites does not
+ * download them again.  A single instance may be used by several
+ * crawl threads at once.
  *
  * @author Ted Wild & Ray Mooney
  */
 public final class SafeHTMLPageRetriever extends HTMLPageRetriever {
 
-  private Set<String> disallowed;
-  private String currentSite;
+  private RobotsCache robotsCache;
+
+  /**
+   * Links from pages whose Robots META tag says NOFOLLOW
+   */
+  private FingerprintSet noFollow;
 
   public SafeHTMLPageRetriever() {
-    disallowed = new RobotExclusionSet();
-    currentSite = "";
+    this(new RobotsCache());
+  }
+
+  /**
+   * Constructs a retriever that uses the given cache of robots.txt
+   * rules.
+   */
+  public SafeHTMLPageRetriever(RobotsCache robotsCache) {
+    this.robotsCache = robotsCache;
+    robotsCache.setFetchOptions(fetchOptions);
+    noFollow = new FingerprintSet();
+  }
+
+  /**
+   * Sets the options used to download pages, and robots.txt files.
+   */
+  public void setFetchOptions(FetchOptions fetchOptions) {
+    super.setFetchOptions(fetchOptions);
+    robotsCache.setFetchOptions(fetchOptions);
+  }
+
+  /**
+   * Sets the HTTP client pages, and robots.txt files, are downloaded
+   * with.
+   *
+   * @param httpClientFetcher The client, or <code>null</code> to
+   *                          download them with <code>WebPage</code>.
+   */
+  public void setHttpClientFetcher(HttpClientFetcher httpClientFetcher) {
+    super.setHttpClientFetcher(httpClientFetcher);
+    robotsCache.setHttpClientFetcher(httpClientFetcher);
   }
 
   /**
@@ -35,27 +72,59 @@ public final class SafeHTMLPageRetriever extends HTMLPageRetriever {
 
     // check to make sure access to link is not disallowed
     // (e. g. because of a NOFOLLOW)
-    if (disallowed.contains(link.getURL()))
-      throw new PathDisallowedException("Robot access disallowed :" + link);
-
-    // if URL is for a different site, update the robots.txt file
-    if (!currentSite.equals(getSite(link.getURL()))) {
-      currentSite = getSite(link.getURL());
-      disallowed =
-          new RobotExclusionSet(currentSite);
+    synchronized (this) {
+      if (noFollow.contains(link.fingerprint()))
+        throw new PathDisallowedException("Robot access disallowed :" + link);
     }
-    // currentSite and disallowed are updated for this URL
 
     // check to make sure this site is not already prohibited
-    if (disallowed.contains(link.getURL().getPath()))
+    // (the cached rules are not changed once read, so need no lock)
+    RobotExclusionSet disallowed = robotsCache.get(getSite(link.getURL()));
+    if (disallowed.contains(link.getURL().getFile()))
       throw new PathDisallowedException("Robot access disallowed: " + link);
-    String page = WebPage.getWebPage(link.getURL());
-    RobotsMetaTagParser metaInf = new RobotsMetaTagParser(link.getURL(), page);
+    WebResponse response = fetch(link.getURL());
+    String page = response.getText();
+    link = getPageLink(link, response);
+    HTMLPage htmlPage = new HTMLPage(link, page, response);
+    RobotsMetaTagParser metaInf = new RobotsMetaTagParser(htmlPage);
+    List<Link> noFollowLinks = metaInf.parseMetaTags();
 
     // check for Robots META tags and add new rules
-    disallowed.addAll(getPaths(metaInf.parseMetaTags()));
+    synchronized (this) {
+      for (Link noFollowLink : noFollowLinks)
+        noFollow.add(noFollowLink.fingerprint());
+    }
 
-    return new SafeHTMLPage(link, page, metaInf.index());
+    return new SafeHTMLPage(htmlPage, metaInf.index());
+  }
+
+  /**
+   * Starts reading the robots.txt file of the site of a URL in the
+   * background if it is not cached.
+   *
+   * @param url A URL that will be downloaded later.
+   */
+  public void prefetch(URL url) {
+    robotsCache.prefetch(getSite(url));
+  }
+
+  /**
+   * Returns the robots.txt "Crawl-delay" of the host of a URL, if its
+   * rules have been read.
+   *
+   * @param url A URL on the host.
+   * @return The delay in milliseconds, or -1 if none is known.
+   */
+  public long getCrawlDelay(URL url) {
+    RobotExclusionSet rules = robotsCache.getIfPresent(getSite(url));
+    return (rules == null) ? -1 : rules.getCrawlDelay();
+  }
+
+  /**
+   * Returns the cache of robots.txt rules.
+   */
+  public RobotsCache getRobotsCache() {
+    return robotsCache;
   }
 
   // The "site" is the host and port of the URL.  This
@@ -71,14 +140,4 @@ public final class SafeHTMLPageRetriever extends HTMLPageRetriever {
     else
       return site;
   }
-
-  // Convert links into paths so that the RobotExclusionSet will
-  // appropriately handle them.
-
-  private List<String> getPaths(List<Link> links) {
-    List<String> paths = new LinkedList<String>();
-    for (Link link : links)
-      paths.add(link.getURL().getPath());
-    return paths;
-  }
 }
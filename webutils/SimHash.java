@@ -0,0 +1,144 @@
+package ir.webutils;
+
+/**
+ * SimHash computes the 64-bit SimHash of the visible text of a page,
+ * for finding pages that are nearly the same (mirrors, printer-friendly
+ * versions, the same page under different session IDs).  Each run of
+ * three consecutive words of the text is a feature; each feature is
+ * hashed with {@link Fingerprint Fingerprint}, and bit i of the SimHash
+ * is set if more features have bit i set than clear.  Pages that share
+ * most of their features therefore get SimHashes that differ in few
+ * bits, so their Hamming {@link #distance distance} is small.
+ * <p>
+ * Words are the runs of letters and digits, in lower case; markup, and
+ * the contents of SCRIPT and STYLE elements, are skipped by {@link
+ * HTMLLexer HTMLLexer}.  A page with fewer than {@link #MIN_WORDS
+ * MIN_WORDS} words has too little text for its SimHash to say anything
+ * about it.
+ * <p>
+ * Use {@link HTMLPage#getSimHash HTMLPage.getSimHash} rather than
+ * constructing one directly, so that a page is hashed only once.
+ *
+ * @author Garrett Kelley
+ */
+public class SimHash extends HTMLLexer.Callback {
+
+  /**
+   * The number of words a page needs for its SimHash to be used
+   */
+  public static final int MIN_WORDS = 8;
+
+  /**
+   * For each bit, the number of features with it set minus the number
+   * with it clear
+   */
+  protected int[] weights = new int[64];
+
+  /**
+   * Hashes of the last two words, the older first
+   */
+  protected long word1 = 0, word2 = 0;
+
+  /**
+   * Hash of the word being read, and whether one is being read
+   */
+  protected long word = 0;
+  protected boolean inWord = false;
+
+  /**
+   * The number of words read
+   */
+  protected int words = 0;
+
+  /**
+   * The SimHash, once computed
+   */
+  protected long hash = 0;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Computes the SimHash of the text of a page.
+   */
+  public SimHash(HTMLPage page) {
+    new HTMLLexer().parse(page.getText(), this);
+    endWord();
+    for (int i = 0; i < 64; i++) {
+      if (weights[i] > 0)
+        hash |= 1L << i;
+    }
+    weights = null;
+  }
+
+  /**
+   * Hashes the words of a run of text.  A tag ends a word.
+   */
+  public void handleText(char[] text, int start, int length, int position) {
+    for (int i = start; i < start + length; i++) {
+      char c = text[i];
+      if (Character.isLetterOrDigit(c)) {
+        if (!inWord) {
+          word = FNV_OFFSET_BASIS;
+          inWord = true;
+        }
+        word ^= Character.toLowerCase(c);
+        word *= FNV_PRIME;
+      }
+      else
+        endWord();
+    }
+    endWord();
+  }
+
+  /**
+   * Adds the feature ending with the word just read, if there is one.
+   */
+  protected void endWord() {
+    if (!inWord)
+      return;
+    inWord = false;
+    words++;
+    if (words >= 3) {
+      // Rotate so the order of the words matters
+      long feature = Fingerprint.mix(word1 ^ Long.rotateLeft(word2, 21) ^ Long.rotateLeft(word, 42));
+      for (int i = 0; i < 64; i++)
+        weights[i] += (int) ((feature >>> i) & 1) * 2 - 1;
+    }
+    word1 = word2;
+    word2 = word;
+  }
+
+  /**
+   * Returns the SimHash.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  /**
+   * Returns the number of words in the text.
+   */
+  public int getWords() {
+    return words;
+  }
+
+  /**
+   * Returns true if the page has enough words for its SimHash to be
+   * compared with others.
+   */
+  public boolean isUsable() {
+    return words >= MIN_WORDS;
+  }
+
+  /**
+   * Returns the number of bits in which two SimHashes differ.
+   */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  public String toString() {
+    return String.format("%016x", hash) + " (" + words + " words)";
+  }
+}
@@ -0,0 +1,205 @@
+package ir.webutils;
+
+import java.util.*;
+
+/**
+ * SimHashIndex holds 64-bit {@link SimHash SimHash}es and finds one
+ * within Hamming distance <code>k</code> of a given hash without
+ * comparing it with all of them.  The 64 bits are split into
+ * <code>k + 2</code> blocks.  Two hashes that differ in at most
+ * <code>k</code> bits differ in at most <code>k</code> blocks, so they
+ * agree exactly on at least two; there is one table for each pair of
+ * blocks, keyed by the bits of the pair, and a hash is looked up in each
+ * table in turn.  Only the hashes in the same slot of some table are
+ * compared, which for a crawl of a million pages and <code>k</code> of
+ * 3 (10 tables keyed by 25 or 26 bits) is a handful.
+ * <p>
+ * The hashes are kept in one array and each table is a chained hash
+ * table of <code>int</code> indexes into it, so each hash costs 8 bytes
+ * plus 8 for each table.  A value kept with each hash (e.g. the URL of
+ * the page) is returned with a match.
+ *
+ * @author Garrett Kelley
+ */
+public class SimHashIndex<V> {
+
+  /**
+   * The greatest distance supported
+   */
+  public static final int MAX_DISTANCE = 16;
+
+  /**
+   * The greatest distance at which hashes match
+   */
+  protected final int k;
+
+  /**
+   * For each table, the bits of its key
+   */
+  protected final long[] masks;
+
+  /**
+   * The hashes, in the order they were added
+   */
+  protected long[] hashes = new long[1024];
+
+  /**
+   * The value kept with each hash
+   */
+  protected Object[] values = new Object[1024];
+
+  /**
+   * The number of hashes
+   */
+  protected int size = 0;
+
+  /**
+   * For each table, the index of the latest hash in each slot, plus
+   * one (0 marks an empty slot)
+   */
+  protected int[][] heads;
+
+  /**
+   * For each table, the index of the next hash in the same slot as each
+   * hash, plus one
+   */
+  protected int[][] next;
+
+  /**
+   * A hash found within <code>k</code> of the one looked up
+   */
+  public static class Match<V> {
+    /**
+     * The hash found
+     */
+    public final long hash;
+
+    /**
+     * The value kept with it
+     */
+    public final V value;
+
+    /**
+     * The number of bits in which it differs from the one looked up
+     */
+    public final int distance;
+
+    Match(long hash, V value, int distance) {
+      this.hash = hash;
+      this.value = value;
+      this.distance = distance;
+    }
+  }
+
+  /**
+   * Creates an empty index.
+   *
+   * @param k The greatest number of bits in which hashes may differ
+   *          and still match, from 0 to <code>MAX_DISTANCE</code>.
+   */
+  public SimHashIndex(int k) {
+    if (k < 0 || k > MAX_DISTANCE)
+      throw new IllegalArgumentException("SimHash distance must be from 0 to " + MAX_DISTANCE + ": " + k);
+    this.k = k;
+    int blocks = k + 2;
+    long[] blockMasks = new long[blocks];
+    for (int b = 0, bit = 0; b < blocks; b++) {
+      int width = (64 - bit) / (blocks - b);
+      blockMasks[b] = (width == 64) ? -1L : ((1L << width) - 1) << bit;
+      bit += width;
+    }
+    masks = new long[blocks * (blocks - 1) / 2];
+    for (int i = 0, t = 0; i < blocks; i++) {
+      for (int j = i + 1; j < blocks; j++)
+        masks[t++] = blockMasks[i] | blockMasks[j];
+    }
+    heads = new int[masks.length][2048];
+    next = new int[masks.length][hashes.length];
+  }
+
+  /**
+   * Returns the greatest distance at which hashes match.
+   */
+  public int getDistance() {
+    return k;
+  }
+
+  /**
+   * Returns the number of hashes in the index.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the closest hash within <code>k</code> bits of the given
+   * one, or <code>null</code> if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  public Match<V> find(long hash) {
+    int best = -1, bestDistance = k + 1;
+    for (int t = 0; t < masks.length && bestDistance > 0; t++) {
+      for (int i = heads[t][slot(hash, t)]; i != 0; i = next[t][i - 1]) {
+        int distance = SimHash.distance(hash, hashes[i - 1]);
+        if (distance < bestDistance) {
+          best = i - 1;
+          bestDistance = distance;
+        }
+      }
+    }
+    return (best < 0) ? null : new Match<V>(hashes[best], (V) values[best], bestDistance);
+  }
+
+  /**
+   * Adds a hash and the value kept with it.
+   */
+  public void add(long hash, V value) {
+    if (size == hashes.length) {
+      int capacity = hashes.length * 2;
+      hashes = Arrays.copyOf(hashes, capacity);
+      values = Arrays.copyOf(values, capacity);
+      for (int t = 0; t < masks.length; t++)
+        next[t] = Arrays.copyOf(next[t], capacity);
+    }
+    hashes[size] = hash;
+    values[size] = value;
+    size++;
+    if (size > heads[0].length)
+      rehash(heads[0].length * 2);
+    else
+      link(size - 1);
+  }
+
+  /**
+   * Rebuilds the tables with the given number of slots each.
+   */
+  protected void rehash(int slots) {
+    for (int t = 0; t < masks.length; t++)
+      heads[t] = new int[slots];
+    for (int i = 0; i < size; i++)
+      link(i);
+  }
+
+  /**
+   * Puts the hash with the given index at the head of its slot in each
+   * table.
+   */
+  protected void link(int i) {
+    for (int t = 0; t < masks.length; t++) {
+      int slot = slot(hashes[i], t);
+      next[t][i] = heads[t][slot];
+      heads[t][slot] = i + 1;
+    }
+  }
+
+  /**
+   * Returns the slot of a hash in a table.
+   */
+  protected int slot(long hash, int table) {
+    return (int) Fingerprint.mix(hash & masks[table]) & (heads[table].length - 1);
+  }
+
+  public String toString() {
+    return size + " hashes in " + masks.length + " tables, distance " + k;
+  }
+}
@@ -1,6 +1,7 @@
 package ir.webutils;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import ir.utilities.*;
@@ -21,7 +22,234 @@ public class Spider {
   /**
    * The queue of links maintained by the spider
    */
-  protected List<Link> linksToVisit = new LinkedList<Link>();
+  protected Queue<Link> linksToVisit = new LinkedList<Link>();
+
+  /**
+   * Flag to keep the middle of the queue on disk (see {@link
+   * DiskLinkQueue DiskLinkQueue}) so very large crawls need only a
+   * bounded amount of memory for it
+   */
+  protected boolean diskQueue = false;
+
+  /**
+   * The least number of milliseconds between requests to the same
+   * host, or -1 to crawl in plain breadth-first order without a
+   * per-host delay
+   */
+  protected long politeDelay = -1;
+
+  /**
+   * The queue of links to visit when crawling politely (see {@link
+   * HostQueueFrontier HostQueueFrontier}); <code>null</code> otherwise
+   */
+  protected HostQueueFrontier hostFrontier = null;
+
+  /**
+   * The number of priority levels (front queues) when crawling politely
+   */
+  protected int numPriorities = 4;
+
+  /**
+   * The most bytes of a page body downloaded, or -1 for no limit
+   */
+  protected int maxBodySize = FetchOptions.DEFAULT_MAX_BODY_SIZE;
+
+  /**
+   * Milliseconds to wait for a connection, 0 for no limit
+   */
+  protected int connectTimeout = FetchOptions.DEFAULT_CONNECT_TIMEOUT;
+
+  /**
+   * Milliseconds to wait for data when reading, 0 for no limit
+   */
+  protected int readTimeout = FetchOptions.DEFAULT_READ_TIMEOUT;
+
+  /**
+   * Milliseconds the download of one page may take, or -1 for no limit
+   */
+  protected long pageDeadline = 60000;
+
+  /**
+   * The number of consecutive failed downloads after which a host is
+   * dropped from the crawl, or -1 never to drop hosts
+   */
+  protected int maxHostFailures = -1;
+
+  /**
+   * Tracks failing hosts during the crawl (see {@link
+   * HostCircuitBreaker HostCircuitBreaker}); <code>null</code> if
+   * hosts are never dropped
+   */
+  protected HostCircuitBreaker circuitBreaker = null;
+
+  /**
+   * Flag to download pages with a shared HTTP/2 capable client (see
+   * {@link HttpClientFetcher HttpClientFetcher}) instead of a new
+   * connection per page
+   */
+  protected boolean http2 = false;
+
+  /**
+   * Flag to adapt the number of downloads in flight and the delay for
+   * each host to how the servers respond (see {@link
+   * ConcurrencyController ConcurrencyController})
+   */
+  protected boolean adaptive = false;
+
+  /**
+   * The most bytes per second to download when crawling adaptively,
+   * or -1 for no cap
+   */
+  protected long bandwidthCap = -1;
+
+  /**
+   * Adapts the crawl to the servers when <code>adaptive</code> is
+   * set; <code>null</code> otherwise
+   */
+  protected ConcurrencyController concurrencyController = null;
+
+  /**
+   * Milliseconds between checkpoint snapshots, or -1 not to
+   * checkpoint the crawl
+   */
+  protected long checkpointInterval = -1;
+
+  /**
+   * Whether to resume the crawl from the checkpoint in
+   * <code>saveDir</code>
+   */
+  protected boolean resume = false;
+
+  /**
+   * The checkpoint the state of the crawl is recorded in, or
+   * <code>null</code>
+   */
+  protected CrawlCheckpoint checkpoint = null;
+
+  /**
+   * Whether to keep indexed pages in a {@link PageStore PageStore}
+   * instead of one file each
+   */
+  protected boolean storePages = false;
+
+  /**
+   * Whether to deflate the pages in the page store
+   */
+  protected boolean deflatePages = false;
+
+  /**
+   * The store indexed pages are added to, or <code>null</code> if they
+   * are written to files
+   */
+  protected PageStore pageStore = null;
+
+  /**
+   * The number of threads parsing pages and storing pages in a
+   * pipelined crawl, or 0 if the crawl is not pipelined
+   */
+  protected int parseThreads = 0, storeThreads = 0;
+
+  /**
+   * Whether pages are saved in the background by a {@link PageWriter
+   * PageWriter}
+   */
+  protected boolean writeBehind = false;
+
+  /**
+   * Milliseconds between forcing pages saved in the background to
+   * disk, or -1 never to
+   */
+  protected long writeBehindSync = -1;
+
+  /**
+   * The writer saving pages in the background, or <code>null</code>
+   */
+  protected PageWriter pageWriter = null;
+
+  /**
+   * The greatest number of bits in which the SimHashes of two pages may
+   * differ for the later one to be a near-duplicate, or -1 not to look
+   * for near-duplicates
+   */
+  protected int simHashDistance = -1;
+
+  /**
+   * Whether near-duplicates are indexed and listed in the duplicates
+   * file rather than skipped
+   */
+  protected boolean markDuplicates = false;
+
+  /**
+   * Whether the links on near-duplicates are followed
+   */
+  protected boolean followDuplicates = true;
+
+  /**
+   * The SimHashes of the indexed pages, with their URLs, or
+   * <code>null</code>
+   */
+  protected SimHashIndex<String> simHashes = null;
+
+  /**
+   * Where marked near-duplicates are listed, once one is found
+   */
+  protected PrintWriter duplicatesOut = null;
+
+  /**
+   * The name of the file in <code>saveDir</code> marked near-duplicates
+   * are listed in
+   */
+  public static final String DUPLICATES_FILE = "duplicates.txt";
+
+  /**
+   * Whether to drop links that look like crawler traps
+   */
+  protected boolean detectTraps = false;
+
+  /**
+   * The number of links accepted per URL pattern and host when
+   * <code>detectTraps</code> is set
+   */
+  protected int trapBudget = TrapDetector.DEFAULT_PATTERN_BUDGET;
+
+  /**
+   * Rejects links that look like crawler traps, or <code>null</code>
+   */
+  protected TrapDetector trapDetector = null;
+
+  /**
+   * The file the scope rules are read from, or <code>null</code>
+   */
+  protected File scopeFile = null;
+
+  /**
+   * The links that may be followed, or <code>null</code> for all
+   */
+  protected CrawlScope scope = null;
+
+  /**
+   * The most pages that may wait between two stages of a pipelined
+   * crawl
+   */
+  protected int stageQueueCapacity = 64;
+
+  /**
+   * The stages of a pipelined crawl, in order, or <code>null</code>
+   */
+  protected List<PipelineStage<?>> stages = null;
+
+  /**
+   * The stage pages are stored by in a pipelined crawl, or
+   * <code>null</code>
+   */
+  protected PipelineStage<StoredPage> storeStage = null;
+
+  /**
+   * Pages given to <code>writePage</code> for the store stage that
+   * <code>processPage</code> has not queued yet; guarded by the
+   * spider's lock
+   */
+  protected List<StoredPage> pagesToStore = new ArrayList<StoredPage>();
 
   /**
    * Flag to purposely slow the crawl for debugging purposes
@@ -51,9 +279,64 @@ public class Spider {
   protected int maxCount = 10000;
 
   /**
-   * The URLs that have already been visited.
+   * The URLs that have already been visited or put on the queue,
+   * stored as fingerprints.  A link is only added to the queue if it
+   * is not already in this set, so the queue never holds the same
+   * URL twice.
+   */
+  protected VisitedSet visited;
+
+  /**
+   * False positive rate for the Bloom filter tier of the visited set,
+   * 0 if the visited set is kept exactly.
+   */
+  protected double bloomFalsePositiveRate = 0;
+
+  /**
+   * The number of URLs kept exactly in the visited set before later
+   * ones go to the Bloom filter tier (if enabled).
+   */
+  protected int bloomExactLimit = 1000000;
+
+  /**
+   * File the visited set is loaded from before and saved to after the
+   * crawl, <code>null</code> if it is not saved.
+   */
+  protected File visitedFile = null;
+
+  /**
+   * The number of threads fetching pages at the same time.  With
+   * more than one thread, pages from different hosts are downloaded
+   * concurrently but at most one connection is open to any one host.
+   */
+  protected int numThreads = 1;
+
+  /**
+   * Hosts with a download currently in progress (concurrent crawls only)
+   */
+  protected Set<String> activeHosts = new HashSet<String>();
+
+  /**
+   * Links taken off the queue whose host was busy at the time, in
+   * queue order (concurrent crawls only)
+   */
+  protected List<Link> deferredLinks = new LinkedList<Link>();
+
+  /**
+   * The most links that may be set aside in <code>deferredLinks</code>
+   */
+  protected int maxDeferredLinks = 1000;
+
+  /**
+   * The number of links taken off the queue by crawl threads whose
+   * processing has not finished yet (concurrent crawls only)
+   */
+  protected int linksInProgress = 0;
+
+  /**
+   * Running counts and timing for the crawl
    */
-  protected HashSet<Link> visited;
+  protected CrawlStatistics stats = new CrawlStatistics();
 
   /**
    * Checks command line arguments and performs the crawl.  <p> This
@@ -74,10 +357,74 @@ public class Spider {
    * <li>-safe : Check for and obey robots.txt and robots META tag
    * directives.</li>
    * <li>-d &lt;directory&gt; : Store indexed files in &lt;directory&gt.</li>
-   * <li>-c &lt;count&gt; : Store at most &lt;count&gt; files.</li>
+   * <li>-c &lt;count&gt; : Store at most &lt;count&gt; files (default is
+   * 10,000).</li>
    * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-threads &lt;n&gt; : Download pages with &lt;n&gt; concurrent
+   * threads, never more than one at a time from the same host.</li>
+   * <li>-bloom &lt;rate&gt; : Once a million URLs have been visited,
+   * remember further ones in a Bloom filter with false positive rate
+   * &lt;rate&gt; to bound memory.</li>
+   * <li>-visited &lt;file&gt; : Skip URLs recorded in &lt;file&gt; by an
+   * earlier crawl, and save the visited URLs there afterwards.</li>
+   * <li>-diskqueue : Keep most of the queue of links to visit in files
+   * in the -d directory instead of in memory.</li>
+   * <li>-polite &lt;ms&gt; : Crawl many hosts at once but wait at
+   * least &lt;ms&gt; milliseconds (or the robots.txt Crawl-delay with
+   * -safe, if longer) between requests to the same host.</li>
+   * <li>-maxbody &lt;bytes&gt; : Download at most &lt;bytes&gt; of a
+   * page (default 4 MB, -1 for no limit).</li>
+   * <li>-connecttimeout &lt;ms&gt; : Give up connecting to a server
+   * after &lt;ms&gt; milliseconds (default 10000, 0 for no limit).</li>
+   * <li>-readtimeout &lt;ms&gt; : Give up on a page if no data arrives
+   * for &lt;ms&gt; milliseconds (default 30000, 0 for no limit).</li>
+   * <li>-deadline &lt;ms&gt; : Give up on a page that takes longer
+   * than &lt;ms&gt; milliseconds in all (default 60000, -1 for no
+   * limit).</li>
+   * <li>-maxfailures &lt;n&gt; : Drop a host and its queued links
+   * after &lt;n&gt; failed downloads in a row (default -1, never
+   * to drop hosts).</li>
+   * <li>-http2 : Download pages with a shared client that keeps
+   * connections open and uses HTTP/2 where the server supports it.</li>
+   * <li>-adaptive : Start with one download at a time and adapt the
+   * number in flight (up to -threads) and the delay for each host to
+   * the response times and errors seen.</li>
+   * <li>-bandwidth &lt;bytes&gt; : Crawl adaptively, downloading at
+   * most &lt;bytes&gt; bytes per second.</li>
+   * <li>-checkpoint &lt;seconds&gt; : Record the state of the crawl in
+   * the checkpoint subdirectory of the -d directory, with a full
+   * snapshot every &lt;seconds&gt; seconds.</li>
+   * <li>-resume : Continue the crawl recorded in the checkpoint, if
+   * there is one, instead of starting at the -u URLs.  Implies
+   * -checkpoint 300.</li>
+   * <li>-store : Keep indexed pages in a page store in the store
+   * subdirectory of the -d directory instead of one file each.</li>
+   * <li>-deflate : Keep indexed pages in a page store, each
+   * compressed.</li>
+   * <li>-pipeline &lt;p&gt;,&lt;s&gt; : Crawl in stages: -threads
+   * threads download pages, &lt;p&gt; threads parse them and queue
+   * their links, and &lt;s&gt; threads store them, with bounded queues
+   * between the stages.</li>
+   * <li>-writebehind &lt;ms&gt; : Save pages in the background,
+   * in batches, forcing them to disk every &lt;ms&gt; milliseconds
+   * (0 after every batch, -1 never).</li>
+   * <li>-simhash &lt;k&gt; : Skip pages whose text has a SimHash
+   * within &lt;k&gt; bits of that of a page already indexed.</li>
+   * <li>-markdups : Index near-duplicates, listing them in
+   * duplicates.txt in the -d directory.  Implies -simhash 3.</li>
+   * <li>-nofollowdups : Do not follow the links on
+   * near-duplicates.  Implies -simhash 3.</li>
+   * <li>-traps : Drop links that look like crawler traps: very
+   * deep paths, paths repeating a segment, queries with many
+   * parameters or parameter combinations, and URL patterns that
+   * have used up their budget.</li>
+   * <li>-trapbudget &lt;n&gt; : Detect traps, accepting at most
+   * &lt;n&gt; links per URL pattern and host (default 1000).</li>
+   * <li>-scope &lt;file&gt; : Follow only links in the scope given
+   * by the host, suffix, path, depth, include and exclude rules in
+   * &lt;file&gt; (see CrawlScope).</li>
    * </ul>
    * <p/>
    * Each option has a corresponding
@@ -112,6 +459,56 @@ public class Spider {
           handleUCommandLineOption(args[++i]);
         else if (args[i].equals("-slow"))
           handleSlowCommandLineOption();
+        else if (args[i].equals("-threads"))
+          handleThreadsCommandLineOption(args[++i]);
+        else if (args[i].equals("-bloom"))
+          handleBloomCommandLineOption(args[++i]);
+        else if (args[i].equals("-visited"))
+          handleVisitedCommandLineOption(args[++i]);
+        else if (args[i].equals("-diskqueue"))
+          handleDiskQueueCommandLineOption();
+        else if (args[i].equals("-polite"))
+          handlePoliteCommandLineOption(args[++i]);
+        else if (args[i].equals("-maxbody"))
+          handleMaxBodyCommandLineOption(args[++i]);
+        else if (args[i].equals("-connecttimeout"))
+          handleConnectTimeoutCommandLineOption(args[++i]);
+        else if (args[i].equals("-readtimeout"))
+          handleReadTimeoutCommandLineOption(args[++i]);
+        else if (args[i].equals("-deadline"))
+          handleDeadlineCommandLineOption(args[++i]);
+        else if (args[i].equals("-maxfailures"))
+          handleMaxFailuresCommandLineOption(args[++i]);
+        else if (args[i].equals("-http2"))
+          handleHttp2CommandLineOption();
+        else if (args[i].equals("-adaptive"))
+          handleAdaptiveCommandLineOption();
+        else if (args[i].equals("-bandwidth"))
+          handleBandwidthCommandLineOption(args[++i]);
+        else if (args[i].equals("-checkpoint"))
+          handleCheckpointCommandLineOption(args[++i]);
+        else if (args[i].equals("-resume"))
+          handleResumeCommandLineOption();
+        else if (args[i].equals("-store"))
+          handleStoreCommandLineOption();
+        else if (args[i].equals("-deflate"))
+          handleDeflateCommandLineOption();
+        else if (args[i].equals("-pipeline"))
+          handlePipelineCommandLineOption(args[++i]);
+        else if (args[i].equals("-writebehind"))
+          handleWriteBehindCommandLineOption(args[++i]);
+        else if (args[i].equals("-simhash"))
+          handleSimHashCommandLineOption(args[++i]);
+        else if (args[i].equals("-markdups"))
+          handleMarkDupsCommandLineOption();
+        else if (args[i].equals("-nofollowdups"))
+          handleNoFollowDupsCommandLineOption();
+        else if (args[i].equals("-traps"))
+          handleTrapsCommandLineOption();
+        else if (args[i].equals("-trapbudget"))
+          handleTrapBudgetCommandLineOption(args[++i]);
+        else if (args[i].equals("-scope"))
+          handleScopeCommandLineOption(args[++i]);
       }
       ++i;
     }
@@ -175,126 +572,1459 @@ public class Spider {
   }
 
   /**
-   * Performs the crawl.  Should be called after
-   * <code>processArgs</code> has been called.  Assumes that
-   * starting url has been set.  <p> This implementation iterates
-   * through a list of links to visit.  For each link a check is
-   * performed using {@link #visited visited} to make sure the link
-   * has not already been visited.  If it has not, the link is added
-   * to <code>visited</code>, and the page is retrieved.  If access
-   * to the page has been disallowed by a robots.txt file or a
-   * robots META tag, or if there is some other problem retrieving
-   * the page, then the page is skipped.  If the page is downloaded
-   * successfully {@link #indexPage indexPage} and {@link
-   * #getNewLinks getNewLinks} are called if allowed.
-   * <code>go</code> terminates when there are no more links to visit
-   * or <code>count &gt;= maxCount</code>
+   * Called when "-threads" is passed in on the command line.  <p>
+   * This implementation sets <code>numThreads</code> to the integer
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-threads" option.
    */
-  public void doCrawl() {
-    if (linksToVisit.size() == 0) {
-      System.err.println("Exiting: No pages to visit.");
-      System.exit(0);
-    }
-    visited = new HashSet<Link>();
-    while (linksToVisit.size() > 0 && count < maxCount) {
-      // Pause if in slow mode
-      if (slow) {
-        synchronized (this) {
-          try {
-            wait(1000);
-          }
-          catch (InterruptedException e) {
-          }
-        }
-      }
-      // Take the top link off the queue
-      Link link = linksToVisit.remove(0);
-      link.cleanURL(); // Standardize and clean the URL for the link
-      System.out.println("Trying: " + link);
-      // Skip if already visited this page
-      if (!visited.add(link)) {
-        System.out.println("Already visited");
-        continue;
-      }
-      if (!linkToHTMLPage(link)) {
-        System.out.println("Not HTML Page");
-        continue;
-      }
-      HTMLPage currentPage = null;
-      // Use the page retriever to get the page
-      try {
-        currentPage = retriever.getHTMLPage(link);
-      }
-      catch (PathDisallowedException e) {
-        System.out.println(e);
-        continue;
-      }
-      if (currentPage.empty()) {
-        System.out.println("No Page Found");
-        continue;
-      }
-      if (currentPage.indexAllowed()) {
-        count++;
-        System.out.println("Indexing" + "(" + count + "): " + link);
-        indexPage(currentPage);
-      }
-      if (count < maxCount) {
-        List<Link> newLinks = getNewLinks(currentPage);
-        // System.out.println("Adding the following links" + newLinks);
-        // Add new links to end of queue
-        linksToVisit.addAll(newLinks);
-      }
-    }
+  protected void handleThreadsCommandLineOption(String value) {
+    numThreads = Integer.parseInt(value);
+    if (numThreads < 1)
+      throw new IllegalArgumentException("Number of threads must be positive: " + value);
   }
 
   /**
-   * Check if this is a link to an HTML page.
+   * Called when "-bloom" is passed in on the command line.  <p> This
+   * implementation sets <code>bloomFalsePositiveRate</code> to the
+   * number represented by <code>value</code>.
    *
-   * @return true if a directory or clearly an HTML page
+   * @param value The value associated with the "-bloom" option.
    */
-  protected boolean linkToHTMLPage(Link link) {
-    String extension = MoreString.fileExtension(link.getURL().getPath());
-    if (extension.equals("") || extension.equalsIgnoreCase("html") ||
-        extension.equalsIgnoreCase("htm") || extension.equalsIgnoreCase("shtml"))
-      return true;
-    return false;
+  protected void handleBloomCommandLineOption(String value) {
+    bloomFalsePositiveRate = Double.parseDouble(value);
   }
 
   /**
-   * Returns a list of links to follow from a given page.
-   * Subclasses can use this method to direct the spider's path over
-   * the web by returning a subset of the links on the page.
+   * Called when "-visited" is passed in on the command line.  <p>
+   * This implementation sets <code>visitedFile</code> to
+   * <code>value</code>.
    *
-   * @param page The current page.
-   * @return Links to be visited from this page
+   * @param value The value associated with the "-visited" option.
    */
-  protected List<Link> getNewLinks(HTMLPage page) {
-    return new LinkExtractor(page).extractLinks();
+  protected void handleVisitedCommandLineOption(String value) {
+    visitedFile = new File(value);
   }
 
   /**
-   * "Indexes" a <code>HTMLpage</code>.  This version just writes it
-   * out to a file in the specified directory with a "P<count>.html" file name.
+   * Called when "-diskqueue" is passed in on the command line.  <p>
+   * This implementation sets <code>diskQueue</code> to true.
+   */
+  protected void handleDiskQueueCommandLineOption() {
+    diskQueue = true;
+  }
+
+  /**
+   * Called when "-polite" is passed in on the command line.  <p>
+   * This implementation sets <code>politeDelay</code> to the integer
+   * represented by <code>value</code>.
    *
-   * @param page An <code>HTMLPage</code> that contains the page to
-   *             index.
+   * @param value The value associated with the "-polite" option.
    */
-  protected void indexPage(HTMLPage page) {
-    page.write(saveDir,
-        "P" + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1));
+  protected void handlePoliteCommandLineOption(String value) {
+    politeDelay = Long.parseLong(value);
+    if (politeDelay < 0)
+      throw new IllegalArgumentException("Delay must not be negative: " + value);
   }
 
   /**
-   * Spider the web according to the following command options:
-   * <ul>
-   * <li>-safe : Check for and obey robots.txt and robots META tag
-   * directives.</li>
-   * <li>-d &lt;directory&gt; : Store indexed files in &lt;directory&gt;.</li>
-   * <li>-c &lt;maxCount&gt; : Store at most &lt;maxCount&gt; files (default is 10,000).</li>
-   * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
-   * <li>-slow : Pause briefly before getting a page.  This can be
-   * useful when debugging.
-   * </ul>
+   * Called when "-maxbody" is passed in on the command line.  <p>
+   * This implementation sets <code>maxBodySize</code> to the integer
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-maxbody" option.
+   */
+  protected void handleMaxBodyCommandLineOption(String value) {
+    maxBodySize = Integer.parseInt(value);
+  }
+
+  /**
+   * Called when "-connecttimeout" is passed in on the command line.
+   * <p> This implementation sets <code>connectTimeout</code> to the
+   * integer represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-connecttimeout" option.
+   */
+  protected void handleConnectTimeoutCommandLineOption(String value) {
+    connectTimeout = Integer.parseInt(value);
+  }
+
+  /**
+   * Called when "-readtimeout" is passed in on the command line.  <p>
+   * This implementation sets <code>readTimeout</code> to the integer
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-readtimeout" option.
+   */
+  protected void handleReadTimeoutCommandLineOption(String value) {
+    readTimeout = Integer.parseInt(value);
+  }
+
+  /**
+   * Called when "-deadline" is passed in on the command line.  <p>
+   * This implementation sets <code>pageDeadline</code> to the integer
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-deadline" option.
+   */
+  protected void handleDeadlineCommandLineOption(String value) {
+    pageDeadline = Long.parseLong(value);
+  }
+
+  /**
+   * Called when "-maxfailures" is passed in on the command line.  <p>
+   * This implementation sets <code>maxHostFailures</code> to the
+   * integer represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-maxfailures" option.
+   */
+  protected void handleMaxFailuresCommandLineOption(String value) {
+    maxHostFailures = Integer.parseInt(value);
+  }
+
+  /**
+   * Called when "-http2" is passed in on the command line.  <p> This
+   * implementation sets <code>http2</code> to true.
+   */
+  protected void handleHttp2CommandLineOption() {
+    http2 = true;
+  }
+
+  /**
+   * Called when "-adaptive" is passed in on the command line.  <p>
+   * This implementation sets <code>adaptive</code> to true.
+   */
+  protected void handleAdaptiveCommandLineOption() {
+    adaptive = true;
+  }
+
+  /**
+   * Called when "-bandwidth" is passed in on the command line.  <p>
+   * This implementation sets <code>bandwidthCap</code> to the integer
+   * represented by <code>value</code> and <code>adaptive</code> to
+   * true.
+   *
+   * @param value The value associated with the "-bandwidth" option.
+   */
+  protected void handleBandwidthCommandLineOption(String value) {
+    bandwidthCap = Long.parseLong(value);
+    adaptive = true;
+  }
+
+  /**
+   * Called when "-checkpoint" is passed in on the command line.  <p>
+   * This implementation sets <code>checkpointInterval</code> to the
+   * number of seconds represented by <code>value</code>, in
+   * milliseconds.
+   *
+   * @param value The value associated with the "-checkpoint" option.
+   */
+  protected void handleCheckpointCommandLineOption(String value) {
+    checkpointInterval = 1000 * Long.parseLong(value);
+  }
+
+  /**
+   * Called when "-resume" is passed in on the command line.  <p> This
+   * implementation sets <code>resume</code> to true, and
+   * <code>checkpointInterval</code> to five minutes if it is not set.
+   */
+  protected void handleResumeCommandLineOption() {
+    resume = true;
+    if (checkpointInterval < 0)
+      checkpointInterval = 300000;
+  }
+
+  /**
+   * Called when "-store" is passed in on the command line.  <p> This
+   * implementation sets <code>storePages</code> to true.
+   */
+  protected void handleStoreCommandLineOption() {
+    storePages = true;
+  }
+
+  /**
+   * Called when "-deflate" is passed in on the command line.  <p>
+   * This implementation sets <code>storePages</code> and
+   * <code>deflatePages</code> to true.
+   */
+  protected void handleDeflateCommandLineOption() {
+    storePages = true;
+    deflatePages = true;
+  }
+
+  /**
+   * Called when "-pipeline" is passed in on the command line.  <p>
+   * This implementation sets <code>parseThreads</code> and
+   * <code>storeThreads</code> to the two comma-separated integers
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-pipeline" option.
+   */
+  protected void handlePipelineCommandLineOption(String value) {
+    String[] counts = value.split(",");
+    if (counts.length != 2)
+      throw new IllegalArgumentException("-pipeline takes <parse threads>,<store threads>: " + value);
+    parseThreads = Integer.parseInt(counts[0].trim());
+    storeThreads = Integer.parseInt(counts[1].trim());
+  }
+
+  /**
+   * Called when "-writebehind" is passed in on the command line.  <p>
+   * This implementation sets <code>writeBehind</code> to true and
+   * <code>writeBehindSync</code> to the integer represented by
+   * <code>value</code>.
+   *
+   * @param value The value associated with the "-writebehind" option.
+   */
+  protected void handleWriteBehindCommandLineOption(String value) {
+    writeBehind = true;
+    writeBehindSync = Long.parseLong(value);
+  }
+
+  /**
+   * Called when "-simhash" is passed in on the command line.  <p> This
+   * implementation sets <code>simHashDistance</code> to the integer
+   * represented by <code>value</code>.
+   *
+   * @param value The value associated with the "-simhash" option.
+   */
+  protected void handleSimHashCommandLineOption(String value) {
+    simHashDistance = Integer.parseInt(value);
+    if (simHashDistance < 0 || simHashDistance > SimHashIndex.MAX_DISTANCE)
+      throw new IllegalArgumentException("-simhash takes a distance from 0 to "
+          + SimHashIndex.MAX_DISTANCE + ": " + value);
+  }
+
+  /**
+   * Called when "-markdups" is passed in on the command line.  <p>
+   * This implementation sets <code>markDuplicates</code> to true, and
+   * <code>simHashDistance</code> to 3 if it is not set.
+   */
+  protected void handleMarkDupsCommandLineOption() {
+    markDuplicates = true;
+    if (simHashDistance < 0)
+      simHashDistance = 3;
+  }
+
+  /**
+   * Called when "-nofollowdups" is passed in on the command line.
+   * <p> This implementation sets <code>followDuplicates</code> to
+   * false, and <code>simHashDistance</code> to 3 if it is not set.
+   */
+  protected void handleNoFollowDupsCommandLineOption() {
+    followDuplicates = false;
+    if (simHashDistance < 0)
+      simHashDistance = 3;
+  }
+
+  /**
+   * Called when "-traps" is passed in on the command line.  <p> This
+   * implementation sets <code>detectTraps</code> to true.
+   */
+  protected void handleTrapsCommandLineOption() {
+    detectTraps = true;
+  }
+
+  /**
+   * Called when "-trapbudget" is passed in on the command line.  <p>
+   * This implementation sets <code>detectTraps</code> to true and
+   * <code>trapBudget</code> to the integer represented by
+   * <code>value</code>.
+   *
+   * @param value The value associated with the "-trapbudget" option.
+   */
+  protected void handleTrapBudgetCommandLineOption(String value) {
+    detectTraps = true;
+    trapBudget = Integer.parseInt(value);
+  }
+
+  /**
+   * Called when "-scope" is passed in on the command line.  <p> This
+   * implementation sets <code>scopeFile</code> to <code>value</code>.
+   *
+   * @param value The value associated with the "-scope" option.
+   */
+  protected void handleScopeCommandLineOption(String value) {
+    scopeFile = new File(value);
+  }
+
+  /**
+   * Performs the crawl.  Should be called after
+   * <code>processArgs</code> has been called.  Assumes that
+   * starting url has been set.  <p> This implementation iterates
+   * through a list of links to visit.  Links are added to the list
+   * with {@link #enqueue enqueue}, which uses {@link #visited
+   * visited} to make sure each URL is queued only once.  For each
+   * link taken off the list the page is retrieved.  If access
+   * to the page has been disallowed by a robots.txt file or a
+   * robots META tag, or if there is some other problem retrieving
+   * the page, then the page is skipped.  If the page is downloaded
+   * successfully {@link #indexPage indexPage} and {@link
+   * #getNewLinks getNewLinks} are called if allowed.
+   * <code>go</code> terminates when there are no more links to visit
+   * or <code>count &gt;= maxCount</code>
+   * <p> If <code>numThreads</code> is greater than one the crawl is
+   * done by {@link #doConcurrentCrawl doConcurrentCrawl} instead.
+   * If <code>politeDelay</code> is set, links are not taken in
+   * breadth-first order but from whichever host may be contacted
+   * next (see {@link HostQueueFrontier HostQueueFrontier}).  If
+   * <code>adaptive</code> is set the crawl is polite, with the delay
+   * for each host and the number of downloads in flight set by a
+   * {@link ConcurrencyController ConcurrencyController}.  If
+   * <code>parseThreads</code> is set the crawl is pipelined by {@link
+   * #doPipelineCrawl doPipelineCrawl}.  If
+   * <code>checkpointInterval</code> is set the crawl is recorded in a
+   * {@link CrawlCheckpoint CrawlCheckpoint} as it goes, and with
+   * <code>resume</code> it continues from the checkpoint left by an
+   * earlier run that did not finish.  If <code>writeBehind</code> is
+   * set pages are saved in the background by a {@link PageWriter
+   * PageWriter}.  If <code>simHashDistance</code> is set, pages that
+   * are nearly the same as one already indexed are found by {@link
+   * #isNearDuplicate isNearDuplicate}.  The links followed are limited
+   * to the {@link CrawlScope CrawlScope} made by {@link #createScope
+   * createScope}, if any.
+   */
+  public void doCrawl() {
+    if (linksToVisit.size() == 0) {
+      System.err.println("Exiting: No pages to visit.");
+      System.exit(0);
+    }
+    visited = createVisitedSet();
+    if (adaptive) {
+      // The controller paces each host through the polite frontier
+      if (politeDelay < 0)
+        politeDelay = 0;
+      concurrencyController = new ConcurrencyController(numThreads, stats);
+      concurrencyController.setMinDelay(politeDelay);
+      concurrencyController.setBandwidthCap(bandwidthCap);
+    }
+    retriever.setFetchOptions(createFetchOptions());
+    // Set here rather than with the option, since -safe replaces the retriever
+    if (http2)
+      retriever.setHttpClientFetcher(new HttpClientFetcher(HttpClientFetcher.DEFAULT_MAX_PER_HOST, connectTimeout));
+    if (maxHostFailures > 0)
+      circuitBreaker = new HostCircuitBreaker(maxHostFailures);
+    if (detectTraps)
+      trapDetector = new TrapDetector(trapBudget);
+    scope = createScope();
+    if (storePages)
+      pageStore = openPageStore();
+    if (writeBehind) {
+      pageWriter = new PageWriter(saveDir, pageStore, writeBehindSync, PageWriter.DEFAULT_MAX_BUFFERED_CHARS);
+      pageWriter.setListener(new PageWriter.Listener() {
+        public void pageSaved(int number) {
+          Spider.this.pageSaved(number);
+        }
+      });
+    }
+    if (simHashDistance >= 0)
+      simHashes = new SimHashIndex<String>(simHashDistance);
+    // Pass the starting links through enqueue so they are marked as visited
+    List<Link> startLinks = new ArrayList<Link>(linksToVisit);
+    linksToVisit = createQueue();
+    if (!openCheckpoint())
+      enqueue(startLinks);
+    // Ctrl-C should not lose the last second of the log or unsaved pages
+    Thread flusher = null;
+    if (checkpoint != null || pageWriter != null) {
+      flusher = new Thread() {
+        public void run() {
+          synchronized (Spider.this) {
+            if (pageWriter != null)
+              pageWriter.flush();
+            if (checkpoint != null)
+              checkpoint.flush();
+          }
+        }
+      };
+      Runtime.getRuntime().addShutdownHook(flusher);
+    }
+    stats.start();
+    if (parseThreads > 0)
+      doPipelineCrawl();
+    else if (numThreads > 1)
+      doConcurrentCrawl();
+    else {
+      while (linksToVisit.size() > 0 && count < maxCount) {
+        // Pause if in slow mode
+        pause();
+        // Take the top link off the queue
+        Link link = nextLink();
+        if (link == null)
+          break;
+        HTMLPage currentPage = fetchPage(link);
+        if (currentPage != null)
+          processPage(currentPage);
+        finishLink(link);
+      }
+    }
+    stats.stop();
+    stats.report(System.out, numThreads);
+    System.out.println("  Visited set: " + visited);
+    if (retriever instanceof SafeHTMLPageRetriever)
+      System.out.println("  Robots cache: " + ((SafeHTMLPageRetriever) retriever).getRobotsCache());
+    if (circuitBreaker != null)
+      System.out.println("  Circuit breaker: " + circuitBreaker);
+    if (trapDetector != null)
+      System.out.println("  Trap detector: " + trapDetector);
+    if (scope != null)
+      System.out.println("  Scope: " + scope);
+    if (retriever.getHttpClientFetcher() != null)
+      System.out.println("  HTTP client: " + retriever.getHttpClientFetcher());
+    if (concurrencyController != null)
+      concurrencyController.report(System.out);
+    if (pageWriter != null) {
+      pageWriter.close();
+      System.out.println("  Page writer: " + pageWriter);
+    }
+    if (pageStore != null)
+      System.out.println("  Page store: " + pageStore);
+    if (simHashes != null)
+      System.out.println("  SimHash index: " + simHashes);
+    if (stages != null) {
+      for (PipelineStage<?> stage : stages)
+        System.out.println("  Stage " + stage);
+    }
+    saveVisitedSet();
+    closeQueue();
+    closePageStore();
+    if (duplicatesOut != null)
+      duplicatesOut.close();
+    if (flusher != null)
+      Runtime.getRuntime().removeShutdownHook(flusher);
+    if (checkpoint != null) {
+      // The crawl is complete, so there is nothing to resume
+      checkpoint.delete();
+    }
+  }
+
+  /**
+   * Makes the scope that limits the links followed.  This
+   * implementation reads the rules in <code>scopeFile</code>, if it is
+   * set; subclasses that stay within part of the web add their own
+   * limits.  Called by <code>doCrawl</code> once the starting links
+   * are known.
+   *
+   * @return The scope, or <code>null</code> to follow all links.
+   */
+  protected CrawlScope createScope() {
+    if (scopeFile == null)
+      return null;
+    try {
+      return CrawlScope.read(scopeFile);
+    }
+    catch (IOException e) {
+      System.err.println("Exiting: Could not read scope: " + e);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  /**
+   * Opens the page store in the <code>PageStore.DIRECTORY</code>
+   * subdirectory of <code>saveDir</code>.  Pages are added to whatever
+   * the store already holds, replacing any with the same name.
+   *
+   * @return The store, or <code>null</code> if it could not be opened
+   *         and pages are to be written to files instead.
+   */
+  protected PageStore openPageStore() {
+    try {
+      return new PageStore(new File(saveDir, PageStore.DIRECTORY), deflatePages);
+    }
+    catch (IOException e) {
+      System.err.println("Spider: Could not open page store, writing files instead: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Closes <code>pageStore</code>, if there is one.
+   */
+  protected void closePageStore() {
+    if (pageStore == null)
+      return;
+    try {
+      pageStore.close();
+    }
+    catch (IOException e) {
+      System.err.println("Spider: Could not close page store: " + e);
+    }
+  }
+
+  /**
+   * Opens <code>checkpoint</code> if <code>checkpointInterval</code> is
+   * set.  With <code>resume</code>, the count, visited set and queue
+   * are first restored from the checkpoint in <code>saveDir</code>, if
+   * there is one, and each page indexed before is passed to {@link
+   * #restoreIndexedPage restoreIndexedPage}.  Otherwise any old
+   * checkpoint is discarded.
+   *
+   * @return True if the crawl was restored from a checkpoint, in
+   *         which case the starting links should not be queued.
+   */
+  protected boolean openCheckpoint() {
+    if (checkpointInterval < 0)
+      return false;
+    checkpoint = new CrawlCheckpoint(new File(saveDir, "checkpoint"), checkpointInterval);
+    boolean resumed = false;
+    if (resume && checkpoint.exists()) {
+      try {
+        CrawlCheckpoint.State state = checkpoint.restore(visited, this);
+        count = state.count;
+        visited = state.visited;
+        for (Link link : state.frontier) {
+          linksToVisit.add(link);
+          retriever.prefetch(link.getURL());
+        }
+        System.out.println("Resuming crawl: " + count + " pages indexed, "
+            + state.frontier.size() + " links to visit");
+        resumed = true;
+      }
+      catch (IOException e) {
+        // Pages may already have been passed on, so starting over is not safe
+        System.err.println("Exiting: Could not resume from checkpoint: " + e);
+        System.exit(1);
+      }
+    }
+    else
+      checkpoint.delete();
+    try {
+      checkpoint.open();
+    }
+    catch (IOException e) {
+      System.err.println("Spider: Could not open checkpoint, not checkpointing: " + e);
+      checkpoint = null;
+      return resumed;
+    }
+    // Compact what was restored into a fresh snapshot
+    checkpoint.snapshot(count, visited, linksToVisit);
+    return resumed;
+  }
+
+  /**
+   * Called when resuming a crawl for each page that was indexed before
+   * the checkpoint, in the order they were indexed.  This
+   * implementation does nothing; subclasses that build up state in
+   * <code>indexPage</code> can rebuild it here.
+   *
+   * @param pageCount The value of <code>count</code> when the page was
+   *                  indexed.
+   * @param url       The URL of the page.
+   * @param links     The URLs the page links to, as returned by
+   *                  {@link #checkpointLinks checkpointLinks}.
+   */
+  protected void restoreIndexedPage(int pageCount, String url, List<String> links) {
+  }
+
+  /**
+   * Called when resuming a crawl for each page indexed before the
+   * checkpoint whose SimHash was added to <code>simHashes</code>, right
+   * after <code>restoreIndexedPage</code>.  This implementation adds it
+   * again, so that pages nearly the same as ones indexed before the
+   * checkpoint are still found.  Nothing is added if
+   * <code>simHashes</code> is not set for this run.
+   *
+   * @param url  The URL of the page.
+   * @param hash The SimHash of the page.
+   */
+  protected void restoreSimHash(String url, long hash) {
+    if (simHashes != null)
+      simHashes.add(hash, url);
+  }
+
+  /**
+   * Returns the links of an indexed page to keep in the checkpoint and
+   * pass to <code>restoreIndexedPage</code> when resuming.  This
+   * implementation keeps none.
+   */
+  protected List<Link> checkpointLinks(HTMLPage page) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Creates the options the retriever downloads pages with.  This
+   * implementation abandons responses that are not HTML, cuts off
+   * bodies longer than <code>maxBodySize</code>, and applies the
+   * timeouts and page deadline.
+   */
+  protected FetchOptions createFetchOptions() {
+    FetchOptions options = new FetchOptions();
+    options.setHTMLOnly(true);
+    options.setMaxBodySize(maxBodySize);
+    options.setConnectTimeout(connectTimeout);
+    options.setReadTimeout(readTimeout);
+    options.setDeadline(pageDeadline);
+    return options;
+  }
+
+  /**
+   * Creates the empty queue of links to visit.  If
+   * <code>politeDelay</code> is set this is a {@link
+   * HostQueueFrontier HostQueueFrontier} (also stored in
+   * <code>hostFrontier</code>) with <code>numPriorities</code> front
+   * queues, otherwise a single FIFO queue.  FIFO queues are made by
+   * {@link #createFIFOQueue createFIFOQueue}.
+   */
+  protected Queue<Link> createQueue() {
+    if (politeDelay < 0)
+      return createFIFOQueue("frontier");
+    List<Queue<Link>> frontQueues = new ArrayList<Queue<Link>>(numPriorities);
+    for (int i = 0; i < numPriorities; i++)
+      frontQueues.add(createFIFOQueue("frontier" + File.separator + "p" + i));
+    hostFrontier = new HostQueueFrontier(frontQueues,
+        Math.max(HostQueueFrontier.DEFAULT_MAX_HOSTS, 3 * numThreads),
+        HostQueueFrontier.DEFAULT_MAX_BACK_QUEUE_LINKS);
+    return hostFrontier;
+  }
+
+  /**
+   * Creates an empty FIFO queue: a {@link DiskLinkQueue
+   * DiskLinkQueue} in the given subdirectory of <code>saveDir</code>
+   * if <code>diskQueue</code> is set, otherwise a
+   * <code>LinkedList</code>.
+   */
+  protected Queue<Link> createFIFOQueue(String dirName) {
+    if (diskQueue) {
+      try {
+        return new DiskLinkQueue(new File(saveDir, dirName));
+      }
+      catch (IOException e) {
+        System.err.println("Spider: Could not create disk queue, using memory: " + e);
+      }
+    }
+    return new LinkedList<Link>();
+  }
+
+  /**
+   * Deletes any files used by the queue of links to visit.
+   */
+  protected void closeQueue() {
+    if (hostFrontier != null) {
+      for (Queue<Link> frontQueue : hostFrontier.frontQueues)
+        if (frontQueue instanceof DiskLinkQueue)
+          ((DiskLinkQueue) frontQueue).close();
+    }
+    else if (linksToVisit instanceof DiskLinkQueue)
+      ((DiskLinkQueue) linksToVisit).close();
+    if (diskQueue)
+      new File(saveDir, "frontier").delete();
+  }
+
+  /**
+   * Takes the next link to visit off the queue in a crawl with one
+   * thread.  When crawling politely, waits until some host may be
+   * contacted.
+   *
+   * @return The next link, or <code>null</code> if there is none.
+   */
+  protected Link nextLink() {
+    if (hostFrontier == null) {
+      synchronized (this) {
+        return taken(linksToVisit.poll());
+      }
+    }
+    while (true) {
+      long delay;
+      synchronized (this) {
+        Link link = hostFrontier.poll();
+        if (link != null)
+          return taken(link);
+        delay = hostFrontier.millisUntilReady();
+      }
+      if (delay < 0)
+        return null;
+      try {
+        Thread.sleep(Math.max(1, delay));
+      }
+      catch (InterruptedException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Called when processing of a link taken off the queue is finished,
+   * making its host available again.  When crawling politely the host
+   * may not be contacted again for {@link #getHostDelay getHostDelay}
+   * milliseconds.
+   *
+   * @param link The link that was processed.
+   */
+  protected synchronized void finishLink(Link link) {
+    releaseHost(link);
+    checkpointDone(link);
+    notifyAll();
+  }
+
+  /**
+   * Makes the host of a link taken off the queue available again once
+   * its page has been downloaded.
+   */
+  protected synchronized void releaseHost(Link link) {
+    if (hostFrontier != null)
+      hostFrontier.release(link, getHostDelay(link));
+    else
+      activeHosts.remove(link.getURL().getHost());
+    notifyAll();
+  }
+
+  /**
+   * Tells <code>checkpoint</code> that a link is finished, taking a
+   * snapshot if one is due.
+   */
+  private void checkpointDone(Link link) {
+    if (checkpoint != null) {
+      checkpoint.done(link);
+      if (checkpoint.snapshotDue()) {
+        checkpoint.snapshot(count, visited, checkpointFrontier());
+      }
+    }
+  }
+
+  /**
+   * Tells <code>checkpoint</code> that a link was taken off the queue.
+   *
+   * @return The link.
+   */
+  private Link taken(Link link) {
+    if (checkpoint != null && link != null)
+      checkpoint.taken(link);
+    return link;
+  }
+
+  /**
+   * Returns the links still to visit for a checkpoint snapshot: the
+   * links set aside in <code>deferredLinks</code>, then the queue.
+   * Nothing is copied; the links are read as the snapshot is written.
+   */
+  protected Iterable<Link> checkpointFrontier() {
+    final List<Iterable<Link>> parts = Arrays.<Iterable<Link>>asList(deferredLinks, linksToVisit);
+    return new Iterable<Link>() {
+      public Iterator<Link> iterator() {
+        return new ChainedIterator<Link>(parts);
+      }
+    };
+  }
+
+  /**
+   * Returns the number of milliseconds to wait between requests to the
+   * host of a link: <code>politeDelay</code>, or the delay the
+   * retriever reports for the host (e.g. from robots.txt) or the
+   * delay the <code>concurrencyController</code> has set for it, if
+   * longer.
+   */
+  protected long getHostDelay(Link link) {
+    long delay = Math.max(politeDelay, retriever.getCrawlDelay(link.getURL()));
+    if (concurrencyController != null)
+      delay = Math.max(delay, concurrencyController.getHostDelay(link.getURL().getHost()));
+    return delay;
+  }
+
+  /**
+   * Creates the set of visited URLs, loading it from
+   * <code>visitedFile</code> if that file exists.
+   */
+  protected VisitedSet createVisitedSet() {
+    if (visitedFile != null && visitedFile.exists()) {
+      try {
+        VisitedSet set = VisitedSet.load(visitedFile);
+        System.out.println("Loaded visited set: " + set);
+        return set;
+      }
+      catch (IOException e) {
+        System.err.println("Spider: Could not load visited set: " + e);
+      }
+    }
+    if (bloomFalsePositiveRate > 0)
+      return new VisitedSet(bloomExactLimit, Math.max(1000000L, 50L * maxCount),
+          bloomFalsePositiveRate);
+    return new VisitedSet();
+  }
+
+  /**
+   * Saves the set of visited URLs to <code>visitedFile</code>, if set.
+   */
+  protected void saveVisitedSet() {
+    if (visitedFile == null)
+      return;
+    try {
+      visited.save(visitedFile);
+    }
+    catch (IOException e) {
+      System.err.println("Spider: Could not save visited set: " + e);
+    }
+  }
+
+  /**
+   * Performs the crawl with <code>numThreads</code> threads.  Each
+   * thread repeatedly takes the first link in the queue whose host is
+   * not already being downloaded by another thread, so many hosts are
+   * fetched in parallel but each host sees only one connection at a
+   * time.  Downloading happens concurrently; {@link #processPage
+   * processPage} (and therefore <code>indexPage</code> and
+   * <code>getNewLinks</code>) is run by one thread at a time, so
+   * subclasses overriding those methods need no synchronization of
+   * their own.
+   */
+  protected void doConcurrentCrawl() {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      pool.execute(new Runnable() {
+        public void run() {
+          crawlLinks();
+        }
+      });
+    }
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+      }
+    }
+    catch (InterruptedException e) {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * The loop run by each thread in a concurrent crawl.
+   */
+  protected void crawlLinks() {
+    Link link;
+    while ((link = takeLink()) != null) {
+      try {
+        pause();
+        HTMLPage currentPage = fetchPage(link);
+        if (currentPage != null) {
+          analyzePage(currentPage);
+          processPage(currentPage);
+        }
+      }
+      catch (RuntimeException e) {
+        System.err.println("Spider: Error crawling " + link + ": " + e);
+      }
+      finally {
+        finishLink(link);
+        synchronized (this) {
+          linksInProgress--;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Performs the crawl as a pipeline of three {@link PipelineStage
+   * PipelineStage}s connected by queues holding at most
+   * <code>stageQueueCapacity</code> pages:
+   * <ul>
+   * <li>fetch: <code>numThreads</code> threads take links as in
+   * {@link #doConcurrentCrawl doConcurrentCrawl} and download them
+   * with <code>fetchPage</code>.</li>
+   * <li>parse: <code>parseThreads</code> threads parse the downloaded
+   * pages and pass them to {@link #processPage processPage}, which
+   * calls <code>indexPage</code> and queues the links from
+   * <code>getNewLinks</code>.</li>
+   * <li>store: <code>storeThreads</code> threads save the pages given
+   * to {@link #writePage writePage} by <code>indexPage</code>.</li>
+   * </ul>
+   * A full queue makes the stage before it wait, so downloads slow down
+   * rather than pages piling up when parsing or the disk falls behind.
+   * A link counts as in progress until its page has been parsed, since
+   * only then are the links on it queued.  The stages are reported at
+   * the end of the crawl, showing which one limited it.
+   */
+  protected void doPipelineCrawl() {
+    final PipelineStage<FetchedPage> parseStage = new PipelineStage<FetchedPage>("parse",
+        parseThreads, stageQueueCapacity, new PipelineStage.Handler<FetchedPage>() {
+          public void handle(FetchedPage fetched) {
+            try {
+              analyzePage(fetched.page);
+              processPage(fetched.page);
+            }
+            finally {
+              linkProcessed(fetched.link);
+            }
+          }
+        });
+    PipelineStage<Link> fetchStage = new PipelineStage<Link>("fetch", numThreads,
+        new PipelineStage.Source<Link>() {
+          public Link next() {
+            return takeLink();
+          }
+        }, new PipelineStage.Handler<Link>() {
+          public void handle(Link link) throws InterruptedException {
+            HTMLPage page = null;
+            try {
+              pause();
+              page = fetchPage(link);
+            }
+            finally {
+              releaseHost(link);
+              if (page == null)
+                linkProcessed(link);
+            }
+            if (page != null)
+              parseStage.put(new FetchedPage(link, page));
+          }
+        });
+    storeStage = new PipelineStage<StoredPage>("store", Math.max(1, storeThreads),
+        stageQueueCapacity, new PipelineStage.Handler<StoredPage>() {
+          public void handle(StoredPage stored) {
+            storePage(stored.page, stored.name, stored.number);
+          }
+        });
+    stages = new ArrayList<PipelineStage<?>>();
+    stages.add(fetchStage);
+    stages.add(parseStage);
+    stages.add(storeStage);
+    storeStage.start();
+    parseStage.start();
+    fetchStage.start();
+    try {
+      fetchStage.finish();
+      parseStage.finish();
+      storeStage.finish();
+    }
+    catch (InterruptedException e) {
+      for (PipelineStage<?> stage : stages)
+        stage.stop();
+    }
+    storeStage = null;
+  }
+
+  /**
+   * Marks a link taken off the queue in a pipelined crawl as
+   * processed, once its page has been parsed or it turned out to have
+   * none.
+   */
+  protected synchronized void linkProcessed(Link link) {
+    checkpointDone(link);
+    linksInProgress--;
+    notifyAll();
+  }
+
+  /**
+   * A downloaded page and the link it was downloaded for
+   */
+  protected static class FetchedPage {
+    final Link link;
+    final HTMLPage page;
+
+    FetchedPage(Link link, HTMLPage page) {
+      this.link = link;
+      this.page = page;
+    }
+
+    public String toString() {
+      return link.toString();
+    }
+  }
+
+  /**
+   * A page to be stored, its name and its page count
+   */
+  protected static class StoredPage {
+    final HTMLPage page;
+    final String name;
+    final int number;
+
+    StoredPage(HTMLPage page, String name, int number) {
+      this.page = page;
+      this.name = name;
+      this.number = number;
+    }
+
+    public String toString() {
+      return name + " " + page.getLink();
+    }
+  }
+
+  /**
+   * Removes and returns the first link in the queue whose host is not
+   * being downloaded by another thread, waiting if necessary.  Links
+   * whose host is busy are set aside in <code>deferredLinks</code>
+   * (up to <code>maxDeferredLinks</code> of them) and are considered
+   * first next time.  Returns <code>null</code> when the crawl is
+   * over, that is when <code>count &gt;= maxCount</code> or when no
+   * links are left and no other thread could still add any.
+   */
+  protected synchronized Link takeLink() {
+    if (hostFrontier != null)
+      return takePoliteLink();
+    while (count < maxCount) {
+      Iterator<Link> iterator = deferredLinks.iterator();
+      while (iterator.hasNext()) {
+        Link link = iterator.next();
+        if (!activeHosts.contains(link.getURL().getHost())) {
+          iterator.remove();
+          return startLink(link);
+        }
+      }
+      while (deferredLinks.size() < maxDeferredLinks && !linksToVisit.isEmpty()) {
+        Link link = linksToVisit.poll();
+        if (!activeHosts.contains(link.getURL().getHost()))
+          return startLink(link);
+        deferredLinks.add(link);
+      }
+      if (linksToVisit.isEmpty() && deferredLinks.isEmpty() && linksInProgress == 0)
+        return null;
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes and returns the next link from <code>hostFrontier</code>,
+   * waiting until some host may be contacted.  Returns
+   * <code>null</code> when the crawl is over.
+   */
+  protected synchronized Link takePoliteLink() {
+    while (count < maxCount) {
+      Link link = hostFrontier.poll();
+      if (link != null) {
+        linksInProgress++;
+        return taken(link);
+      }
+      if (hostFrontier.isEmpty() && linksInProgress == 0)
+        return null;
+      long delay = hostFrontier.millisUntilReady();
+      try {
+        wait(delay < 0 ? 0 : Math.max(1, delay));
+      }
+      catch (InterruptedException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Marks the host of a link as busy before it is downloaded.
+   */
+  private Link startLink(Link link) {
+    activeHosts.add(link.getURL().getHost());
+    linksInProgress++;
+    return taken(link);
+  }
+
+  /**
+   * Pauses for a second before getting a page if in slow mode.
+   */
+  protected void pause() {
+    if (slow) {
+      try {
+        Thread.sleep(1000);
+      }
+      catch (InterruptedException e) {
+      }
+    }
+  }
+
+  /**
+   * Downloads the page for a link taken off the queue unless it is
+   * not an HTML page or is disallowed.  Links that do not look like
+   * HTML pages are skipped without a request; responses that turn out
+   * not to be HTML are abandoned by the retriever after the first few
+   * hundred bytes.  Each download is reported to
+   * <code>circuitBreaker</code>, and links to hosts it has cut off are
+   * skipped.  When crawling adaptively the download waits for the
+   * <code>concurrencyController</code> to allow it and is timed for
+   * it.  May be called by several threads at once.
+   *
+   * @param link The link to download.
+   * @return The downloaded page or <code>null</code> if it was skipped.
+   */
+  protected HTMLPage fetchPage(Link link) {
+    System.out.println("Trying: " + link);
+    if (!linkToHTMLPage(link)) {
+      System.out.println("Not HTML Page");
+      return null;
+    }
+    String host = link.getURL().getHost();
+    if (circuitBreaker != null && !circuitBreaker.allow(host)) {
+      System.out.println("Host dropped after repeated failures");
+      stats.increment("Links dropped (host failing)");
+      return null;
+    }
+    HTMLPage currentPage = null;
+    if (concurrencyController != null && !concurrencyController.acquire())
+      return null;
+    long start = System.currentTimeMillis();
+    // Use the page retriever to get the page
+    try {
+      currentPage = retriever.getHTMLPage(link);
+    }
+    catch (PathDisallowedException e) {
+      System.out.println(e);
+      return null;
+    }
+    finally {
+      if (concurrencyController != null) {
+        // Recorded while still in flight, so the controller sees whether its limit was reached
+        if (currentPage != null && currentPage.getResponse() != null)
+          concurrencyController.record(host, System.currentTimeMillis() - start,
+              currentPage.getResponse().getBytesTransferred(),
+              HostCircuitBreaker.isFailure(currentPage.getResponse()));
+        concurrencyController.release();
+      }
+    }
+    WebResponse response = currentPage.getResponse();
+    if (response != null) {
+      stats.bytesReceived(host, response.getBytesTransferred(), response.getBytesRead());
+      if (response.timedOut())
+        stats.increment("Pages timed out");
+      if (circuitBreaker != null && circuitBreaker.record(host, HostCircuitBreaker.isFailure(response))) {
+        System.out.println("Dropping host " + host + " after " + maxHostFailures + " failures in a row");
+        stats.increment("Hosts dropped");
+        stats.increment("Links dropped (host failing)", dropHost(host));
+      }
+    }
+    if (response != null && response.skipped()) {
+      System.out.println("Not HTML Page: " + response.getSkipReason());
+      stats.increment("Pages skipped (not HTML)");
+      stats.increment("Bytes skipped", response.getBytesSkipped());
+      return null;
+    }
+    if (response != null && response.truncated()) {
+      System.out.println("Truncated at " + response.getBytesRead() + " bytes");
+      stats.increment("Pages truncated");
+      stats.increment("Bytes skipped", response.getBytesSkipped());
+    }
+    if (currentPage.empty()) {
+      System.out.println("No Page Found");
+      return null;
+    }
+    // The retriever gives the page the cleaned final URL if the request was redirected
+    Link pageLink = currentPage.getLink();
+    if (!pageLink.equals(link)) {
+      System.out.println("Redirected to: " + pageLink);
+      stats.increment("Redirects");
+      synchronized (this) {
+        if (!visited.add(pageLink)) {
+          System.out.println("Already visited");
+          return null;
+        }
+        if (checkpoint != null)
+          checkpoint.visited(pageLink);
+      }
+    }
+    stats.pageFetched();
+    return currentPage;
+  }
+
+  /**
+   * Removes the queued links of a host that has been cut off.  Links
+   * in a plain queue cannot be removed cheaply and are skipped when
+   * they are taken off it instead.
+   *
+   * @return The number of links removed.
+   */
+  protected synchronized int dropHost(String host) {
+    int removed = 0;
+    if (hostFrontier != null)
+      removed = hostFrontier.removeHost(host);
+    Iterator<Link> iterator = deferredLinks.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().getURL().getHost().equals(host)) {
+        iterator.remove();
+        removed++;
+      }
+    }
+    notifyAll();
+    return removed;
+  }
+
+  /**
+   * Parses a downloaded page, and computes its SimHash if near-duplicates
+   * are looked for, so that <code>processPage</code> does not do it
+   * while holding the lock.  Called by the concurrent and pipelined
+   * crawls.
+   *
+   * @param page The downloaded page.
+   */
+  protected void analyzePage(HTMLPage page) {
+    page.getAnalysis();
+    if (simHashes != null)
+      page.getSimHash();
+  }
+
+  /**
+   * Indexes a downloaded page if allowed and adds the links to follow
+   * from it to the end of the queue.  The spider's lock is held while
+   * <code>count</code> is updated and <code>indexPage</code> is called,
+   * so only one thread at a time changes them and whatever state
+   * subclasses keep in <code>indexPage</code>.  Pages
+   * <code>indexPage</code> gives the store stage are queued for it, and
+   * the links of the page are found, after the lock is released, so a
+   * full store queue or a page with many links does not hold up the
+   * other threads.  A page that {@link #isNearDuplicate
+   * isNearDuplicate} is not indexed unless <code>markDuplicates</code>
+   * is set, and its links are not followed unless
+   * <code>followDuplicates</code> is.
+   *
+   * @param currentPage The downloaded page.
+   */
+  protected void processPage(HTMLPage currentPage) {
+    boolean follow;
+    List<StoredPage> toStore;
+    synchronized (this) {
+      // Another thread may have reached the limit while this page was downloading
+      if (count >= maxCount)
+        return;
+      boolean duplicate = currentPage.indexAllowed() && isNearDuplicate(currentPage);
+      if (currentPage.indexAllowed() && (!duplicate || markDuplicates)) {
+        count++;
+        System.out.println("Indexing" + "(" + count + "): " + currentPage.getLink());
+        indexPage(currentPage);
+        stats.pageIndexed();
+        if (checkpoint != null) {
+          // isNearDuplicate added the SimHash of a usable page that is not a duplicate
+          SimHash simHash = (simHashes != null && !duplicate) ? currentPage.getSimHash() : null;
+          checkpoint.indexed(count, currentPage.getLink(), checkpointLinks(currentPage),
+              (simHash != null && simHash.isUsable()) ? simHash : null);
+        }
+      }
+      follow = count < maxCount && (!duplicate || followDuplicates);
+      toStore = pagesToStore;
+      pagesToStore = new ArrayList<StoredPage>();
+    }
+    storePages(toStore);
+    if (follow) {
+      List<Link> newLinks = getNewLinks(currentPage);
+      // System.out.println("Adding the following links" + newLinks);
+      // Add new links to end of queue
+      enqueue(newLinks);
+    }
+  }
+
+  /**
+   * Returns true if a page is nearly the same as one already indexed:
+   * if their SimHashes differ in at most <code>simHashDistance</code>
+   * bits.  Otherwise the SimHash of the page is added to
+   * <code>simHashes</code>, since the page is about to be indexed.
+   * Always false if <code>simHashes</code> is not set or the page has
+   * too little text to tell.  Near-duplicates are counted, and listed
+   * in <code>DUPLICATES_FILE</code> if <code>markDuplicates</code> is
+   * set.
+   *
+   * @param page A downloaded page that may be indexed.
+   */
+  protected synchronized boolean isNearDuplicate(HTMLPage page) {
+    if (simHashes == null)
+      return false;
+    SimHash simHash = page.getSimHash();
+    if (!simHash.isUsable())
+      return false;
+    SimHashIndex.Match<String> match = simHashes.find(simHash.getHash());
+    String url = page.getLink().getURL().toString();
+    if (match == null) {
+      simHashes.add(simHash.getHash(), url);
+      return false;
+    }
+    System.out.println("Near-duplicate of " + match.value + " (distance " + match.distance + ")");
+    stats.increment("Near-duplicates");
+    if (markDuplicates) {
+      try {
+        if (duplicatesOut == null)
+          duplicatesOut = new PrintWriter(new FileWriter(new File(saveDir, DUPLICATES_FILE)), true);
+        duplicatesOut.println(url + " " + match.value + " " + match.distance);
+      }
+      catch (IOException e) {
+        System.err.println("Spider.isNearDuplicate(): " + e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds links to the end of the queue.  Each link's URL is cleaned
+   * and the link is added to <code>visited</code>; links that were
+   * already there have been queued before and are dropped here
+   * rather than after they reach the front of the queue.  The
+   * retriever is told about each new link so it can prepare for its
+   * host (e.g. by reading robots.txt) before the link is reached.
+   * New links that <code>trapDetector</code> rejects are dropped and
+   * counted by the reason given.
+   *
+   * @param links The links to add.
+   */
+  protected synchronized void enqueue(List<Link> links) {
+    int duplicates = 0, dropped = 0, trapped = 0;
+    for (Link link : links) {
+      link.cleanURL(); // Standardize and clean the URL for the link
+      String trap;
+      if (!visited.add(link))
+        duplicates++;
+      else if (circuitBreaker != null && !circuitBreaker.allow(link.getURL().getHost())) {
+        dropped++;
+        if (checkpoint != null)
+          checkpoint.visited(link);
+      }
+      else if (trapDetector != null && (trap = trapDetector.check(link.getURL())) != null) {
+        trapped++;
+        stats.increment("Links rejected (" + trap + ")");
+        if (checkpoint != null)
+          checkpoint.visited(link);
+      }
+      else {
+        linksToVisit.add(link);
+        retriever.prefetch(link.getURL());
+        if (checkpoint != null)
+          checkpoint.queued(link);
+      }
+    }
+    stats.increment("Links queued", links.size() - duplicates - dropped - trapped);
+    stats.increment("Duplicate links suppressed", duplicates);
+    if (dropped > 0)
+      stats.increment("Links dropped (host failing)", dropped);
+    notifyAll();
+  }
+
+  /**
+   * Check if this is a link to an HTML page.
+   *
+   * @return true if a directory or clearly an HTML page
+   */
+  protected boolean linkToHTMLPage(Link link) {
+    String extension = MoreString.fileExtension(link.getURL().getPath());
+    if (extension.equals("") || extension.equalsIgnoreCase("html") ||
+        extension.equalsIgnoreCase("htm") || extension.equalsIgnoreCase("shtml"))
+      return true;
+    return false;
+  }
+
+  /**
+   * Returns a list of links to follow from a given page: those in
+   * <code>scope</code>, or all of them if it is not set.  Subclasses
+   * can use this method to direct the spider's path over the web by
+   * returning a subset of the links on the page, though most can
+   * instead limit the scope (see {@link #createScope createScope}).
+   *
+   * @param page The current page.
+   * @return Links to be visited from this page
+   */
+  protected List<Link> getNewLinks(HTMLPage page) {
+    List<Link> links = page.extractLinks();
+    if (scope == null)
+      return links;
+    List<Link> inScope = scope.filter(links, page.getLink());
+    page.setOutLinks(inScope);
+    stats.increment("Links out of scope", links.size() - inScope.size());
+    return inScope;
+  }
+
+  /**
+   * "Indexes" a <code>HTMLpage</code>.  This version just writes it
+   * out to a file in the specified directory with a "P<count>.html" file name
+   * (see {@link #writePage writePage}).
+   *
+   * @param page An <code>HTMLPage</code> that contains the page to
+   *             index.
+   */
+  protected void indexPage(HTMLPage page) {
+    writePage(page,
+        "P" + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1));
+  }
+
+  /**
+   * Saves a page under the given name.  In a pipelined crawl the page
+   * is added to <code>pagesToStore</code>, which
+   * <code>processPage</code> queues for the store stage once it has
+   * released the lock; otherwise it is saved at once by {@link
+   * #storePage storePage}.  Called by <code>indexPage</code>, with the
+   * spider's lock held and the page's count in <code>count</code>; a
+   * page saved in the background is announced to
+   * <code>checkpoint</code>, which does not count it until {@link
+   * #pageSaved pageSaved} is called for it.
+   *
+   * @param page The page to save.
+   * @param name The name of the page, without the ".html" extension.
+   */
+  protected void writePage(HTMLPage page, String name) {
+    int number = count;
+    if (checkpoint != null && (storeStage != null || pageWriter != null))
+      checkpoint.pageSaving(number);
+    if (storeStage != null)
+      pagesToStore.add(new StoredPage(page, name, number));
+    else
+      storePage(page, name, number);
+  }
+
+  /**
+   * Queues pages for the store stage, waiting while its queue is full.
+   * Called without the spider's lock.  If the wait is interrupted the
+   * pages are saved at once instead.
+   *
+   * @param pages Pages collected by <code>writePage</code>.
+   */
+  protected void storePages(List<StoredPage> pages) {
+    PipelineStage<StoredPage> stage = storeStage;
+    boolean interrupted = false;
+    for (StoredPage stored : pages) {
+      if (stage != null && !interrupted) {
+        try {
+          stage.put(stored);
+          continue;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      storePage(stored.page, stored.name, stored.number);
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Called once the page with the given count has been saved, by
+   * whichever thread saved it.  Tells <code>checkpoint</code> it may
+   * count the page.
+   */
+  protected void pageSaved(int number) {
+    if (checkpoint != null)
+      checkpoint.pageSaved(number);
+  }
+
+  /**
+   * Saves a page under the given name: adds it to
+   * <code>pageStore</code> if there is one, otherwise writes it to the
+   * file <code>name</code>.html in <code>saveDir</code>.  With a
+   * <code>pageWriter</code> the page is only handed to it, to be saved
+   * in the background.  May be called by several threads at once.
+   *
+   * @param page   The page to save.
+   * @param name   The name of the page, without the ".html" extension.
+   * @param number The page's count, passed to {@link #pageSaved
+   *               pageSaved} once it is saved.
+   */
+  protected void storePage(HTMLPage page, String name, int number) {
+    if (pageWriter != null) {
+      pageWriter.write(page, name, number);
+      return;
+    }
+    if (pageStore == null)
+      page.write(saveDir, name);
+    else {
+      try {
+        pageStore.add(name, page);
+      }
+      catch (IOException e) {
+        System.err.println("Spider.storePage(): " + e);
+      }
+    }
+    pageSaved(number);
+  }
+
+  /**
+   * Spider the web according to the command options described in
+   * {@link #processArgs processArgs}.
    */
   public static void main(String args[]) {
     new Spider().go(args);
@@ -0,0 +1,268 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * TrapDetector recognizes the URLs of crawler traps: parts of a site
+ * that generate an endless supply of URLs, such as calendars with a
+ * link to the next day forever, faceted navigation that combines
+ * filters in every possible order, and relative links that make paths
+ * grow by a directory on every page.  A spider asks it to {@link
+ * #check check} each new URL before queueing it and drops the URLs it
+ * rejects, so the crawl budget is spent on pages that add something.
+ * <p>
+ * A URL is rejected if
+ * <ul>
+ * <li>its path has more than <code>maxDepth</code> segments,</li>
+ * <li>a segment occurs more than <code>maxSegmentRepeats</code> times
+ * in its path (e.g. /a/b/a/b/a/b/),</li>
+ * <li>its query has more than <code>maxParameters</code>
+ * parameters, or a parameter more than <code>maxSegmentRepeats</code>
+ * times,</li>
+ * <li>its host and path have already been seen with
+ * <code>maxParameterSets</code> different sets of parameter names, and
+ * its set is a new one, or</li>
+ * <li><code>patternBudget</code> URLs of its host have already been
+ * accepted with the same pattern.  The pattern of a URL is its path
+ * with each run of digits replaced by # and each very long segment (an
+ * ID, most likely) by *, followed by the sorted names of its query
+ * parameters, so /cal/2024/05/12?view=day and /cal/1999/12/31?view=week
+ * share the pattern /cal/#/#/#?view.</li>
+ * </ul>
+ * Patterns and sets of parameter names are kept as 64-bit {@link
+ * Fingerprint Fingerprint}s.  All methods are synchronized so one
+ * instance can be shared by crawl threads.
+ *
+ * @author Garrett Kelley
+ */
+public class TrapDetector {
+
+  /**
+   * Default number of URLs accepted per pattern and host
+   */
+  public static final int DEFAULT_PATTERN_BUDGET = 1000;
+
+  /**
+   * Segments longer than this are replaced by * in patterns
+   */
+  public static final int MAX_PATTERN_SEGMENT = 24;
+
+  /**
+   * The greatest number of segments in a path
+   */
+  protected int maxDepth = 16;
+
+  /**
+   * The greatest number of times a segment may occur in a path, or a
+   * parameter in a query
+   */
+  protected int maxSegmentRepeats = 2;
+
+  /**
+   * The greatest number of parameters in a query
+   */
+  protected int maxParameters = 10;
+
+  /**
+   * The greatest number of sets of parameter names for one path
+   */
+  protected int maxParameterSets = 16;
+
+  /**
+   * The number of URLs accepted per pattern and host
+   */
+  protected int patternBudget;
+
+  /**
+   * The number of URLs accepted for each pattern, by fingerprint of
+   * the host and pattern
+   */
+  protected Map<Long, Integer> patternCounts = new HashMap<Long, Integer>();
+
+  /**
+   * The sets of parameter names seen for each host and path, by
+   * fingerprint
+   */
+  protected Map<Long, Set<Long>> parameterSets = new HashMap<Long, Set<Long>>();
+
+  /**
+   * The number of patterns that used up their budget
+   */
+  protected int exhaustedPatterns = 0;
+
+  /**
+   * The number of URLs rejected
+   */
+  protected long rejected = 0;
+
+  /**
+   * Creates a detector with the default limits.
+   */
+  public TrapDetector() {
+    this(DEFAULT_PATTERN_BUDGET);
+  }
+
+  /**
+   * Creates a detector with the given budget for each URL pattern and
+   * the default for the other limits.
+   *
+   * @param patternBudget The number of URLs accepted per pattern and
+   *                      host, at least 1.
+   */
+  public TrapDetector(int patternBudget) {
+    if (patternBudget < 1)
+      throw new IllegalArgumentException("patternBudget must be at least 1: " + patternBudget);
+    this.patternBudget = patternBudget;
+  }
+
+  /**
+   * Sets the greatest number of segments in a path.
+   */
+  public synchronized void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Sets the greatest number of times a segment may occur in a path,
+   * or a parameter in a query.
+   */
+  public synchronized void setMaxSegmentRepeats(int maxSegmentRepeats) {
+    this.maxSegmentRepeats = maxSegmentRepeats;
+  }
+
+  /**
+   * Sets the greatest number of parameters in a query.
+   */
+  public synchronized void setMaxParameters(int maxParameters) {
+    this.maxParameters = maxParameters;
+  }
+
+  /**
+   * Sets the greatest number of sets of parameter names for one path.
+   */
+  public synchronized void setMaxParameterSets(int maxParameterSets) {
+    this.maxParameterSets = maxParameterSets;
+  }
+
+  /**
+   * Checks a new URL, and counts it against its pattern if it is
+   * accepted.  Each URL should be checked only once.
+   *
+   * @return <code>null</code> if the URL is accepted, otherwise why it
+   *         was rejected, for the crawl statistics.
+   */
+  public synchronized String check(URL url) {
+    String reason = rejection(url);
+    if (reason != null)
+      rejected++;
+    return reason;
+  }
+
+  /**
+   * Returns why a URL is rejected, or <code>null</code> after counting
+   * it against its pattern.
+   */
+  protected String rejection(URL url) {
+    String host = url.getHost();
+    String path = url.getPath();
+    List<String> segments = new ArrayList<String>();
+    for (String segment : path.split("/")) {
+      if (segment.length() > 0)
+        segments.add(segment);
+    }
+    if (segments.size() > maxDepth)
+      return "path too deep";
+    Map<String, Integer> occurrences = new HashMap<String, Integer>();
+    for (String segment : segments) {
+      Integer n = occurrences.get(segment);
+      n = (n == null) ? 1 : n + 1;
+      if (n > maxSegmentRepeats)
+        return "repeated path segments";
+      occurrences.put(segment, n);
+    }
+    List<String> names = parameterNames(url.getQuery());
+    if (names.size() > maxParameters)
+      return "too many query parameters";
+    occurrences.clear();
+    for (String name : names) {
+      Integer n = occurrences.get(name);
+      n = (n == null) ? 1 : n + 1;
+      if (n > maxSegmentRepeats)
+        return "repeated query parameters";
+      occurrences.put(name, n);
+    }
+    String nameSet = String.join("&", new TreeSet<String>(names));
+    if (!names.isEmpty()) {
+      long pathKey = Fingerprint.of(host + path);
+      Set<Long> sets = parameterSets.get(pathKey);
+      if (sets == null) {
+        sets = new HashSet<Long>();
+        parameterSets.put(pathKey, sets);
+      }
+      long setKey = Fingerprint.of(nameSet);
+      if (!sets.contains(setKey)) {
+        if (sets.size() >= maxParameterSets)
+          return "too many query parameter combinations";
+        sets.add(setKey);
+      }
+    }
+    long patternKey = Fingerprint.of(host + pattern(segments, path.endsWith("/")) + "?" + nameSet);
+    Integer count = patternCounts.get(patternKey);
+    count = (count == null) ? 1 : count + 1;
+    if (count > patternBudget)
+      return "URL pattern over budget";
+    if (count == patternBudget)
+      exhaustedPatterns++;
+    patternCounts.put(patternKey, count);
+    return null;
+  }
+
+  /**
+   * Returns the pattern of a path: its segments with each run of
+   * digits replaced by # and each segment longer than
+   * <code>MAX_PATTERN_SEGMENT</code> by *.
+   */
+  protected static String pattern(List<String> segments, boolean endSlash) {
+    StringBuilder pattern = new StringBuilder();
+    for (String segment : segments) {
+      pattern.append('/');
+      if (segment.length() > MAX_PATTERN_SEGMENT)
+        pattern.append('*');
+      else
+        pattern.append(segment.replaceAll("[0-9]+", "#"));
+    }
+    if (endSlash)
+      pattern.append('/');
+    return pattern.toString();
+  }
+
+  /**
+   * Returns the names of the parameters in a query, in order, with
+   * repeats.
+   */
+  protected static List<String> parameterNames(String query) {
+    List<String> names = new ArrayList<String>();
+    if (query == null || query.length() == 0)
+      return names;
+    for (String parameter : query.split("[&;]")) {
+      if (parameter.length() == 0)
+        continue;
+      int equals = parameter.indexOf('=');
+      names.add((equals < 0) ? parameter : parameter.substring(0, equals));
+    }
+    return names;
+  }
+
+  /**
+   * Returns the number of URLs rejected.
+   */
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  public synchronized String toString() {
+    return rejected + " links rejected, " + patternCounts.size() + " URL patterns, " + exhaustedPatterns
+        + " of them used up their budget of " + patternBudget;
+  }
+}
@@ -0,0 +1,241 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * URLCanonicalizer is a static utility class that puts URLs into a
+ * standard form without touching the network, so that different
+ * spellings of the same address are recognized as one page.  The
+ * canonical form has a lowercase scheme and host, no default port,
+ * no fragment ("ref"), a path with "." and ".." segments resolved
+ * and unnecessary %-escapes decoded, and a query whose parameters are
+ * sorted by name with session-tracking parameters removed.
+ * <p>
+ * Redirects are not followed here; a spider learns about them from
+ * the response when it actually downloads the page.
+ *
+ * @author Garrett Kelley
+ */
+public class URLCanonicalizer {
+
+  /**
+   * Names of query (and ";" path) parameters that are removed
+   * because they only track sessions and do not change the page.
+   * Compared in lower case.  Short or generic names such as "sid" are
+   * left alone, since many sites use them for the content itself.
+   */
+  protected static Set<String> strippedParameters = new HashSet<String>(Arrays.asList(
+      "jsessionid", "phpsessid", "aspsessionid", "sessionid"));
+
+  /**
+   * Prefix of the names of referral-tracking (Google Analytics)
+   * parameters, which are all removed
+   */
+  protected static final String TRACKING_PREFIX = "utm_";
+
+  /**
+   * Whether query parameters are sorted by name
+   */
+  protected static boolean sortQuery = true;
+
+  /**
+   * Adds a parameter name to the set of query parameters that are
+   * removed from URLs.  Should be called before crawling starts.
+   *
+   * @param name The parameter name (case is ignored).
+   */
+  public static void addStrippedParameter(String name) {
+    strippedParameters.add(name.toLowerCase());
+  }
+
+  /**
+   * Returns true if a parameter, whose name is given in lower case, is
+   * removed from URLs.
+   */
+  protected static boolean isStripped(String name) {
+    return strippedParameters.contains(name) || name.startsWith(TRACKING_PREFIX);
+  }
+
+  /**
+   * Sets whether query parameters are sorted by name.  Should be
+   * called before crawling starts.
+   */
+  public static void setSortQuery(boolean sort) {
+    sortQuery = sort;
+  }
+
+  /**
+   * Returns the canonical form of a URL.  URLs that are not HTTP(S)
+   * only have their fragment removed; "mailto:" URLs are returned
+   * unchanged.
+   *
+   * @param url The URL to standardize.
+   * @return The canonical URL, or <code>url</code> itself if it could
+   *         not be standardized.
+   */
+  public static URL canonicalize(URL url) {
+    String scheme = url.getProtocol().toLowerCase();
+    if (scheme.equals("mailto"))
+      return url;
+    if (!scheme.equals("http") && !scheme.equals("https"))
+      return Link.removeRef(url);
+
+    StringBuilder buf = new StringBuilder(url.toString().length());
+    buf.append(scheme).append("://");
+    if (url.getUserInfo() != null)
+      buf.append(url.getUserInfo()).append('@');
+    String host = url.getHost().toLowerCase();
+    if (host.endsWith("."))
+      host = host.substring(0, host.length() - 1);
+    buf.append(host);
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+      buf.append(':').append(url.getPort());
+    buf.append(normalizePath(url.getPath()));
+    String query = normalizeQuery(url.getQuery());
+    if (query.length() > 0)
+      buf.append('?').append(query);
+    try {
+      return new URL(buf.toString());
+    }
+    catch (MalformedURLException e) {
+      System.err.println("URLCanonicalizer: " + e);
+      return url;
+    }
+  }
+
+  /**
+   * Returns a normalized path: never empty, with "." and ".."
+   * segments resolved, session parameters after ";" removed, and
+   * %-escapes normalized.
+   */
+  protected static String normalizePath(String path) {
+    if (path.length() == 0)
+      return "/";
+    // Remove ";jsessionid=..." style path parameters
+    int semi = path.indexOf(';');
+    if (semi >= 0) {
+      int eq = path.indexOf('=', semi);
+      String name = (eq < 0 ? path.substring(semi + 1) : path.substring(semi + 1, eq)).toLowerCase();
+      if (isStripped(name))
+        path = path.substring(0, semi);
+    }
+    return normalizeEscapes(removeDotSegments(path));
+  }
+
+  /**
+   * Resolves "." and ".." segments as in section 5.2.4 of RFC 3986.
+   */
+  protected static String removeDotSegments(String path) {
+    if (path.indexOf("/.") < 0)
+      return path;
+    LinkedList<String> segments = new LinkedList<String>();
+    String[] parts = path.split("/", -1);
+    // parts[0] is the empty string before the leading slash
+    for (int i = 1; i < parts.length; i++) {
+      String part = parts[i];
+      boolean last = (i == parts.length - 1);
+      if (part.equals(".")) {
+        if (last)
+          segments.add("");
+      }
+      else if (part.equals("..")) {
+        if (!segments.isEmpty())
+          segments.removeLast();
+        if (last)
+          segments.add("");
+      }
+      else
+        segments.add(part);
+    }
+    StringBuilder buf = new StringBuilder(path.length());
+    for (String segment : segments)
+      buf.append('/').append(segment);
+    return (buf.length() == 0) ? "/" : buf.toString();
+  }
+
+  /**
+   * Decodes %-escapes of unreserved characters (letters, digits, "-",
+   * ".", "_" and "~") and uppercases the hex digits of all others, so
+   * equivalent encodings compare equal.
+   */
+  protected static String normalizeEscapes(String s) {
+    if (s.indexOf('%') < 0)
+      return s;
+    StringBuilder buf = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '%' && i + 2 < s.length()
+          && Character.digit(s.charAt(i + 1), 16) >= 0 && Character.digit(s.charAt(i + 2), 16) >= 0) {
+        char decoded = (char) Integer.parseInt(s.substring(i + 1, i + 3), 16);
+        if (isUnreserved(decoded))
+          buf.append(decoded);
+        else
+          buf.append('%').append(Character.toUpperCase(s.charAt(i + 1)))
+              .append(Character.toUpperCase(s.charAt(i + 2)));
+        i += 2;
+      }
+      else
+        buf.append(c);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Returns true if <code>c</code> never needs to be %-escaped in a URL.
+   */
+  protected static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || c == '-' || c == '.' || c == '_' || c == '~';
+  }
+
+  /**
+   * Returns a normalized query string: empty and session parameters
+   * removed and, if <code>sortQuery</code> is set, the remaining
+   * parameters sorted by name (keeping the original order of
+   * parameters with the same name).
+   */
+  protected static String normalizeQuery(String query) {
+    if (query == null || query.length() == 0)
+      return "";
+    List<String> params = new ArrayList<String>();
+    for (String param : query.split("&")) {
+      if (param.length() == 0)
+        continue;
+      int eq = param.indexOf('=');
+      String name = (eq < 0) ? param : param.substring(0, eq);
+      if (!isStripped(name.toLowerCase()))
+        params.add(normalizeEscapes(param));
+    }
+    if (sortQuery) {
+      Collections.sort(params, new Comparator<String>() {
+        public int compare(String a, String b) {
+          return parameterName(a).compareTo(parameterName(b));
+        }
+      });
+    }
+    StringBuilder buf = new StringBuilder(query.length());
+    for (String param : params) {
+      if (buf.length() > 0)
+        buf.append('&');
+      buf.append(param);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Returns the name part of a "name=value" query parameter.
+   */
+  private static String parameterName(String param) {
+    int eq = param.indexOf('=');
+    return (eq < 0) ? param : param.substring(0, eq);
+  }
+
+  /**
+   * Prints the canonical form of each URL given on the command line.
+   */
+  public static void main(String[] args) throws MalformedURLException {
+    for (String arg : args)
+      System.out.println(arg + " -> " + canonicalize(new URL(arg)));
+  }
+}
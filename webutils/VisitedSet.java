@@ -0,0 +1,176 @@
+package ir.webutils;
+
+import java.io.*;
+
+/**
+ * VisitedSet records which links a spider has already seen, keeping
+ * only a 64-bit fingerprint of each canonical URL rather than the
+ * <code>Link</code> itself.  Fingerprints are kept exactly in a
+ * {@link FingerprintSet FingerprintSet} (10-15 bytes per URL).
+ * Optionally a second, approximate tier can be enabled: once the
+ * exact tier holds a given number of URLs, further URLs go into a
+ * {@link BloomFilter BloomFilter} with a chosen false positive rate
+ * (about 1.2 bytes per URL at 1%), so memory stays bounded in very
+ * large crawls at the cost of occasionally skipping a new page.
+ * <p>
+ * A set can be saved to a file and loaded again, for example to
+ * continue a crawl in the same output directory.
+ *
+ * @author Garrett Kelley
+ */
+public class VisitedSet {
+
+  /**
+   * Identifies files written by <code>save</code>
+   */
+  protected static final int MAGIC = 0x56495354; // "VIST"
+
+  /**
+   * The exact tier
+   */
+  protected FingerprintSet exact;
+
+  /**
+   * The approximate tier, <code>null</code> if not enabled
+   */
+  protected BloomFilter bloom = null;
+
+  /**
+   * The number of URLs the exact tier holds before new URLs go to the
+   * approximate tier
+   */
+  protected int exactLimit = Integer.MAX_VALUE;
+
+  /**
+   * Constructs a set that keeps all fingerprints exactly.
+   */
+  public VisitedSet() {
+    exact = new FingerprintSet();
+  }
+
+  /**
+   * Constructs a set whose exact tier holds at most
+   * <code>exactLimit</code> URLs, after which URLs are added to a
+   * Bloom filter sized for <code>expectedSize</code> URLs with the
+   * given false positive rate.
+   *
+   * @param exactLimit        Maximum number of URLs kept exactly (may be 0).
+   * @param expectedSize      Expected number of URLs in the Bloom filter.
+   * @param falsePositiveRate False positive rate of the Bloom filter.
+   */
+  public VisitedSet(int exactLimit, long expectedSize, double falsePositiveRate) {
+    this.exact = new FingerprintSet();
+    this.exactLimit = exactLimit;
+    this.bloom = new BloomFilter(expectedSize, falsePositiveRate);
+  }
+
+  /**
+   * Adds a link to the set.
+   *
+   * @return <code>true</code> iff. the link was not already in the set.
+   */
+  public boolean add(Link link) {
+    return add(link.fingerprint());
+  }
+
+  /**
+   * Adds a URL fingerprint to the set.
+   *
+   * @return <code>true</code> iff. the fingerprint was not already in the set.
+   */
+  public boolean add(long fingerprint) {
+    if (bloom == null)
+      return exact.add(fingerprint);
+    if (exact.contains(fingerprint))
+      return false;
+    if (exact.size() < exactLimit)
+      return exact.add(fingerprint);
+    return bloom.add(fingerprint);
+  }
+
+  /**
+   * Returns true if the link is in the set (or, for links beyond the
+   * exact tier, may be).
+   */
+  public boolean contains(Link link) {
+    long fingerprint = link.fingerprint();
+    return exact.contains(fingerprint) || (bloom != null && bloom.contains(fingerprint));
+  }
+
+  /**
+   * Returns the number of URLs in the set.
+   */
+  public long size() {
+    return exact.size() + (bloom == null ? 0 : bloom.size());
+  }
+
+  /**
+   * Returns the approximate number of bytes of memory used by the set.
+   */
+  public long memoryBytes() {
+    return exact.memoryBytes() + (bloom == null ? 0 : bloom.memoryBytes());
+  }
+
+  /**
+   * Writes the set to a file.
+   */
+  public void save(File file) throws IOException {
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      write(out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the set to a stream, for example as part of a larger file.
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(exactLimit);
+    exact.write(out);
+    out.writeBoolean(bloom != null);
+    if (bloom != null)
+      bloom.write(out);
+  }
+
+  /**
+   * Reads a set written by <code>save</code>.
+   */
+  public static VisitedSet load(File file) throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      return read(in);
+    }
+    catch (IOException e) {
+      throw new IOException("Not a visited set file: " + file, e);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads a set written by <code>write</code>.
+   */
+  public static VisitedSet read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not a visited set");
+    VisitedSet set = new VisitedSet();
+    set.exactLimit = in.readInt();
+    set.exact = FingerprintSet.read(in);
+    if (in.readBoolean())
+      set.bloom = BloomFilter.read(in);
+    return set;
+  }
+
+  public String toString() {
+    long size = size();
+    return size + " URLs in " + memoryBytes() + " bytes"
+        + (size > 0 ? " (" + Math.round(10.0 * memoryBytes() / size) / 10.0 + " bytes/URL)" : "");
+  }
+}
@@ -7,13 +7,25 @@ package ir.webutils;
  * Ted Wild
  */
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 /**
@@ -24,6 +36,61 @@ import java.net.URLConnection;
  */
 public class WebPage {
 
+  /**
+   * How many bytes at the start of a page are searched for a META
+   * tag giving the character set.
+   */
+  protected static final int CHARSET_SNIFF_LENGTH = 1024;
+
+  /**
+   * How many bytes at the start of a body are examined to decide
+   * whether it is HTML.
+   */
+  protected static final int TYPE_SNIFF_LENGTH = 512;
+
+  /**
+   * Content types that may be HTML, so the body is examined
+   */
+  protected static final List<String> possibleHTMLTypes = Arrays.asList(
+      "", "text/html", "application/xhtml+xml", "text/plain", "application/octet-stream",
+      "content/unknown");
+
+  /**
+   * Signatures at the start of common formats that are not HTML, and
+   * the name of each format
+   */
+  protected static final String[][] signatures = {
+      {"%PDF", "PDF"}, {"\u0089PNG", "PNG"}, {"GIF8", "GIF"}, {"\u00ff\u00d8\u00ff", "JPEG"},
+      {"PK\u0003\u0004", "ZIP"}, {"\u001f\u008b", "gzip"}, {"BZh", "bzip2"}, {"7z\u00bc\u00af", "7z"},
+      {"Rar!", "RAR"}, {"%!PS", "PostScript"}, {"\u007fELF", "ELF"}, {"ID3", "MP3"},
+      {"OggS", "Ogg"}, {"RIFF", "RIFF"}, {"\u00d0\u00cf\u0011\u00e0", "MS Office"},
+      {"{\\rtf", "RTF"}, {"wOFF", "WOFF"}};
+
+  /**
+   * Finds the character set in a Content-Type header value.
+   */
+  protected static final Pattern headerCharset =
+      Pattern.compile("(?i)charset\\s*=\\s*[\"']?([\\w.:-]+)");
+
+  /**
+   * Finds the character set in a META tag.
+   */
+  protected static final Pattern metaCharset =
+      Pattern.compile("(?i)<meta[^>]*charset\\s*=\\s*[\"']?([\\w.:-]+)");
+
+  /**
+   * Per-thread buffer that page bodies are read into, so a crawl
+   * does not allocate a new buffer for every page.  A buffer grown
+   * past <code>PageBuffer.MAX_KEPT_SIZE</code> by a large page goes
+   * back to its initial size afterwards, so each crawl thread does not
+   * hold on to the largest page it has seen.
+   */
+  private static final ThreadLocal<PageBuffer> buffers = new ThreadLocal<PageBuffer>() {
+    protected PageBuffer initialValue() {
+      return new PageBuffer();
+    }
+  };
+
   /**
    * Downloads the web page specified by the URL represented by a
    * given string.
@@ -55,33 +122,389 @@ public class WebPage {
    *         page.  No extra parsing work is done on the page.
    */
   public static String getWebPage(URL url) {
+    return fetch(url).getText();
+  }
 
-    // using a StringBuffer instead of a String has huge
-    // performance benefits.
-    StringBuffer page = new StringBuffer();
+  /**
+   * Downloads the page at the given URL with a single request,
+   * reading any content in full.
+   *
+   * @param url The URL to download.
+   * @return The response, with empty text if the page could not be
+   *         read.
+   */
+  public static WebResponse fetch(URL url) {
+    return fetch(url, new FetchOptions());
+  }
 
+  /**
+   * Downloads the page at the given URL with a single request.  The
+   * body is read as raw bytes into a reusable per-thread buffer and
+   * decoded once, using the character set named in the Content-Type
+   * header, or failing that in a META tag near the start of the page,
+   * or failing that the platform default.
+   * <p>
+   * Unless the options say otherwise, gzip and deflate compression
+   * are offered to the server and a compressed body is decompressed
+   * as it is read; the response records the bytes received as well
+   * as the bytes of the decompressed body.
+   * <p>
+   * The connect and read timeouts and the page deadline of the
+   * options bound how long a stalled server can hold up the caller;
+   * a download stopped by one of them is marked as timed out (see
+   * {@link WebResponse#timedOut WebResponse.timedOut}).
+   * <p>
+   * If the options ask for HTML only, the Content-Type header and the
+   * first few hundred bytes of the body are examined first, and a
+   * body that is not HTML is abandoned (see {@link
+   * WebResponse#getSkipReason WebResponse.getSkipReason}).  A body
+   * longer than the maximum size is cut off (see {@link
+   * WebResponse#truncated WebResponse.truncated}).  In both cases the
+   * connection is closed so the rest is not downloaded.
+   *
+   * @param url     The URL to download.
+   * @param options How to download it.
+   * @return The response, with empty text if the page could not be
+   *         read or was skipped.
+   */
+  public static WebResponse fetch(URL url, FetchOptions options) {
+    WebResponse response = new WebResponse(url);
+    URLConnection connection = null;
+    long deadline = (options.getDeadline() < 0) ? Long.MAX_VALUE
+        : System.currentTimeMillis() + options.getDeadline();
     try {
-      URLConnection connection = url.openConnection();
-      String line;
-      BufferedReader in;
-      if (connection.getContentEncoding() == null)
-        in = new BufferedReader(new InputStreamReader(url.openStream()));
-      else
-        in = new BufferedReader(new InputStreamReader(url.openStream(),
-            connection.getContentEncoding()));
-      while ((line = in.readLine()) != null)
-        page.append(line).append('\n');
+      connection = url.openConnection();
+      connection.setConnectTimeout(options.getConnectTimeout());
+      connection.setReadTimeout(options.getReadTimeout());
+      if (options.getAcceptCompression() && connection instanceof HttpURLConnection)
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+      InputStream body = connection.getInputStream();
+      readResponseHead(connection, response);
+      // The connection knows the final URL once redirects have been followed
+      response.finalURL = connection.getURL();
+      response.contentLength = connection.getContentLengthLong();
+      readBody(body, connection, response, options, deadline);
+    }
+    catch (IOException e) {
+      response.error = e.toString();
+      if (e instanceof SocketTimeoutException) {
+        response.timedOut = true;
+        // Do not leave a stalled connection open for reuse
+        if (connection instanceof HttpURLConnection)
+          ((HttpURLConnection) connection).disconnect();
+      }
+      else if (connection != null)
+        readResponseHead(connection, response);
+      System.err.println("WebPage.fetch(): " + e);
+    }
+    return response;
+  }
 
-      in.close();
+  /**
+   * Reads the body of a response whose status and headers have been
+   * filled in, decompressing it, abandoning it if it is not HTML or
+   * cutting it off at the maximum size as the options say, and
+   * decoding the text.
+   *
+   * @param body       The raw body stream.
+   * @param connection The connection the body comes from, so it can be
+   *                   closed rather than drained if reading is
+   *                   stopped early, or <code>null</code> if closing
+   *                   <code>body</code> is enough.
+   * @param deadline   The time in milliseconds by which reading must
+   *                   be finished.
+   */
+  protected static void readBody(InputStream body, URLConnection connection, WebResponse response,
+                                 FetchOptions options, long deadline) throws IOException {
+    CountingInputStream counter = new CountingInputStream(body);
+    InputStream in = decompress(counter, response);
+    PageBuffer buffer = buffers.get();
+    buffer.length = 0;
+    try {
+      try {
+        if (options.getHTMLOnly()) {
+          buffer.readAtLeast(in, TYPE_SNIFF_LENGTH, deadline);
+          response.skipReason = notHTMLReason(response.getHeader("Content-Type"), buffer);
+          if (response.skipReason != null) {
+            abort(connection, in);
+            return;
+          }
+        }
+        response.truncated = !buffer.readRest(in, options.getMaxBodySize(), deadline);
+        if (response.truncated)
+          abort(connection, in);
+        else
+          in.close();
+      }
+      finally {
+        response.bytesRead = buffer.length;
+        response.bytesTransferred = counter.count;
+      }
+      response.charset = getCharset(response, buffer);
+      response.text = buffer.decode(response.charset);
+    }
+    finally {
+      buffer.shrink();
+    }
+  }
+
+  /**
+   * Decides from the Content-Type header and the first bytes of the
+   * body whether a response is not HTML.  Types that might be HTML
+   * (including none at all) are judged by the body: a known file
+   * signature or a NUL byte means it is not.
+   *
+   * @return A description of why the response is not HTML, or
+   *         <code>null</code> if it may be HTML.
+   */
+  protected static String notHTMLReason(String contentType, PageBuffer buffer) {
+    String type = "";
+    if (contentType != null) {
+      type = contentType.toLowerCase();
+      int semicolon = type.indexOf(';');
+      if (semicolon != -1)
+        type = type.substring(0, semicolon);
+      type = type.trim();
+    }
+    if (!possibleHTMLTypes.contains(type))
+      return "Content-Type " + type;
+    for (String[] signature : signatures) {
+      String magic = signature[0];
+      if (buffer.length >= magic.length()) {
+        int i = 0;
+        while (i < magic.length() && (buffer.bytes[i] & 0xff) == magic.charAt(i))
+          i++;
+        if (i == magic.length())
+          return signature[1] + " content";
+      }
+    }
+    if (!type.equals("text/html") && !type.equals("application/xhtml+xml")) {
+      for (int i = 0; i < Math.min(buffer.length, TYPE_SNIFF_LENGTH); i++)
+        if (buffer.bytes[i] == 0)
+          return "binary content";
+    }
+    return null;
+  }
+
+  /**
+   * Wraps a response body in a decompressing stream if the server
+   * compressed it, recording the encoding in the response.  A
+   * "deflate" body may be zlib-wrapped, as the HTTP specification
+   * says, or raw deflate, as some servers send it; the first two
+   * bytes tell which.
+   */
+  protected static InputStream decompress(InputStream in, WebResponse response) throws IOException {
+    String encoding = response.getHeader("Content-Encoding");
+    if (encoding == null)
+      return in;
+    encoding = encoding.trim().toLowerCase();
+    if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+      response.contentEncoding = "gzip";
+      return new GZIPInputStream(in, 8192);
     }
-    catch (UnsupportedEncodingException e) {
-      System.err.println("WebPage.getWebPage(): " + e);
+    if (encoding.equals("deflate")) {
+      response.contentEncoding = "deflate";
+      in = new BufferedInputStream(in, 8192);
+      in.mark(2);
+      int first = in.read(), second = in.read();
+      in.reset();
+      boolean zlib = second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+      return new InflaterInputStream(in, new Inflater(!zlib), 8192);
+    }
+    return in;
+  }
+
+  /**
+   * Stops a download without reading the rest of the body.  For HTTP
+   * the connection is closed rather than drained.
+   */
+  protected static void abort(URLConnection connection, InputStream in) throws IOException {
+    if (connection instanceof HttpURLConnection) {
+      ((HttpURLConnection) connection).disconnect();
+      // Release any inflater; the socket is already gone, so errors do not matter
+      try {
+        in.close();
+      }
+      catch (IOException e) {
+      }
+    }
+    else
+      in.close();
+  }
+
+  /**
+   * Copies the status code and headers of a connection into a response.
+   */
+  protected static void readResponseHead(URLConnection connection, WebResponse response) {
+    try {
+      if (connection instanceof HttpURLConnection)
+        response.statusCode = ((HttpURLConnection) connection).getResponseCode();
     }
     catch (IOException e) {
-      System.err.println("WebPage.getWebPage(): " + e);
+      return;
+    }
+    for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+      // The status line is stored under a null key
+      if (header.getKey() != null)
+        response.headers.put(header.getKey(), header.getValue());
     }
+  }
 
-    return page.toString();
+  /**
+   * Determines the character set of a downloaded page.
+   */
+  protected static String getCharset(WebResponse response, PageBuffer buffer) {
+    String charset = null;
+    String contentType = response.getHeader("Content-Type");
+    if (contentType != null) {
+      Matcher matcher = headerCharset.matcher(contentType);
+      if (matcher.find())
+        charset = matcher.group(1);
+    }
+    if (charset == null) {
+      // Bytes below 128 decode the same in every charset a META tag could name
+      String head = new String(buffer.bytes, 0, Math.min(buffer.length, CHARSET_SNIFF_LENGTH),
+          StandardCharsets.ISO_8859_1);
+      Matcher matcher = metaCharset.matcher(head);
+      if (matcher.find())
+        charset = matcher.group(1);
+    }
+    try {
+      if (charset != null && Charset.isSupported(charset))
+        return Charset.forName(charset).name();
+    }
+    catch (IllegalArgumentException e) {
+      // Illegal charset name, fall through to the default
+    }
+    return Charset.defaultCharset().name();
+  }
+
+  /**
+   * An input stream that counts the bytes read through it.
+   */
+  protected static class CountingInputStream extends FilterInputStream {
+    /**
+     * The number of bytes read so far
+     */
+    long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1)
+        count++;
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0)
+        count += n;
+      return n;
+    }
+
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /**
+   * A growable byte buffer that is reused from page to page.
+   */
+  protected static class PageBuffer {
+    /**
+     * The size of a new buffer
+     */
+    static final int INITIAL_SIZE = 64 * 1024;
+    /**
+     * The largest buffer kept for the next page
+     */
+    static final int MAX_KEPT_SIZE = 256 * 1024;
+    /**
+     * The buffer itself
+     */
+    byte[] bytes = new byte[INITIAL_SIZE];
+    /**
+     * The number of valid bytes in the buffer
+     */
+    int length = 0;
+
+    /**
+     * Reads from a stream until the buffer holds at least
+     * <code>n</code> bytes or the stream ends.
+     *
+     * @param deadline The time in milliseconds by which reading must
+     *                 be finished.
+     * @throws SocketTimeoutException If the deadline passes.
+     */
+    void readAtLeast(InputStream in, int n, long deadline) throws IOException {
+      if (bytes.length < n)
+        bytes = Arrays.copyOf(bytes, n);
+      int read;
+      while (length < n && (read = in.read(bytes, length, n - length)) != -1) {
+        length += read;
+        checkDeadline(deadline);
+      }
+    }
+
+    /**
+     * Appends the rest of a stream to the buffer, stopping when the
+     * buffer holds <code>max</code> bytes.
+     *
+     * @param max      The most bytes to hold, or -1 for no limit.
+     * @param deadline The time in milliseconds by which reading must
+     *                 be finished.
+     * @return <code>false</code> if the stream was cut off at the limit.
+     * @throws SocketTimeoutException If the deadline passes.
+     */
+    boolean readRest(InputStream in, int max, long deadline) throws IOException {
+      int limit = (max < 0) ? Integer.MAX_VALUE - 8 : max;
+      while (true) {
+        checkDeadline(deadline);
+        if (length >= limit)
+          return in.read() == -1;
+        if (length == bytes.length)
+          bytes = Arrays.copyOf(bytes, (int) Math.min(limit, 2L * bytes.length));
+        int read = in.read(bytes, length, Math.min(bytes.length, limit) - length);
+        if (read == -1)
+          return true;
+        length += read;
+      }
+    }
+
+    /**
+     * Throws an exception if the deadline has passed.
+     */
+    static void checkDeadline(long deadline) throws SocketTimeoutException {
+      if (System.currentTimeMillis() > deadline)
+        throw new SocketTimeoutException("Page deadline passed");
+    }
+
+    /**
+     * Decodes the contents of the buffer.
+     */
+    String decode(String charset) {
+      return new String(bytes, 0, length, Charset.forName(charset));
+    }
+
+    /**
+     * Empties the buffer, going back to the initial size if a page has
+     * grown it past <code>MAX_KEPT_SIZE</code>.
+     */
+    void shrink() {
+      length = 0;
+      if (bytes.length > MAX_KEPT_SIZE)
+        bytes = new byte[INITIAL_SIZE];
+    }
   }
 
   /**
@@ -0,0 +1,265 @@
+package ir.webutils;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * WebResponse holds the result of downloading a single URL with
+ * {@link WebPage#fetch WebPage.fetch}: the decoded text of the page
+ * together with the HTTP status code, the response headers and the
+ * URL the content actually came from after any redirects.
+ *
+ * @author Garrett Kelley
+ */
+public class WebResponse {
+
+  /**
+   * The URL that was requested
+   */
+  protected final URL url;
+
+  /**
+   * The URL the content was actually read from, after redirects
+   */
+  protected URL finalURL;
+
+  /**
+   * The HTTP status code, or -1 if there was none (non-HTTP URL or
+   * the connection failed)
+   */
+  protected int statusCode = -1;
+
+  /**
+   * The response headers, keyed case-insensitively
+   */
+  protected Map<String, List<String>> headers =
+      new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+
+  /**
+   * The character set used to decode the body
+   */
+  protected String charset;
+
+  /**
+   * The decoded text of the body, empty if nothing could be read
+   */
+  protected String text = "";
+
+  /**
+   * The number of body bytes read, after decompression
+   */
+  protected long bytesRead = 0;
+
+  /**
+   * The number of body bytes received from the server, before
+   * decompression
+   */
+  protected long bytesTransferred = 0;
+
+  /**
+   * The Content-Encoding the body was decompressed from, or
+   * <code>null</code> if it was not compressed
+   */
+  protected String contentEncoding = null;
+
+  /**
+   * The length of the body given by the server (compressed, if it
+   * was), or -1 if unknown
+   */
+  protected long contentLength = -1;
+
+  /**
+   * Why the body was not read because it is not HTML, or
+   * <code>null</code> if it was read
+   */
+  protected String skipReason = null;
+
+  /**
+   * True if the body was cut off at the maximum size
+   */
+  protected boolean truncated = false;
+
+  /**
+   * The error that stopped the download, or <code>null</code> if
+   * there was none
+   */
+  protected String error = null;
+
+  /**
+   * True if the download was stopped by a timeout or the page deadline
+   */
+  protected boolean timedOut = false;
+
+  /**
+   * When the download started, in milliseconds since the epoch
+   */
+  protected final long fetchTime = System.currentTimeMillis();
+
+  /**
+   * Constructs an empty response for the given URL.
+   *
+   * @param url The requested URL.
+   */
+  public WebResponse(URL url) {
+    this.url = url;
+    this.finalURL = url;
+  }
+
+  /**
+   * Returns the URL that was requested.
+   */
+  public URL getURL() {
+    return url;
+  }
+
+  /**
+   * Returns the URL the content was read from.  Differs from
+   * <code>getURL()</code> if the request was redirected.
+   */
+  public URL getFinalURL() {
+    return finalURL;
+  }
+
+  /**
+   * Returns true if the request was redirected to another URL.
+   */
+  public boolean redirected() {
+    return !finalURL.toString().equals(url.toString());
+  }
+
+  /**
+   * Returns the HTTP status code, or -1 if there was none.
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * Returns all the response headers.  Lookups in the returned map
+   * ignore case.
+   */
+  public Map<String, List<String>> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Returns when the download started, in milliseconds since the
+   * epoch.
+   */
+  public long getFetchTime() {
+    return fetchTime;
+  }
+
+  /**
+   * Returns the last value of the named header, or <code>null</code>
+   * if the response did not include it.
+   *
+   * @param name The header name (case is ignored).
+   */
+  public String getHeader(String name) {
+    List<String> values = headers.get(name);
+    if (values == null || values.isEmpty())
+      return null;
+    return values.get(values.size() - 1);
+  }
+
+  /**
+   * Returns the name of the character set used to decode the body.
+   */
+  public String getCharset() {
+    return charset;
+  }
+
+  /**
+   * Returns the decoded text of the body.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the number of body bytes read, after decompression.
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Returns the number of body bytes received from the server.  Less
+   * than <code>getBytesRead()</code> if the body was compressed.
+   */
+  public long getBytesTransferred() {
+    return bytesTransferred;
+  }
+
+  /**
+   * Returns the Content-Encoding ("gzip" or "deflate") the body was
+   * decompressed from, or <code>null</code> if it was not compressed.
+   */
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  /**
+   * Returns the length of the body given by the server, or -1 if it
+   * is not known.
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * Returns true if the body was not read because it is not HTML.
+   */
+  public boolean skipped() {
+    return skipReason != null;
+  }
+
+  /**
+   * Returns why the body was not read, or <code>null</code> if it was.
+   */
+  public String getSkipReason() {
+    return skipReason;
+  }
+
+  /**
+   * Returns true if the body was cut off at the maximum size.
+   */
+  public boolean truncated() {
+    return truncated;
+  }
+
+  /**
+   * Returns the number of body bytes that were not downloaded
+   * because the body was skipped or cut off, if the server gave the
+   * length of the body, otherwise 0.
+   */
+  public long getBytesSkipped() {
+    if ((skipped() || truncated) && contentLength > bytesTransferred)
+      return contentLength - bytesTransferred;
+    return 0;
+  }
+
+  /**
+   * Returns a description of the error that stopped the download, or
+   * <code>null</code> if there was none.  Error statuses such as 404
+   * count as errors.
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Returns true if the download was stopped because connecting or
+   * reading timed out or the page deadline passed.
+   */
+  public boolean timedOut() {
+    return timedOut;
+  }
+
+  public String toString() {
+    return statusCode + " " + finalURL + " (" + bytesRead + " bytes, "
+        + (contentEncoding == null ? "" : bytesTransferred + " " + contentEncoding + ", ")
+        + charset + ")";
+  }
+}
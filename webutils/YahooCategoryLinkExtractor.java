@@ -1,24 +1,20 @@
 package ir.webutils;
 
 import java.net.*;
-import java.io.*;
-import javax.swing.text.*;
-import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
 import java.util.*;
 
 import ir.utilities.*;
 
 /**
- * YahooCategoryLinkExtractor defines a callback for the Swing HTML parser 
+ * YahooCategoryLinkExtractor defines a callback for the HTML lexer 
  * that extracts links to subcategories from a Yahoo directory page.
- * Extracted links are absolute.  Uses the HTML parser in Java Swing
- * to parse the document and find links and translate them to
+ * Extracted links are absolute.  Uses {@link HTMLLexer HTMLLexer}
+ * to scan the document and find links and translate them to
  * absolute URL's (instead of relative ones).
  *
  * @author Ted Wild and Ray Mooney
  */
-public class YahooCategoryLinkExtractor extends HTMLEditorKit.ParserCallback {
+public class YahooCategoryLinkExtractor extends HTMLLexer.Callback {
 
   /**
    * The current list of extracted category links
@@ -55,50 +51,45 @@ public class YahooCategoryLinkExtractor extends HTMLEditorKit.ParserCallback {
    * If it sees text indicating the start of the categories section
    * of the Yahoo page, it sets the inCategorySection flag to true.
    *
-   * @param text     A <code>char</code> array representation of the
-   *                 text.
+   * @param text     A <code>char</code> array holding the text.
+   * @param start    The index of the first character of the text.
+   * @param length   The number of characters of text.
    * @param position The position of the text in the document.
    */
-  public void handleText(char[] text, int position) {
-      String string = new String(text);
+  public void handleText(char[] text, int start, int length, int position) {
+      String string = new String(text, start, length);
       if (string.indexOf("CATEGORIES") >= 0)
 	  inCategorySection = true;
   }
 
   /**
    * Executed when an opening HTML tag is found in the document.
-   * Note that this method only handles tags that also have a
-   * closing tag. Catches "a" tags and adds links for them
+   * Note that this method only handles tags that may have content. Catches "a" tags and adds links for them
    * (after completing them). 
    * If currently in the category section, then save any link in the
    * set of extracted links.
    *
-   * @param tag        The tag that caused this function to be executed.
+   * @param tag        The lower case name of the tag.
    * @param attributes The attributes of <code>tag</code>.
-   * @param position   The start of the tag in the document.  If the
-   *                   tag is implied (filled in by the parser but not actually
-   *                   present in the document) then <code>position</code> will
-   *                   correspond to that of the next encountered tag.
+   * @param position   The start of the tag in the document.
    */
-  public void handleStartTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
-    if (inCategorySection && tag == HTML.Tag.A) {
-      addLink(attributes, HTML.Attribute.HREF);
+  public void handleStartTag(String tag, HTMLLexer.Attributes attributes, int position) {
+    if (inCategorySection && tag.equals("a")) {
+      addLink(attributes, "href");
     }
   }
 
   /**
    * Executed when a closing HTML tag is found in the document.
-   * Note that the parser may add "implied" closing tags.  For
-   * example, the default parser adds closing &lt;p&gt; tags.
    * If encounters end of TABLE tag while in category section
    * of Yahoo page, indicates the end of this section and 
    * sets the inCategorySection flag to false
    *
-   * @param tag      The tag found.
+   * @param tag      The lower case name of the tag.
    * @param position The position of the tag in the document.
    */
-  public void handleEndTag(HTML.Tag tag, int position) {
-      if (inCategorySection && tag == HTML.Tag.TABLE)
+  public void handleEndTag(String tag, int position) {
+      if (inCategorySection && tag.equals("table"))
 	  inCategorySection = false;
   }
 
@@ -106,39 +97,24 @@ public class YahooCategoryLinkExtractor extends HTMLEditorKit.ParserCallback {
    * Executed when an HTML tag that has no closing tag is found in
    * the document. Nothing to do here.
    *
-   * @param tag        The tag that caused this function to be executed.
+   * @param tag        The lower case name of the tag.
    * @param attributes The attributes of <code>tag</code>.
-   * @param position   The start of the tag in the document.  If the
-   *                   tag is implied (filled in by the parser but not actually
-   *                   present in the document) then <code>position</code> will
-   *                   correspond to that of the next encountered tag.
+   * @param position   The start of the tag in the document.
    */
-  public void handleSimpleTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
+  public void handleSimpleTag(String tag, HTMLLexer.Attributes attributes, int position) {
   }
 
   /**
    * Extracts cateory links from the given Yahoo page.  This method constructs a
-   * parser and registers <code>this</code> as the callback.
+   * lexer and registers <code>this</code> as the callback.
    *
    * @return A list of <code>Link</code> objects containing the
    *         links found on this page.  The links will all be absolute
    *         links.
    */
   public List<Link> extractLinks() {
-    HTMLParserMaker kit = new HTMLParserMaker();
-    HTMLEditorKit.Parser parser = kit.getParser();
-    StringReader reader = new StringReader(page.getText());
-    // Swing HTML parser will execute callback routines and thereby
-    // extract links
-    try {
-      parser.parse(reader, this, true);
-    }
-    catch (ChangedCharSetException e) {
-      System.err.println("LinkExtractor.extractLinks(): " + e);
-    }
-    catch (IOException e) {
-      System.err.println("LinkExtractor.extractLinks(): " + e);
-    }
+    // The lexer will execute callback routines and thereby extract links
+    new HTMLLexer().parse(page.getText(), this);
     // Set out-links for the page
     page.setOutLinks(this.links);
     return this.links;
@@ -151,12 +127,12 @@ public class YahooCategoryLinkExtractor extends HTMLEditorKit.ParserCallback {
    * @param attributes The attribute set.
    * @param attr       The attribute that should be treated as a URL.  For
    *                   example, <code>attr</code> should be
-   *                   <code>HTML.Attribute.HREF</code> if <code>attributes</code> is
+   *                   <code>"href"</code> if <code>attributes</code> is
    *                   from an anchor tag.
    */
-  protected void addLink(MutableAttributeSet attributes, HTML.Attribute attr) {
-    if (attributes.isDefined(attr)) {
-      String link = (String) attributes.getAttribute(attr);
+  protected void addLink(HTMLLexer.Attributes attributes, String attr) {
+    String link = attributes.getAttribute(attr);
+    if (link != null) {
       try {
         URL completeURL = new URL(this.url, link);
         // Store extracted link unless it is an internal page link
@@ -1,10 +1,6 @@
 package ir.webutils;
 
 import java.net.*;
-import java.io.*;
-import javax.swing.text.*;
-import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
 import java.util.*;
 
 import ir.utilities.*;
@@ -12,13 +8,13 @@ import ir.utilities.*;
 /**
  * YahooSiteLinkExtractor defines a callback that extracts site links from a 
  * Yahoo directory page and provides functionality to parse a document.  The
- * extracted links are absolute.  Uses the HTML parser in Java Swing
- * to parse the document and find links and translate them to
+ * extracted links are absolute.  Uses {@link HTMLLexer HTMLLexer}
+ * to scan the document and find links and translate them to
  * absolute URL's (instead of relative ones).
  *
  * @author Ted Wild and Ray Mooney
  */
-public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
+public class YahooSiteLinkExtractor extends HTMLLexer.Callback {
 
   /**
    * The current list of extracted site links
@@ -68,12 +64,13 @@ public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
    * results by creating a YahooSiteLinkExtractor for that page
    * and adding the extracted links to the links for this category
    *
-   * @param text     A <code>char</code> array representation of the
-   *                 text.
+   * @param text     A <code>char</code> array holding the text.
+   * @param start    The index of the first character of the text.
+   * @param length   The number of characters of text.
    * @param position The position of the text in the document.
    */
-  public void handleText(char[] text, int position) {
-      String string = new String(text);
+  public void handleText(char[] text, int start, int length, int position) {
+      String string = new String(text, start, length);
       if (string.indexOf("SITE LISTINGS") >= 0)
 	  inSiteSection = true;
       // Check if in link to more site results
@@ -94,29 +91,25 @@ public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
 
   /**
    * Executed when an opening HTML tag is found in the document.
-   * Note that this method only handles tags that also have a
-   * closing tag. 
+   * Note that this method only handles tags that may have content. 
    * If currently in the site listing section, then save any link in the
    * set of extracted links.
    * If an anchor link to more Yahoo site results, then save the URL
    * in the moreURL flag.
    *
-   * @param tag        The tag that caused this function to be executed.
+   * @param tag        The lower case name of the tag.
    * @param attributes The attributes of <code>tag</code>.
-   * @param position   The start of the tag in the document.  If the
-   *                   tag is implied (filled in by the parser but not actually
-   *                   present in the document) then <code>position</code> will
-   *                   correspond to that of the next encountered tag.
+   * @param position   The start of the tag in the document.
    */
-  public void handleStartTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
-    if (tag == HTML.Tag.A) {
+  public void handleStartTag(String tag, HTMLLexer.Attributes attributes, int position) {
+    if (tag.equals("a")) {
 	if (inSiteSection) {
-	    addLink(attributes, HTML.Attribute.HREF);
+	    addLink(attributes, "href");
 	}
 	else {
 	    // Check if this is a Yahoo link to more site results
-	    String url = (String)attributes.getAttribute(HTML.Attribute.HREF);
-	    if (url.indexOf("dir.yahoo") >=0 && url.indexOf("?b=") >=0) {
+	    String url = attributes.getAttribute("href");
+	    if (url != null && url.indexOf("dir.yahoo") >=0 && url.indexOf("?b=") >=0) {
 		// If so, store the URL
 		moreURL = url;
 	    }
@@ -126,21 +119,19 @@ public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
 
   /**
    * Executed when a closing HTML tag is found in the document.
-   * Note that the parser may add "implied" closing tags.  For
-   * example, the default parser adds closing &lt;p&gt; tags.
    * If encounters end of TABLE tag while in the site listing section
    * of Yahoo page, indicates the end of this section and 
    * sets the inSiteSection flag to false.
    * If ending an anchor text section of a link to more results
    * then set moreURL flag to null to indicate no longer in such a link
    *
-   * @param tag      The tag found.
+   * @param tag      The lower case name of the tag.
    * @param position The position of the tag in the document.
    */
-  public void handleEndTag(HTML.Tag tag, int position) {
-      if (inSiteSection && tag == HTML.Tag.TABLE)
+  public void handleEndTag(String tag, int position) {
+      if (inSiteSection && tag.equals("table"))
 	  inSiteSection = false;
-      if (tag == HTML.Tag.A)
+      if (tag.equals("a"))
 	  moreURL = null;
   }
 
@@ -148,40 +139,25 @@ public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
    * Executed when an HTML tag that has no closing tag is found in
    * the document. Nothing to do here.
    *
-   * @param tag        The tag that caused this function to be executed.
+   * @param tag        The lower case name of the tag.
    * @param attributes The attributes of <code>tag</code>.
-   * @param position   The start of the tag in the document.  If the
-   *                   tag is implied (filled in by the parser but not actually
-   *                   present in the document) then <code>position</code> will
-   *                   correspond to that of the next encountered tag.
+   * @param position   The start of the tag in the document.
    */
-  public void handleSimpleTag(HTML.Tag tag, MutableAttributeSet attributes, int position) {
+  public void handleSimpleTag(String tag, HTMLLexer.Attributes attributes, int position) {
 
   }
 
   /**
    * Extracts site links from the given Yahoo page.  This method constructs a
-   * parser and registers <code>this</code> as the callback.
+   * lexer and registers <code>this</code> as the callback.
    *
    * @return A list of <code>Link</code> objects containing the
    *         links found on this page.  The links will all be absolute
    *         links.
    */
   public List<Link> extractLinks() {
-    HTMLParserMaker kit = new HTMLParserMaker();
-    HTMLEditorKit.Parser parser = kit.getParser();
-    StringReader reader = new StringReader(page.getText());
-    // Swing HTML parser will execute callback routines and thereby
-    // extract links
-    try {
-      parser.parse(reader, this, true);
-    }
-    catch (ChangedCharSetException e) {
-      System.err.println("LinkExtractor.extractLinks(): " + e);
-    }
-    catch (IOException e) {
-      System.err.println("LinkExtractor.extractLinks(): " + e);
-    }
+    // The lexer will execute callback routines and thereby extract links
+    new HTMLLexer().parse(page.getText(), this);
     // Set out-links for the page
     page.setOutLinks(this.links);
     return this.links;
@@ -194,12 +170,12 @@ public class YahooSiteLinkExtractor extends HTMLEditorKit.ParserCallback {
    * @param attributes The attribute set.
    * @param attr       The attribute that should be treated as a URL.  For
    *                   example, <code>attr</code> should be
-   *                   <code>HTML.Attribute.HREF</code> if <code>attributes</code> is
+   *                   <code>"href"</code> if <code>attributes</code> is
    *                   from an anchor tag.
    */
-  protected void addLink(MutableAttributeSet attributes, HTML.Attribute attr) {
-    if (attributes.isDefined(attr)) {
-      String link = (String) attributes.getAttribute(attr);
+  protected void addLink(HTMLLexer.Attributes attributes, String attr) {
+    String link = attributes.getAttribute(attr);
+    if (link != null) {
       try {
         URL completeURL = new URL(this.url, link);
         // Store extracted link unless it is an internal page link
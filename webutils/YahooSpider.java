@@ -42,6 +42,18 @@ public class YahooSpider {
    */
   protected boolean slow = false;
 
+  /**
+   * Paces requests to each host by how it responds when the "-adaptive"
+   * option is given; <code>null</code> otherwise
+   */
+  protected ConcurrencyController concurrencyController = null;
+
+  /**
+   * The time in milliseconds of the last request to each host (adaptive
+   * crawls only)
+   */
+  protected Map<String,Long> lastRequestTimes = new HashMap<String,Long>();
+
   /**
    * The object to be used to retrieve pages
    */
@@ -107,6 +119,8 @@ public class YahooSpider {
    * <li>-p &lt;prefix &gt; : Prefix saved file names with &lt;prefix&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-adaptive : Wait between requests to a host for as long as its
+   * response times and errors call for.</li>
    * </ul>
    * <p/>
    * Each option has a corresponding
@@ -139,6 +153,8 @@ public class YahooSpider {
           handlePCommandLineOption(args[++i]);
         else if (args[i].equals("-slow"))
           handleSlowCommandLineOption();
+        else if (args[i].equals("-adaptive"))
+          handleAdaptiveCommandLineOption();
       }
       ++i;
     }
@@ -201,6 +217,15 @@ public class YahooSpider {
     slow = true;
   }
 
+  /**
+   * Called when "-adaptive" is passed in on the command line.  <p> This
+   * implementation creates a <code>ConcurrencyController</code> that
+   * sets the delay between requests to each host.
+   */
+  protected void handleAdaptiveCommandLineOption() {
+    concurrencyController = new ConcurrencyController(1, null);
+  }
+
   /**
    * Performs the crawl.  Should be called after
    * <code>processArgs</code> has been called.  Assumes that
@@ -231,7 +256,7 @@ public class YahooSpider {
 	  if (categoryLinks == null) {
 	      // Use the page retriever to get the page
 	      try {
-		  HTMLPage page = retriever.getHTMLPage(link);
+		  HTMLPage page = getHTMLPage(link);
 		  categoryLinks = new YahooCategoryLinkExtractor(page).extractLinks();
 		  categoryLinksMap.put(link,categoryLinks);
 		  siteLinks = new YahooSiteLinkExtractor(page).extractLinks();		  
@@ -284,7 +309,7 @@ public class YahooSpider {
       // Use the page retriever to get the page      
       HTMLPage sitePage = null;
       try {
-	  sitePage = retriever.getHTMLPage(site);
+	  sitePage = getHTMLPage(site);
       }
       catch (PathDisallowedException e) {
 	  System.out.println(e);
@@ -301,6 +326,35 @@ public class YahooSpider {
     }
   }
 
+  /**
+   * Downloads a page with the retriever.  If the crawl is adaptive,
+   * first waits until the delay the <code>concurrencyController</code>
+   * has set for the host has passed since the last request to it, and
+   * afterwards tells the controller how the request went.
+   */
+  protected HTMLPage getHTMLPage(Link link) throws PathDisallowedException {
+    if (concurrencyController == null)
+      return retriever.getHTMLPage(link);
+    String host = link.getURL().getHost();
+    Long last = lastRequestTimes.get(host);
+    long wait = (last == null) ? 0 : last + concurrencyController.getHostDelay(host) - System.currentTimeMillis();
+    if (wait > 0) {
+      try {
+        Thread.sleep(wait);
+      }
+      catch (InterruptedException e) {
+      }
+    }
+    long start = System.currentTimeMillis();
+    lastRequestTimes.put(host, start);
+    HTMLPage page = retriever.getHTMLPage(link);
+    WebResponse response = page.getResponse();
+    if (response != null)
+      concurrencyController.record(host, System.currentTimeMillis() - start,
+                                   response.getBytesTransferred(), HostCircuitBreaker.isFailure(response));
+    return page;
+  }
+
   /**
    * Pick a random link from a list of links
    */
@@ -344,6 +398,8 @@ public class YahooSpider {
    * <li>-p &lt;prefix &gt; : Prefix saved file names with &lt;prefix&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-adaptive : Wait between requests to a host for as long as its
+   * response times and errors call for.</li>
    * </ul>
    */
   public static void main(String args[]) {